@@ -0,0 +1,198 @@
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.function.IntSupplier;
+
+/**
+ * The work the JMH benchmarks in jmh.GameBenchmarks time: parsing, loading
+ * program files, running programs, evaluating conditions, updating robots
+ * and painting. JMH won't benchmark classes in the default package, and
+ * classes in a package can't see the game's, so GameBenchmarks finds each
+ * of these by name and times the IntSupplier it returns, whose result is
+ * there for JMH to consume so the JIT can't throw the work away.
+ * <p>
+ * Programs are read from ../data, so the benchmarks are run from the code
+ * directory, which is also where the assets are found.
+ */
+public class Benchmarks {
+
+	static final File DATA = new File("../data");
+
+	static {
+		System.setProperty("java.awt.headless", "true");
+		// the parser and robots print a lot, none of which is wanted here
+		RoboGame.debugDisplay = false;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	private Benchmarks() {
+	}
+
+	// The benchmarks
+	// --------------
+
+	/** Parses the program file, whether or not it parses. */
+	public static IntSupplier parseFile(String file) {
+		final File f = new File(DATA, file);
+		return new IntSupplier() {
+			public int getAsInt() {
+				RobotProgramNode n = Parser.parseFile(f);
+				return (n == null) ? 0 : 1;
+			}
+		};
+	}
+
+	/**
+	 * Loads the program from a program file written by AstCodec, for
+	 * comparison with parseFile.
+	 */
+	public static IntSupplier loadProgram(String file) throws IOException {
+		RobotProgramNode prog = parse(file);
+		final File bin = File.createTempFile(file, ".astp");
+		bin.deleteOnExit();
+		AstCodec.writeProgram(bin, prog);
+		return new IntSupplier() {
+			public int getAsInt() {
+				try {
+					RobotProgramNode n = AstCodec.readProgram(bin);
+					return (n == null) ? 0 : 1;
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Runs the program to completion by ProgNode.execute, on a robot that
+	 * doesn't wait for the world, on a fixed set of barrels.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the program doesn't finish on its own
+	 */
+	public static IntSupplier execute(String file) throws InterruptedException {
+		final RobotProgramNode prog = parse(file);
+		if (!terminates(prog))
+			throw new IllegalArgumentException(file + " doesn't finish on its own");
+		return new IntSupplier() {
+			public int getAsInt() {
+				World.RoboGamePrinter world = newPrinterWorld();
+				Robot robot = world.getRobot(1);
+				robot.setProgram(prog);
+				robot.run();
+				return robot.getFuelLevel();
+			}
+		};
+	}
+
+	/**
+	 * Evaluates one of three conditions with a costly side and a cheap one
+	 * that decides them, a thousand times.
+	 *
+	 * @param version
+	 *            "parsed", "fused", or "reordered" for fused with its ands
+	 *            and ors reordered
+	 */
+	public static IntSupplier evaluate(String condition, String version) {
+		String[] conditions = { "and(gt(add(mul(oppLR, 2), sub(wallDist, fuelLeft)), 5), eq(numBarrels, 7))",
+				"or(lt(add(barrelFB, mul(barrelLR, 2)), sub(fuelLeft, 200)), or(eq(oppFB, 3), gt(fuelLeft, 10)))",
+				"and(and(eq(add(oppLR, oppFB), 4), lt(sub(wallDist, barrelFB), 0)), gt(numBarrels, 0))" };
+		RobotProgramNode prog = ProgramOptimizer.optimize(
+				Parser.parseString("if(" + conditions[Integer.parseInt(condition) - 1] + "){move;}"));
+		if (version.equals("fused"))
+			prog = ProgramFuser.fuse(prog);
+		else if (version.equals("reordered"))
+			prog = ProgramFuser.fuse(prog, true);
+		else if (!version.equals("parsed"))
+			throw new IllegalArgumentException("Unknown version " + version);
+		final RobotConditionNode cond = ((ifNode) ((ProgNode) prog).children.get(0)).cond;
+		final Robot robot = newPrinterWorld().getRobot(1);
+		return new IntSupplier() {
+			public int getAsInt() {
+				int n = 0;
+				for (int k = 0; k < 1000; k++) {
+					n += cond.evaluate(robot) ? 1 : 0;
+				}
+				return n;
+			}
+		};
+	}
+
+	/** Robot.updatePending with the given number of barrels in the world. */
+	public static IntSupplier updatePending(String barrels) {
+		World world = new World();
+		for (int i = 0; i < Integer.parseInt(barrels); i++) {
+			world.getAvailableFuel().add(new Point(i % World.SIZE, i / World.SIZE));
+		}
+		final Robot robot = world.getRobot(1);
+		return new IntSupplier() {
+			public int getAsInt() {
+				robot.updatePending();
+				return robot.getX();
+			}
+		};
+	}
+
+	/** WorldComponent.paintComponent into an off-screen image. */
+	public static IntSupplier paintComponent() {
+		final WorldComponent comp = new WorldComponent();
+		comp.setSize(600, 600);
+		final BufferedImage img = new BufferedImage(600, 600, BufferedImage.TYPE_INT_ARGB);
+		return new IntSupplier() {
+			public int getAsInt() {
+				Graphics2D g2d = img.createGraphics();
+				comp.paint(g2d);
+				g2d.dispose();
+				return img.getRGB(0, 0);
+			}
+		};
+	}
+
+	// Helpers
+	// -------
+
+	private static RobotProgramNode parse(String file) {
+		RobotProgramNode prog = Parser.parseFile(new File(DATA, file));
+		if (prog == null)
+			throw new IllegalArgumentException(file + " doesn't parse");
+		return prog;
+	}
+
+	private static World.RoboGamePrinter newPrinterWorld() {
+		World.RoboGamePrinter world = new World.RoboGamePrinter();
+		world.getAvailableFuel().add(new Point(0, 5));
+		world.getAvailableFuel().add(new Point(6, 6));
+		world.getAvailableFuel().add(new Point(3, 9));
+		return world;
+	}
+
+	/**
+	 * Tries the program on its own thread and gives up after a second, or if
+	 * it goes over its budget.
+	 */
+	private static boolean terminates(RobotProgramNode prog) throws InterruptedException {
+		World.RoboGamePrinter world = newPrinterWorld();
+		final Robot robot = world.getRobot(1);
+		robot.setProgram(prog);
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					robot.run();
+				} catch (RuntimeException e) {
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		t.join(1000);
+		if (t.isAlive()) {
+			robot.cancel();
+			return false;
+		}
+		return !robot.isTimedOut();
+	}
+}
@@ -0,0 +1,225 @@
+import java.awt.Point;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts how many node calls (execute or evaluate) it takes to run each of
+ * the data/*_full.prog programs by walking its tree: as parsed, after the
+ * ProgramOptimizer, and after the ProgramFuser as well. Every node is
+ * wrapped in one that counts its calls, and each program is run on a robot
+ * that doesn't wait for the world until it finishes, which all the _full
+ * programs do once they run out of fuel. The robot's states after each
+ * action must come out the same all three ways.
+ *
+ * <pre>
+ * java -cp out DispatchCount [data directory]
+ * </pre>
+ */
+public class DispatchCount {
+
+	// more calls than this and the program is taken not to finish
+	private static final long MAX_CALLS = 100000000L;
+
+	private static final PrintStream console = System.out;
+
+	private static long calls;
+
+	@SuppressWarnings("serial")
+	private static class TooMany extends RuntimeException {
+	}
+
+	public static void main(String[] args) throws Exception {
+		File data = new File((args.length > 0) ? args[0] : "../data");
+		List<File> files = new ArrayList<File>();
+		File[] all = data.listFiles();
+		if (all != null) {
+			for (File f : all) {
+				if (f.getName().endsWith("_full.prog"))
+					files.add(f);
+			}
+		}
+		Collections.sort(files);
+		RoboGame.debugDisplay = false;
+		console.println("program,actions,parsed_calls,optimized_calls,fused_calls,calls_per_action,fused_per_action,"
+				+ "saved");
+		boolean same = true;
+		for (File f : files) {
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+			RobotProgramNode prog;
+			try {
+				prog = Parser.parseFile(f);
+			} finally {
+				System.setOut(console);
+			}
+			if (prog == null)
+				continue;
+			// each its own copy, since counting rewires the nodes
+			byte[] code = AstCodec.encode(prog);
+			RobotProgramNode parsed = AstCodec.decode(ByteBuffer.wrap(code));
+			RobotProgramNode optimized = ProgramOptimizer.optimize(AstCodec.decode(ByteBuffer.wrap(code)));
+			RobotProgramNode fused = ProgramFuser
+					.fuse(ProgramOptimizer.optimize(AstCodec.decode(ByteBuffer.wrap(code))));
+
+			String[] states = new String[3];
+			long[] counts = new long[3];
+			RobotProgramNode[] programs = { parsed, optimized, fused };
+			for (int i = 0; i < 3; i++) {
+				states[i] = run(programs[i]);
+				counts[i] = calls;
+			}
+			if (!states[0].equals(states[1]) || !states[0].equals(states[2])) {
+				same = false;
+				console.println("# " + f.getName() + ": the robot does something different");
+			}
+			int actions = states[0].isEmpty() ? 0 : states[0].split("\n").length;
+			console.printf("%s,%d,%d,%d,%d,%.1f,%.1f,%.0f%%%n", f.getName(), actions, counts[0], counts[1], counts[2],
+					counts[0] / (double) Math.max(1, actions), counts[2] / (double) Math.max(1, actions),
+					100.0 * (counts[0] - counts[2]) / Math.max(1, counts[0]));
+		}
+		if (!same)
+			System.exit(1);
+	}
+
+	/**
+	 * Runs the program with every node counted, leaving the count in calls.
+	 *
+	 * @return the states the robot printed, one a line
+	 */
+	private static String run(RobotProgramNode program) throws Exception {
+		RobotProgramNode counted = (RobotProgramNode) count(program, new IdentityHashMap<Object, Object>());
+		World.RoboGamePrinter world = new World.RoboGamePrinter();
+		world.getAvailableFuel().add(new Point(0, 5));
+		world.getAvailableFuel().add(new Point(6, 6));
+		world.getAvailableFuel().add(new Point(3, 9));
+		Robot robot = world.getRobot(1);
+		robot.setProgram(counted);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		calls = 0;
+		System.setOut(new PrintStream(out));
+		try {
+			robot.run();
+		} catch (TooMany e) {
+			console.println("# gave up after " + MAX_CALLS + " calls");
+		} finally {
+			System.setOut(console);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String line : out.toString().split("\n")) {
+			if (line.startsWith("x="))
+				sb.append(line).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static void called() {
+		if (++calls > MAX_CALLS)
+			throw new TooMany();
+	}
+
+	/**
+	 * Wraps the node, and every node it holds but the one a fused node stands
+	 * for, in one that counts its calls.
+	 */
+	private static Object count(Object node, Map<Object, Object> wrapped) throws IllegalAccessException {
+		Object w = wrapped.get(node);
+		if (w != null)
+			return w;
+		for (Class<?> c = node.getClass(); c != Object.class; c = c.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+				if (Modifier.isStatic(f.getModifiers()) || f.getName().equals("original"))
+					continue;
+				f.setAccessible(true);
+				Object v = f.get(node);
+				if (v == null)
+					continue;
+				if (isNode(f.getType())) {
+					f.set(node, count(v, wrapped));
+				} else if (v instanceof List) {
+					@SuppressWarnings("unchecked")
+					List<Object> list = (List<Object>) v;
+					for (int i = 0; i < list.size(); i++) {
+						list.set(i, count(list.get(i), wrapped));
+					}
+				} else if (v instanceof RobotProgramNode[]) {
+					RobotProgramNode[] array = (RobotProgramNode[]) v;
+					for (int i = 0; i < array.length; i++) {
+						array[i] = (RobotProgramNode) count(array[i], wrapped);
+					}
+				}
+			}
+		}
+		if (node instanceof RobotProgramNode)
+			w = new CountedStatement((RobotProgramNode) node);
+		else if (node instanceof RobotConditionNode)
+			w = new CountedCondition((RobotConditionNode) node);
+		else
+			w = new CountedSensor((RobotSensorNode) node);
+		wrapped.put(node, w);
+		return w;
+	}
+
+	private static boolean isNode(Class<?> type) {
+		return type == RobotProgramNode.class || type == RobotConditionNode.class || type == RobotSensorNode.class;
+	}
+
+	private static class CountedStatement implements RobotProgramNode {
+		private final RobotProgramNode node;
+
+		CountedStatement(RobotProgramNode node) {
+			this.node = node;
+		}
+
+		public void execute(Robot robot) {
+			called();
+			node.execute(robot);
+		}
+
+		public String toString() {
+			return node.toString();
+		}
+	}
+
+	private static class CountedCondition implements RobotConditionNode {
+		private final RobotConditionNode node;
+
+		CountedCondition(RobotConditionNode node) {
+			this.node = node;
+		}
+
+		public boolean evaluate(Robot robot) {
+			called();
+			return node.evaluate(robot);
+		}
+
+		public String toString() {
+			return node.toString();
+		}
+	}
+
+	private static class CountedSensor implements RobotSensorNode {
+		private final RobotSensorNode node;
+
+		CountedSensor(RobotSensorNode node) {
+			this.node = node;
+		}
+
+		public int evaluate(Robot robot) {
+			called();
+			return node.evaluate(robot);
+		}
+
+		public String toString() {
+			return node.toString();
+		}
+	}
+}
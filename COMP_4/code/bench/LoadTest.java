@@ -0,0 +1,204 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Parses and runs programs from the ProgramGenerator that are much bigger
+ * and deeper than anything in data/, and reports parse times (from a String,
+ * a mapped file and a file channel), the memory the AST takes, how deep a
+ * program can nest before the parser or compiler runs out of stack, how long
+ * the ProgramAnalyzer takes, and how many ticks a second a match between two
+ * generated programs runs at, with the robots kept fuelled so the matches
+ * run their programs rather than end in a few ticks.
+ *
+ * <pre>
+ * java -cp out LoadTest [seed]
+ * </pre>
+ */
+public class LoadTest {
+
+	private static final int[] SIZES = { 64 << 10, 256 << 10, 1 << 20, 4 << 20 };
+	private static final int MAX_DEPTH = 1 << 16;
+	private static final int TOTAL_TICKS = 100000, MATCH_TICKS = 10000, REFUEL_TICKS = 10;
+
+	private static final PrintStream console = System.out;
+
+	public static void main(String[] args) throws IOException {
+		long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+		RoboGame.debugDisplay = false;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			size(seed);
+			depth(seed);
+			ticks(seed);
+		} finally {
+			System.setOut(console);
+		}
+	}
+
+	/**
+	 * Parses programs of each size from a String, from a mapped file and
+	 * through a file channel, taking the best of a few runs of each.
+	 */
+	private static void size(long seed) throws IOException {
+		console.println("size_bytes,string_ms,mapped_ms,channel_ms,analyze_ms,ast_bytes,compiled_ints");
+		File file = File.createTempFile("loadtest", ".prog");
+		file.deleteOnExit();
+		for (int size : SIZES) {
+			final String code = new ProgramGenerator(seed).generate(size);
+			Files.write(file.toPath(), code.getBytes(StandardCharsets.US_ASCII));
+			long before = usedMemory();
+			RobotProgramNode prog = Parser.parseString(code);
+			long ast = usedMemory() - before;
+			int compiled = CompiledProgram.of(prog).size();
+
+			double string = best(new Parse() {
+				public RobotProgramNode parse() {
+					return Parser.parseString(code);
+				}
+			});
+			double mapped = best(new Parse() {
+				public RobotProgramNode parse() throws IOException {
+					return Parser.parseMapped(file);
+				}
+			});
+			double channel = best(new Parse() {
+				public RobotProgramNode parse() throws IOException {
+					return Parser.parseChannel(file);
+				}
+			});
+			final RobotProgramNode parsed = prog;
+			double analyze = best(new Parse() {
+				public RobotProgramNode parse() {
+					ProgramAnalyzer.analyze(parsed);
+					return parsed;
+				}
+			});
+			console.printf("%d,%.1f,%.1f,%.1f,%.1f,%d,%d%n", code.length(), string, mapped, channel, analyze, ast,
+					compiled);
+		}
+	}
+
+	interface Parse {
+		RobotProgramNode parse() throws IOException;
+	}
+
+	/** @return the shortest time of a few parses, in ms */
+	private static double best(Parse p) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			long start = System.nanoTime();
+			p.parse();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1e6;
+	}
+
+	/**
+	 * Doubles the nesting depth of a program until the parser, the compiler
+	 * or the analyzer overflows the stack.
+	 */
+	private static void depth(long seed) {
+		console.println("depth,parse,compile,analyze");
+		for (int depth = 16; depth <= MAX_DEPTH; depth *= 2) {
+			String code = new ProgramGenerator(seed).generateNested(depth);
+			RobotProgramNode prog;
+			try {
+				prog = Parser.parseString(code);
+			} catch (StackOverflowError e) {
+				console.printf("%d,overflow,%n", depth);
+				return;
+			}
+			try {
+				CompiledProgram.of(prog);
+			} catch (StackOverflowError e) {
+				console.printf("%d,ok,overflow,%n", depth);
+				return;
+			}
+			try {
+				ProgramAnalyzer.analyze(prog);
+			} catch (StackOverflowError e) {
+				console.printf("%d,ok,ok,overflow%n", depth);
+				return;
+			}
+			console.printf("%d,ok,ok,ok%n", depth);
+		}
+	}
+
+	/**
+	 * Runs stepped matches between generated programs of growing size, as
+	 * many as it takes to get through TOTAL_TICKS ticks, and reports the
+	 * fewest and most ticks a match lasted. Only the updates are timed. A
+	 * robot uses all its fuel in about twenty actions, so both are refuelled
+	 * every REFUEL_TICKS ticks, and each program is run in a loop, so
+	 * matches go on for MATCH_TICKS ticks rather than ending as soon as a
+	 * robot runs dry or a program gets to its end. They never use the
+	 * shield, which burns more fuel than a refuel gives back.
+	 */
+	private static void ticks(long seed) {
+		console.println("size_bytes,matches,ticks,min_match_ticks,max_match_ticks,ms,ticks_per_s");
+		for (int size = 1 << 10; size <= 1 << 20; size *= 4) {
+			RobotProgramNode one = Parser
+					.parseString("loop{" + new ProgramGenerator(seed).setShieldChance(0).generate(size) + "}");
+			RobotProgramNode two = Parser
+					.parseString("loop{" + new ProgramGenerator(seed + 1).setShieldChance(0).generate(size) + "}");
+			long ticks = 0, time = 0;
+			int matches = 0, fewest = Integer.MAX_VALUE, most = 0;
+			while (ticks < TOTAL_TICKS) {
+				World world = new World();
+				world.setSeed(seed + matches);
+				world.getRobot(1).setProgram(one);
+				world.getRobot(2).setProgram(two);
+				MatchResult result;
+				do {
+					long start = System.nanoTime();
+					result = world.runMatch(Math.min(world.getTick() + REFUEL_TICKS, MATCH_TICKS));
+					time += System.nanoTime() - start;
+					refuel(world);
+				} while (result.getTicks() < MATCH_TICKS && !over(world));
+				ticks += Math.max(1, result.getTicks());
+				fewest = Math.min(fewest, result.getTicks());
+				most = Math.max(most, result.getTicks());
+				matches++;
+			}
+			console.printf("%d,%d,%d,%d,%d,%.1f,%.0f%n", size, matches, ticks, fewest, most, time / 1e6,
+					ticks * 1e9 / time);
+		}
+	}
+
+	/**
+	 * Fills both robots' tanks between updates, leaving them otherwise as
+	 * they are.
+	 */
+	private static void refuel(World world) {
+		for (int i = 1; i <= 2; i++) {
+			Robot r = world.getRobot(i);
+			if (r.isDead())
+				continue;
+			r.setReplayState(r.getX(), r.getY(), r.getDirection(), 100, r.getShield(), 0, r.getX(), r.getY(),
+					r.getDirection(), 100);
+			r.updateSensors();
+		}
+	}
+
+	/** @return whether a robot can't play on */
+	private static boolean over(World world) {
+		for (int i = 1; i <= 2; i++) {
+			Robot r = world.getRobot(i);
+			if (r.isDead() || r.isTimedOut())
+				return true;
+		}
+		return false;
+	}
+
+	private static long usedMemory() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
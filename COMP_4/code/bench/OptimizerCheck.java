@@ -0,0 +1,278 @@
+import java.awt.Point;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the ProgramOptimizer and ProgramFuser don't change what
+ * programs do: plays the same seeded matches between the programs as parsed
+ * and again between the programs optimized and fused, as World loads them,
+ * and compares both robots after every update. With reorder, the fuser
+ * reorders ands and ors as well. The
+ * programs are those in data/ that parse and a couple of hundred small ones
+ * from the ProgramGenerator. Prints how many nodes and instructions
+ * optimizing saved, and every match that came out differently, and exits
+ * with 1 if any did.
+ * <p>
+ * Matches compile the fused nodes back to what they stand for, so with
+ * treewalk each program is instead run by execute() on a robot that doesn't
+ * wait for the world, as RoboGamePrinter runs it, which is where the fused
+ * nodes run, and where reordered conditions profile their terms and sort
+ * them. Then matches is the number of runs and ticks the number of actions
+ * each run is stopped after, and the generated programs loop, so their
+ * conditions are evaluated often enough to be sorted. What the robot did
+ * after every action, and how the run ended, must be the same for both
+ * programs.
+ * <p>
+ * A robot run on its own thread by World.start sees the world change while
+ * its program goes round a loop without acting, which stepped matches and
+ * RoboGamePrinter never do, so programs for it are optimized differently.
+ * With timed, the programs are optimized for such robots and run as with
+ * treewalk, but barrels come and go every few times round a loop, and a
+ * loop that goes round too often without acting is stopped.
+ *
+ * <pre>
+ * java -cp out OptimizerCheck [matches] [ticks] [reorder] [treewalk] [timed]
+ * </pre>
+ */
+public class OptimizerCheck {
+
+	private static final PrintStream console = System.out;
+
+	public static void main(String[] args) {
+		int matches = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		int ticks = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		boolean reorder = false, treeWalk = false, timed = false;
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("reorder"))
+				reorder = true;
+			else if (args[i].equals("treewalk"))
+				treeWalk = true;
+			else if (args[i].equals("timed"))
+				treeWalk = timed = true;
+			else
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+		RoboGame.debugDisplay = false;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		int failures;
+		try {
+			failures = check(programs(treeWalk), matches, ticks, reorder, treeWalk, timed);
+		} finally {
+			System.setOut(console);
+		}
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	private static List<RobotProgramNode> programs(boolean loop) {
+		List<RobotProgramNode> programs = new ArrayList<RobotProgramNode>();
+		File[] files = new File("../data").listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (f.getName().endsWith(".prog")) {
+					RobotProgramNode prog = Parser.parseFile(f);
+					if (prog != null)
+						programs.add(prog);
+				}
+			}
+		}
+		// waits for a barrel, which only ends if the robot isn't stepped
+		programs.add(Parser.parseString("if (eq(numBarrels, 0)) { while (eq(numBarrels, 0)) { } turnL; } move;"));
+		// matches are over in a few dozen updates, so many small programs
+		// try more of the optimizer than a few big ones
+		ProgramGenerator gen = new ProgramGenerator(1).setMaxDepth(3);
+		for (int i = 0; i < 200; i++) {
+			String statements = gen.generateStatements(6);
+			programs.add(Parser.parseString(loop ? "loop{" + statements + "}" : statements));
+		}
+		return programs;
+	}
+
+	/**
+	 * @return the number of matches that came out differently
+	 */
+	private static int check(List<RobotProgramNode> programs, int matches, int ticks, boolean reorder,
+			boolean treeWalk, boolean timed) {
+		int n = programs.size();
+		RobotProgramNode[] optimized = new RobotProgramNode[n];
+		long nodes = 0, optNodes = 0, ints = 0, optInts = 0;
+		for (int i = 0; i < n; i++) {
+			optimized[i] = ProgramFuser.fuse(ProgramOptimizer.optimize(programs.get(i), !timed), reorder);
+			nodes += AstCodec.countNodes(programs.get(i));
+			optNodes += AstCodec.countNodes(optimized[i]);
+			ints += CompiledProgram.of(programs.get(i)).size();
+			optInts += CompiledProgram.of(optimized[i]).size();
+		}
+		console.printf("%d programs, %d nodes optimized to %d, %d instructions to %d%n", n, nodes, optNodes, ints,
+				optInts);
+
+		int failures = 0;
+		for (int m = 0; m < matches; m++) {
+			int one = m % n, two = (m / n + m + 1) % n;
+			String diff;
+			if (treeWalk) {
+				String a = walk(programs.get(one), m, ticks, timed), b = walk(optimized[one], m, ticks, timed);
+				diff = a.equals(b) ? null : difference(a, b);
+			} else {
+				diff = compare(programs.get(one), programs.get(two), optimized[one], optimized[two], m, ticks);
+			}
+			if (diff != null) {
+				failures++;
+				if (treeWalk)
+					console.println("run " + m + " (" + one + "): " + diff);
+				else
+					console.println("match " + m + " (" + one + " v " + two + "): " + diff);
+			}
+		}
+		console.println(matches + (treeWalk ? " runs, " : " matches, ") + failures + " different");
+		return failures;
+	}
+
+	/**
+	 * @return where the two matches first differ, or null if they don't
+	 */
+	private static String compare(RobotProgramNode one, RobotProgramNode two, RobotProgramNode optOne,
+			RobotProgramNode optTwo, long seed, int ticks) {
+		World plain = world(one, two, seed), opt = world(optOne, optTwo, seed);
+		for (int t = 0; t < ticks; t++) {
+			String a = state(plain), b = state(opt);
+			if (!a.equals(b))
+				return "update " + t + ": " + a + " but optimized " + b;
+			if (plain.getRobot(1).isDead() || plain.getRobot(2).isDead())
+				break;
+			plain.step();
+			opt.step();
+		}
+		String a = plain.runMatch(plain.getTick()).toString(), b = opt.runMatch(opt.getTick()).toString();
+		return a.equals(b) ? null : a + " but optimized " + b;
+	}
+
+	private static World world(RobotProgramNode one, RobotProgramNode two, long seed) {
+		World w = new World();
+		w.setSeed(seed);
+		w.getRobot(1).setProgram(one);
+		w.getRobot(2).setProgram(two);
+		w.runMatch(0);
+		return w;
+	}
+
+	private static String state(World w) {
+		StringBuilder sb = new StringBuilder();
+		for (int id = 1; id <= 2; id++) {
+			Robot.Snapshot s = w.getRobot(id).snapshot();
+			sb.append(id).append(':').append(s.x).append(',').append(s.y).append(',').append(s.dir).append(',')
+					.append(s.fuel).append(',').append(s.targetFuel).append(',').append(s.shield).append(',')
+					.append(s.lastAction).append(',').append(s.dead).append(' ');
+		}
+		return sb.append(w.getAvailableFuel().size()).toString();
+	}
+
+	// Tree walking
+	// ------------
+
+	/**
+	 * Runs the program by execute() on a world with up to six barrels placed
+	 * from the seed, stopping it after the given number of actions. If timed,
+	 * barrels come and go while the program loops without acting.
+	 *
+	 * @return one line for what the robot did after each action, then one
+	 *         for how the run ended
+	 */
+	private static String walk(RobotProgramNode program, long seed, int actions, boolean timed) {
+		Walk world = new Walk(seed, actions, timed);
+		Recorder robot = (Recorder) world.getRobot(1);
+		robot.setProgram(program);
+		String end;
+		try {
+			robot.run();
+			end = robot.isTimedOut() ? "over budget" : "finished";
+		} catch (RobotInterruptedException e) {
+			end = robot.isTimedOut() ? "over budget" : e.getMessage();
+		} catch (RuntimeException e) {
+			end = e.toString();
+		}
+		return robot.record.append(end).toString();
+	}
+
+	/** @return the first line the two histories differ on */
+	private static String difference(String plain, String opt) {
+		String[] a = plain.split("\n"), b = opt.split("\n");
+		int i = 0;
+		while (i < a.length && i < b.length && a[i].equals(b[i])) {
+			i++;
+		}
+		String lineA = (i < a.length) ? a[i] : "nothing", lineB = (i < b.length) ? b[i] : "nothing";
+		return "action " + i + ": " + lineA + " but optimized " + lineB;
+	}
+
+	/** A world whose red robot records what it does and runs straight through. */
+	private static class Walk extends World {
+		private final Random rand;
+
+		Walk(long seed, int actions, boolean timed) {
+			super(true);
+			robots[1] = new Recorder(this, actions, timed);
+			rand = new Random(seed);
+			for (int i = rand.nextInt(7); i > 0; i--) {
+				addBarrel();
+			}
+			robots[1].updateSensors();
+		}
+
+		void addBarrel() {
+			availableFuel.add(new Point(rand.nextInt(SIZE), rand.nextInt(SIZE)));
+		}
+
+		/** Adds a barrel or takes one away, as a timed world might while a robot loops. */
+		void change() {
+			if (availableFuel.isEmpty() || rand.nextBoolean())
+				addBarrel();
+			else
+				availableFuel.remove(availableFuel.iterator().next());
+			robots[1].updateSensors();
+		}
+	}
+
+	/** A robot that records its state after each action, and stops after so many. */
+	private static class Recorder extends Robot {
+		// how many times round a loop without acting between changes to the
+		// world when timed, and how many before the robot is stopped
+		private static final int CHANGE = 5, BUDGET = 1000;
+
+		final StringBuilder record = new StringBuilder();
+		private final Walk walk;
+		private final int actions;
+		private final boolean timed;
+		private int done, spins;
+
+		Recorder(Walk walk, int actions, boolean timed) {
+			super(walk, 0, 0, "red", true);
+			this.walk = walk;
+			this.actions = actions;
+			this.timed = timed;
+			if (timed)
+				setBudget(BUDGET);
+		}
+
+		@Override
+		public void loopIteration() {
+			super.loopIteration();
+			if (timed && ++spins % CHANGE == 0)
+				walk.change();
+		}
+
+		@Override
+		public synchronized void updatePending() {
+			super.updatePending();
+			record.append(getX()).append(',').append(getY()).append(',').append(getDirection()).append(',')
+					.append(getFuelLevel()).append(',').append(getShield()).append(',').append(getLastAction())
+					.append('\n');
+			if (++done >= actions)
+				throw new RobotInterruptedException("stopped after " + actions + " actions");
+		}
+	}
+}
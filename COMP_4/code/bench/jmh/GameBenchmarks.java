@@ -0,0 +1,166 @@
+package jmh;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the parser, the interpreter, the world update and
+ * painting, in operations per second. The work itself is in the default
+ * package's Benchmarks, which this finds by name (see Benchmarks for why).
+ * Run from the code directory, with the results written as JSON:
+ *
+ * <pre>
+ * mvn -B -Pjmh verify
+ * java -cp target/classes:target/test-classes:&lt;jmh jars&gt; org.openjdk.jmh.Main -rf json -rff results.json
+ * </pre>
+ *
+ * The programs are the files in ../data; -p file=... picks others.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmarks {
+
+	/** Every program file, including those that don't parse. */
+	@State(Scope.Thread)
+	public static class AllFiles {
+		@Param({ "s0_bad1.prog", "s0_bad2.prog", "s0_bad3.prog", "s0_bad4.prog", "s0_full.prog", "s0_simple.prog",
+				"s1_bad1.prog", "s1_bad2.prog", "s1_bad3.prog", "s1_bad4.prog", "s1_bad5.prog", "s1_full.prog",
+				"s1_simple.prog", "s2_bad1.prog", "s2_bad2.prog", "s2_bad3.prog", "s2_bad4.prog", "s2_bad5.prog",
+				"s2_bad6.prog", "s2_bad7.prog", "s2_full.prog", "s2_simple.prog", "s3_full.prog",
+				"s3_simple.prog" })
+		public String file;
+
+		IntSupplier op;
+
+		@Setup
+		public void setup() throws Exception {
+			op = workload("parseFile", file);
+		}
+	}
+
+	/** The program files that parse. */
+	@State(Scope.Thread)
+	public static class ParsedFiles {
+		@Param({ "s0_bad3.prog", "s0_full.prog", "s0_simple.prog", "s1_bad3.prog", "s1_bad4.prog", "s1_full.prog",
+				"s1_simple.prog", "s2_full.prog", "s2_simple.prog" })
+		public String file;
+
+		IntSupplier op;
+
+		@Setup
+		public void setup() throws Exception {
+			op = workload("loadProgram", file);
+		}
+	}
+
+	/** The programs that finish on their own. */
+	@State(Scope.Thread)
+	public static class FinishingFiles {
+		@Param({ "s0_bad3.prog", "s0_full.prog", "s0_simple.prog", "s1_bad3.prog", "s1_full.prog", "s2_full.prog",
+				"s2_simple.prog" })
+		public String file;
+
+		IntSupplier op;
+
+		@Setup
+		public void setup() throws Exception {
+			op = workload("execute", file);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Conditions {
+		@Param({ "1", "2", "3" })
+		public String condition;
+
+		@Param({ "parsed", "fused", "reordered" })
+		public String version;
+
+		IntSupplier op;
+
+		@Setup
+		public void setup() throws Exception {
+			op = workload("evaluate", condition, version);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Barrels {
+		@Param({ "0", "1", "4", "16", "64", "144" })
+		public String barrels;
+
+		IntSupplier op;
+
+		@Setup
+		public void setup() throws Exception {
+			op = workload("updatePending", barrels);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Painting {
+		IntSupplier op;
+
+		@Setup
+		public void setup() throws Exception {
+			op = workload("paintComponent");
+		}
+	}
+
+	@Benchmark
+	public int parseFile(AllFiles s) {
+		return s.op.getAsInt();
+	}
+
+	/** Loading a program from an AstCodec program file, for comparison. */
+	@Benchmark
+	public int loadProgram(ParsedFiles s) {
+		return s.op.getAsInt();
+	}
+
+	/** ProgNode.execute to the end, on a robot that doesn't wait. */
+	@Benchmark
+	public int execute(FinishingFiles s) {
+		return s.op.getAsInt();
+	}
+
+	/** A thousand evaluations of a condition. */
+	@Benchmark
+	public int evaluate(Conditions s) {
+		return s.op.getAsInt();
+	}
+
+	@Benchmark
+	public int updatePending(Barrels s) {
+		return s.op.getAsInt();
+	}
+
+	/** WorldComponent.paintComponent into an off-screen image. */
+	@Benchmark
+	public int paintComponent(Painting s) {
+		return s.op.getAsInt();
+	}
+
+	/** @return the work Benchmarks has for the name and parameters */
+	static IntSupplier workload(String name, String... params) throws Exception {
+		Class<?>[] types = new Class<?>[params.length];
+		Arrays.fill(types, String.class);
+		return (IntSupplier) Class.forName("Benchmarks").getMethod(name, types).invoke(null, (Object[]) params);
+	}
+}
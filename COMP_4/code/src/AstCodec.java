@@ -0,0 +1,584 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary form of a program's nodes, so programs can be loaded
+ * again without parsing them.
+ * <p>
+ * A program is written in prefix order, one opcode byte per node. Programs
+ * and blocks are followed by how many statements they hold, and numbers by
+ * their (zig-zag) value; every other node has a fixed number of children,
+ * which follow it. StmtNode and ActNode wrappers aren't written, just what
+ * they wrap. Both writing and reading keep their own stack, so any program
+ * the StackParser can parse can be written and read back.
+ * <p>
+ * A single program can be saved to a file of its own (see writeProgram),
+ * which World.loadRobotProgram loads in place of parsing the source.
+ */
+public class AstCodec {
+
+	// opcodes
+	static final int PROG = 1, BLOCK = 2, LOOP = 3, MOVE = 4, MOVE_N = 5, TURN_L = 6, TURN_R = 7, TURN_AROUND = 8,
+			TAKE_FUEL = 9, WAIT = 10, WAIT_N = 11, SHIELD_ON = 12, SHIELD_OFF = 13, IF = 14, IF_ELSE = 15,
+			WHILE = 16, LT = 17, GT = 18, EQ = 19, AND = 20, OR = 21, NOT = 22, NUM = 23, FUEL_LEFT = 24,
+			OPP_LR = 25, OPP_FB = 26, NUM_BARRELS = 27, BARREL_LR = 28, BARREL_FB = 29, WALL_DIST = 30, ADD = 31,
+			SUB = 32, MUL = 33, DIV = 34;
+
+	static final byte[] BUNDLE_MAGIC = { 'R', 'B', 'A', 'B' };
+	static final int BUNDLE_VERSION = 1;
+
+	static final byte[] PROGRAM_MAGIC = { 'R', 'B', 'A', 'P' };
+	static final int PROGRAM_VERSION = 1;
+
+	private AstCodec() {
+	}
+
+	/**
+	 * @return the program in binary form
+	 */
+	public static byte[] encode(RobotProgramNode program) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			walk(program, out);
+		} catch (IOException e) {
+			throw new AssertionError(e); // can't happen writing to memory
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return how many nodes the program has, not counting StmtNode and
+	 *         ActNode wrappers
+	 */
+	public static int countNodes(RobotProgramNode program) {
+		try {
+			return walk(program, null);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Goes through the nodes in prefix order, writing them to out if it isn't
+	 * null.
+	 *
+	 * @return the number of nodes
+	 */
+	private static int walk(RobotProgramNode program, OutputStream out) throws IOException {
+		Object[] stack = new Object[32];
+		int depth = 0, nodes = 0;
+		stack[depth++] = program;
+		while (depth > 0) {
+			Object n = stack[--depth];
+			// the children to go next, in order
+			Object a = null, b = null, c = null;
+			List<RobotProgramNode> list = null;
+			int op, literal = 0;
+
+			while (n instanceof StmtNode || n instanceof ActNode || n instanceof FusedNode) {
+				if (n instanceof FusedNode)
+					n = ((FusedNode) n).original();
+				else
+					n = (n instanceof StmtNode) ? ((StmtNode) n).child : ((ActNode) n).child;
+			}
+			if (n instanceof ProgNode) {
+				op = PROG;
+				list = ((ProgNode) n).children;
+			} else if (n instanceof BlockNode) {
+				op = BLOCK;
+				list = ((BlockNode) n).children;
+			} else if (n instanceof LoopNode) {
+				op = LOOP;
+				a = ((LoopNode) n).block;
+			} else if (n instanceof MoveNode) {
+				a = ((MoveNode) n).num;
+				op = (a == null) ? MOVE : MOVE_N;
+			} else if (n instanceof WaitNode) {
+				a = ((WaitNode) n).num;
+				op = (a == null) ? WAIT : WAIT_N;
+			} else if (n instanceof TurnLNode) {
+				op = TURN_L;
+			} else if (n instanceof TurnRNode) {
+				op = TURN_R;
+			} else if (n instanceof turnAroundNode) {
+				op = TURN_AROUND;
+			} else if (n instanceof TakeFuelNode) {
+				op = TAKE_FUEL;
+			} else if (n instanceof shieldOnNode) {
+				op = SHIELD_ON;
+			} else if (n instanceof shieldOffNode) {
+				op = SHIELD_OFF;
+			} else if (n instanceof ifNode) {
+				ifNode i = (ifNode) n;
+				a = i.cond;
+				b = i.block;
+				if (i.hasElse && i.elseBlock != null) {
+					op = IF_ELSE;
+					c = i.elseBlock;
+				} else {
+					op = IF;
+				}
+			} else if (n instanceof whileNode) {
+				op = WHILE;
+				a = ((whileNode) n).cond;
+				b = ((whileNode) n).block;
+			} else if (n instanceof condNode) {
+				condNode cn = (condNode) n;
+				String relop = cn.relop.toString();
+				op = relop.equals("lt") ? LT : relop.equals("gt") ? GT : EQ;
+				a = cn.expOne;
+				b = cn.expTwo;
+			} else if (n instanceof andNode) {
+				op = AND;
+				a = ((andNode) n).conditionOne;
+				b = ((andNode) n).conditionTwo;
+			} else if (n instanceof orNode) {
+				op = OR;
+				a = ((orNode) n).conditionOne;
+				b = ((orNode) n).conditionTwo;
+			} else if (n instanceof notNode) {
+				op = NOT;
+				a = ((notNode) n).condition;
+			} else if (n instanceof numNode) {
+				op = NUM;
+				literal = ((numNode) n).num;
+			} else if (n instanceof fuelLeftNode) {
+				op = FUEL_LEFT;
+			} else if (n instanceof oppLRNode) {
+				op = OPP_LR;
+			} else if (n instanceof oppFBNode) {
+				op = OPP_FB;
+			} else if (n instanceof numBarrelsNode) {
+				op = NUM_BARRELS;
+			} else if (n instanceof barrelLRNode) {
+				op = BARREL_LR;
+			} else if (n instanceof barrelFBNode) {
+				op = BARREL_FB;
+			} else if (n instanceof wallDistNode) {
+				op = WALL_DIST;
+			} else if (n instanceof addNode) {
+				op = ADD;
+				a = ((addNode) n).conditionOne;
+				b = ((addNode) n).conditionTwo;
+			} else if (n instanceof subNode) {
+				op = SUB;
+				a = ((subNode) n).conditionOne;
+				b = ((subNode) n).conditionTwo;
+			} else if (n instanceof mulNode) {
+				op = MUL;
+				a = ((mulNode) n).conditionOne;
+				b = ((mulNode) n).conditionTwo;
+			} else if (n instanceof divNode) {
+				op = DIV;
+				a = ((divNode) n).conditionOne;
+				b = ((divNode) n).conditionTwo;
+			} else {
+				throw new IllegalArgumentException("Can't encode " + n.getClass().getName());
+			}
+
+			nodes++;
+			if (out != null) {
+				out.write(op);
+				if (list != null)
+					VarInt.write(out, list.size());
+				else if (op == NUM)
+					VarInt.writeSigned(out, literal);
+			}
+
+			// push the children so the first comes off next
+			int more = (list != null) ? list.size() : 3;
+			if (depth + more > stack.length)
+				stack = Arrays.copyOf(stack, Math.max(stack.length * 2, depth + more));
+			if (list != null) {
+				for (int i = list.size() - 1; i >= 0; i--) {
+					stack[depth++] = list.get(i);
+				}
+			} else {
+				if (c != null)
+					stack[depth++] = c;
+				if (b != null)
+					stack[depth++] = b;
+				if (a != null)
+					stack[depth++] = a;
+			}
+		}
+		return nodes;
+	}
+
+	// Reading
+	// -------
+
+	private static final class Frame {
+		int op, count, filled;
+		Object node;
+		final Object[] children = new Object[3];
+	}
+
+	/**
+	 * Reads a program written by encode, from the buffer's position, leaving
+	 * the position after it.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the bytes aren't a program
+	 */
+	public static RobotProgramNode decode(ByteBuffer in) {
+		Frame[] stack = new Frame[32];
+		int depth = 0;
+		while (true) {
+			int op = in.get();
+			Object node = null;
+			int count = 0;
+			switch (op) {
+			case PROG:
+				node = new ProgNode(new ArrayList<RobotProgramNode>());
+				count = VarInt.read(in);
+				break;
+			case BLOCK:
+				node = new BlockNode();
+				count = VarInt.read(in);
+				break;
+			case LOOP:
+			case MOVE_N:
+			case WAIT_N:
+			case NOT:
+				count = 1;
+				break;
+			case IF:
+			case WHILE:
+			case LT:
+			case GT:
+			case EQ:
+			case AND:
+			case OR:
+			case ADD:
+			case SUB:
+			case MUL:
+			case DIV:
+				count = 2;
+				break;
+			case IF_ELSE:
+				count = 3;
+				break;
+			case NUM:
+				node = new numNode(VarInt.readSigned(in));
+				break;
+			default:
+				node = leaf(op);
+			}
+
+			if (count > 0) {
+				if (depth == stack.length)
+					stack = Arrays.copyOf(stack, depth * 2);
+				Frame f = stack[depth];
+				if (f == null)
+					f = stack[depth] = new Frame();
+				depth++;
+				f.op = op;
+				f.count = count;
+				f.filled = 0;
+				f.node = node;
+				continue;
+			}
+
+			// the node is done: hand it to its parent, and finish every
+			// parent that it was the last child of
+			while (true) {
+				if (depth == 0)
+					return (RobotProgramNode) node;
+				Frame f = stack[depth - 1];
+				if (f.op == PROG)
+					((ProgNode) f.node).addChild((RobotProgramNode) node);
+				else if (f.op == BLOCK)
+					((BlockNode) f.node).addNode((RobotProgramNode) node);
+				else
+					f.children[f.filled] = node;
+				if (++f.filled < f.count)
+					break;
+				depth--;
+				node = build(f);
+			}
+		}
+	}
+
+	private static Object leaf(int op) {
+		switch (op) {
+		case MOVE:
+			return new MoveNode();
+		case TURN_L:
+			return new TurnLNode();
+		case TURN_R:
+			return new TurnRNode();
+		case TURN_AROUND:
+			return new turnAroundNode();
+		case TAKE_FUEL:
+			return new TakeFuelNode();
+		case WAIT:
+			return new WaitNode();
+		case SHIELD_ON:
+			return new shieldOnNode();
+		case SHIELD_OFF:
+			return new shieldOffNode();
+		case FUEL_LEFT:
+			return new fuelLeftNode();
+		case OPP_LR:
+			return new oppLRNode();
+		case OPP_FB:
+			return new oppFBNode();
+		case NUM_BARRELS:
+			return new numBarrelsNode();
+		case BARREL_LR:
+			return new barrelLRNode();
+		case BARREL_FB:
+			return new barrelFBNode();
+		case WALL_DIST:
+			return new wallDistNode();
+		}
+		throw new IllegalArgumentException("Bad opcode " + op);
+	}
+
+	/** Makes the node for a frame whose children have all been read. */
+	private static Object build(Frame f) {
+		Object[] ch = f.children;
+		Object node = f.node;
+		switch (f.op) {
+		case LOOP:
+			node = new LoopNode((BlockNode) ch[0]);
+			break;
+		case MOVE_N:
+			node = new MoveNode((RobotSensorNode) ch[0]);
+			break;
+		case WAIT_N:
+			node = new WaitNode((RobotSensorNode) ch[0]);
+			break;
+		case NOT:
+			node = new notNode((RobotConditionNode) ch[0]);
+			break;
+		case IF:
+		case IF_ELSE:
+			ifNode i = new ifNode();
+			i.setCondNode((RobotConditionNode) ch[0]);
+			i.setBlockNode((RobotProgramNode) ch[1]);
+			if (f.op == IF_ELSE) {
+				i.setElse(true);
+				i.setElseBlockNode((RobotProgramNode) ch[2]);
+			}
+			node = i;
+			break;
+		case WHILE:
+			whileNode w = new whileNode();
+			w.setCondNode((RobotConditionNode) ch[0]);
+			w.setBlockNode((RobotProgramNode) ch[1]);
+			node = w;
+			break;
+		case LT:
+		case GT:
+		case EQ:
+			condNode c = new condNode();
+			c.setRelop((f.op == LT) ? new ltNode() : (f.op == GT) ? new gtNode() : new eqNode());
+			c.setExpOne((RobotSensorNode) ch[0]);
+			c.setExpTwo((RobotSensorNode) ch[1]);
+			node = c;
+			break;
+		case AND:
+			node = new andNode((RobotConditionNode) ch[0], (RobotConditionNode) ch[1]);
+			break;
+		case OR:
+			node = new orNode((RobotConditionNode) ch[0], (RobotConditionNode) ch[1]);
+			break;
+		case ADD:
+			node = new addNode((RobotSensorNode) ch[0], (RobotSensorNode) ch[1]);
+			break;
+		case SUB:
+			node = new subNode((RobotSensorNode) ch[0], (RobotSensorNode) ch[1]);
+			break;
+		case MUL:
+			node = new mulNode((RobotSensorNode) ch[0], (RobotSensorNode) ch[1]);
+			break;
+		case DIV:
+			node = new divNode((RobotSensorNode) ch[0], (RobotSensorNode) ch[1]);
+			break;
+		}
+		Arrays.fill(ch, null);
+		f.node = null;
+		return node;
+	}
+
+	// Bundles
+	// -------
+
+	/**
+	 * Writes named programs to one file: the magic "RBAB", a version byte and
+	 * the number of programs, then for each its name (length and UTF-8) and
+	 * its encoded form (length and bytes).
+	 */
+	public static void writeBundle(File file, Map<String, byte[]> programs) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.write(BUNDLE_MAGIC);
+			out.write(BUNDLE_VERSION);
+			VarInt.write(out, programs.size());
+			for (Map.Entry<String, byte[]> e : programs.entrySet()) {
+				byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+				VarInt.write(out, name.length);
+				out.write(name);
+				VarInt.write(out, e.getValue().length);
+				out.write(e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return the programs in a file written by writeBundle, by name, in the
+	 *         order they were written
+	 */
+	public static Map<String, RobotProgramNode> readBundle(File file) throws IOException {
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		byte[] magic = new byte[4];
+		in.get(magic);
+		if (!Arrays.equals(magic, BUNDLE_MAGIC))
+			throw new IOException("Not a program bundle: " + file);
+		int version = in.get();
+		if (version != BUNDLE_VERSION)
+			throw new IOException("Unsupported bundle version " + version);
+		int count = VarInt.read(in);
+		Map<String, RobotProgramNode> programs = new LinkedHashMap<String, RobotProgramNode>();
+		for (int i = 0; i < count; i++) {
+			byte[] name = new byte[VarInt.read(in)];
+			in.get(name);
+			int length = VarInt.read(in);
+			int end = in.position() + length;
+			programs.put(new String(name, StandardCharsets.UTF_8), decode(in));
+			if (in.position() != end)
+				throw new IOException("Corrupt program in bundle: " + new String(name, StandardCharsets.UTF_8));
+		}
+		return programs;
+	}
+
+	// Program files
+	// -------------
+
+	/**
+	 * @return a 64 bit FNV-1a hash of the bytes, which is what a program file
+	 *         records of its encoded program
+	 */
+	public static long hash(byte[] code) {
+		return hashOf(ByteBuffer.wrap(code));
+	}
+
+	/**
+	 * Writes one program to a file: the magic "RBAP", a version byte, the
+	 * hash of the encoded program (8 bytes, big-endian), then its length and
+	 * the encoded program itself.
+	 */
+	public static void writeProgram(File file, RobotProgramNode program) throws IOException {
+		byte[] code = encode(program);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.write(PROGRAM_MAGIC);
+			out.write(PROGRAM_VERSION);
+			out.writeLong(hash(code));
+			VarInt.write(out, code.length);
+			out.write(code);
+		}
+	}
+
+	/**
+	 * @return whether the file starts with the program file magic
+	 */
+	public static boolean isProgramFile(File file) {
+		byte[] magic = new byte[PROGRAM_MAGIC.length];
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			return in.readNBytes(magic, 0, magic.length) == magic.length && Arrays.equals(magic, PROGRAM_MAGIC);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads a program written by writeProgram, checking its version and
+	 * hash.
+	 *
+	 * @throws IOException
+	 *             if the file can't be read, or isn't a program file this
+	 *             version can read, or its hash doesn't match
+	 */
+	public static RobotProgramNode readProgram(File file) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		try {
+			byte[] magic = new byte[PROGRAM_MAGIC.length];
+			in.get(magic);
+			if (!Arrays.equals(magic, PROGRAM_MAGIC))
+				throw new IOException("Not a program file: " + file);
+			int version = in.get();
+			if (version != PROGRAM_VERSION)
+				throw new IOException("Unsupported program file version " + version);
+			long hash = in.getLong();
+			int length = VarInt.read(in);
+			if (length != in.remaining())
+				throw new IOException("Truncated program file: " + file);
+			if (hashOf(in) != hash)
+				throw new IOException("Program file doesn't match its hash: " + file);
+			return decode(in);
+		} catch (RuntimeException e) {
+			// a short buffer, a bad varint or a bad opcode
+			throw new IOException("Corrupt program file: " + file, e);
+		}
+	}
+
+	/** The hash of the bytes from the buffer's position to its limit. */
+	private static long hashOf(ByteBuffer in) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = in.position(); i < in.limit(); i++) {
+			h ^= in.get(i) & 0xFF;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Loads a program file, printing what went wrong and returning null if it
+	 * can't, like Parser.parseFile.
+	 */
+	static RobotProgramNode loadProgram(File file) {
+		try {
+			return readProgram(file);
+		} catch (IOException e) {
+			System.out.println("Can't load program: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Converts program sources to program files.
+	 *
+	 * <pre>
+	 * java AstCodec &lt;source&gt; &lt;program file&gt;
+	 * </pre>
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: AstCodec <source> <program file>");
+			return;
+		}
+		RobotProgramNode program = Parser.parseFile(new File(args[0]));
+		if (program != null)
+			writeProgram(new File(args[1]), program);
+	}
+}
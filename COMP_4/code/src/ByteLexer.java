@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a program into tokens straight from its ASCII bytes, in a
+ * ByteBuffer (which may be a mapped file) or read a buffer at a time from a
+ * channel. Keywords are looked up and numbers worked out from the bytes, so
+ * no Strings are made except for error messages.
+ */
+class ByteLexer extends Lexer {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private ByteBuffer buf;
+	private final ReadableByteChannel channel;
+	private boolean eof;
+
+	// indices into buf: the start of the current token, the end of the
+	// current token (where the next one is looked for) and the end of the
+	// bytes in buf
+	private int start, pos, limit;
+
+	// offset in the source of index 0 of buf, and of the start of the line
+	private int base, lineStart;
+
+	/**
+	 * Tokenizes the bytes from the buffer's position to its limit. The
+	 * buffer's position isn't changed.
+	 */
+	ByteLexer(ByteBuffer src) {
+		buf = src;
+		channel = null;
+		eof = true;
+		start = pos = src.position();
+		limit = src.limit();
+		base = -pos;
+		next();
+	}
+
+	/**
+	 * Tokenizes everything read from the channel, reading as it goes.
+	 *
+	 * @throws UncheckedIOException
+	 *             from this or next() if the channel can't be read
+	 */
+	ByteLexer(ReadableByteChannel channel) {
+		buf = ByteBuffer.allocate(BUFFER_SIZE);
+		this.channel = channel;
+		next();
+	}
+
+	@Override
+	void next() {
+		start = pos;
+		while (more()) {
+			byte b = buf.get(pos);
+			if (!isSpace(b))
+				break;
+			pos++;
+			if (b == '\n') {
+				line++;
+				lineStart = base + pos;
+			}
+			start = pos;
+		}
+		offset = base + pos;
+		column = offset - lineStart + 1;
+		if (!more()) {
+			kind = Token.EOF;
+			return;
+		}
+		int p = Token.punctuation(buf.get(pos));
+		if (p >= 0) {
+			kind = p;
+			pos++;
+			return;
+		}
+
+		// a word: runs to whitespace or punctuation
+		boolean negative = buf.get(pos) == '-', leadingZero = false, numeric = true;
+		long v = 0;
+		int digits = 0;
+		if (negative)
+			pos++;
+		while (more()) {
+			byte c = buf.get(pos);
+			if (isSpace(c) || Token.punctuation(c) >= 0)
+				break;
+			if (c >= '0' && c <= '9' && numeric) {
+				if (digits == 0)
+					leadingZero = c == '0';
+				if (v <= Integer.MAX_VALUE)
+					v = v * 10 + (c - '0');
+				digits++;
+			} else {
+				numeric = false;
+			}
+			pos++;
+		}
+		if (numeric)
+			kind = number(v, negative, digits, leadingZero);
+		else
+			kind = Token.keyword(buf, start, pos);
+	}
+
+	/**
+	 * @return whether there is a byte at pos, reading more from the channel
+	 *         if need be. Reading moves the current token to the front of
+	 *         the buffer, so start and pos can change.
+	 */
+	private boolean more() {
+		if (pos < limit)
+			return true;
+		if (eof)
+			return false;
+		try {
+			if (start > 0) {
+				// only the current token needs keeping
+				buf.limit(limit).position(start);
+				buf.compact();
+				base += start;
+				pos -= start;
+				limit -= start;
+				start = 0;
+			} else if (limit == buf.capacity()) {
+				ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+				buf.limit(limit).position(0);
+				bigger.put(buf);
+				buf = bigger;
+			}
+			buf.limit(buf.capacity()).position(limit);
+			int n;
+			do {
+				n = channel.read(buf);
+			} while (n == 0);
+			if (n < 0) {
+				eof = true;
+				return false;
+			}
+			limit = buf.position();
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	String text() {
+		byte[] b = new byte[pos - start];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = buf.get(start + i);
+		}
+		return new String(b, StandardCharsets.ISO_8859_1);
+	}
+}
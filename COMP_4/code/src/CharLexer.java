@@ -0,0 +1,74 @@
+/**
+ * Splits a program held in memory as characters into tokens, the same way
+ * the Scanner with Parser.DELIMITER does, but without regular expressions
+ * or a String for every token.
+ */
+class CharLexer extends Lexer {
+
+	private final CharSequence src;
+	private final int length;
+	private int pos = 0, lineStart = 0, end = 0;
+
+	CharLexer(CharSequence src) {
+		this.src = src;
+		this.length = src.length();
+		next();
+	}
+
+	@Override
+	void next() {
+		pos = end;
+		while (pos < length && isSpace(src.charAt(pos))) {
+			if (src.charAt(pos) == '\n') {
+				line++;
+				lineStart = pos + 1;
+			}
+			pos++;
+		}
+		offset = pos;
+		column = pos - lineStart + 1;
+		if (pos == length) {
+			kind = Token.EOF;
+			end = pos;
+			return;
+		}
+		int p = Token.punctuation(src.charAt(pos));
+		if (p >= 0) {
+			kind = p;
+			end = pos + 1;
+			return;
+		}
+
+		// a word: runs to whitespace or punctuation
+		end = pos;
+		boolean negative = src.charAt(pos) == '-', leadingZero = false, numeric = true;
+		long v = 0;
+		int digits = 0;
+		if (negative)
+			end++;
+		while (end < length) {
+			char c = src.charAt(end);
+			if (isSpace(c) || Token.punctuation(c) >= 0)
+				break;
+			if (c >= '0' && c <= '9' && numeric) {
+				if (digits == 0)
+					leadingZero = c == '0';
+				if (v <= Integer.MAX_VALUE)
+					v = v * 10 + (c - '0');
+				digits++;
+			} else {
+				numeric = false;
+			}
+			end++;
+		}
+		if (numeric && end > pos)
+			kind = number(v, negative, digits, leadingZero);
+		else
+			kind = Token.keyword(src, pos, end);
+	}
+
+	@Override
+	String text() {
+		return src.subSequence(offset, end).toString();
+	}
+}
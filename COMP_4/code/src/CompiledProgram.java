@@ -0,0 +1,320 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A robot program compiled from its AST into a flat array of instructions
+ * for the Interpreter. Loops and ifs become jumps, and conditions and
+ * expressions are evaluated on an operand stack, so a program can stop at
+ * any action and carry on later without a Java call stack.
+ */
+public class CompiledProgram {
+
+	// Opcodes. Those marked * are followed by one operand.
+	static final int HALT = 0, PUSH = 1 /* value */, SENSE = 2 /* sensor */, ADD = 3, SUB = 4, MUL = 5, DIV = 6,
+			LT = 7, GT = 8, EQ = 9, NOT = 10, JUMP = 11 /* target */, JUMP_IF_FALSE = 12 /* target */, DUP = 13,
+			POP = 14, ACT = 15 /* Robot.ACTION_ */, SHIELD = 16 /* 0 or 1 */;
+
+	// Sensors, the operand of SENSE
+	static final int FUEL_LEFT = 0, OPP_LR = 1, OPP_FB = 2, NUM_BARRELS = 3, BARREL_LR = 4, BARREL_FB = 5,
+			WALL_DIST = 6;
+
+	private static final Map<RobotProgramNode, CompiledProgram> cache = Collections
+			.synchronizedMap(new WeakHashMap<RobotProgramNode, CompiledProgram>());
+
+	final int[] code;
+
+	private CompiledProgram(int[] code) {
+		this.code = code;
+	}
+
+	/**
+	 * @return the compiled form of the program, compiling it the first time
+	 *         it is asked for
+	 */
+	public static CompiledProgram of(RobotProgramNode program) {
+		CompiledProgram c = cache.get(program);
+		if (c == null) {
+			c = new Compiler().compile(program);
+			cache.put(program, c);
+		}
+		return c;
+	}
+
+	public int size() {
+		return code.length;
+	}
+
+	/**
+	 * Compiles a program without recursion: the nodes being compiled are
+	 * kept on a stack of frames, each with a state saying how much of the
+	 * node has been done and the jumps it still has to fill in, so programs
+	 * can nest as deeply as the parser allows.
+	 */
+	private static class Compiler {
+
+		private static final class Frame {
+			Object node;
+			int state, top, jump;
+		}
+
+		private int[] code = new int[64];
+		private int size = 0;
+		private Frame[] stack = new Frame[32];
+		private int depth = 0;
+
+		CompiledProgram compile(RobotProgramNode program) {
+			push(program);
+			while (depth > 0) {
+				Frame f = stack[depth - 1];
+				visit(f, f.node, f.state++);
+			}
+			emit(HALT);
+			return new CompiledProgram(Arrays.copyOf(code, size));
+		}
+
+		private void push(Object node) {
+			if (depth == stack.length)
+				stack = Arrays.copyOf(stack, depth * 2);
+			Frame f = stack[depth];
+			if (f == null)
+				f = stack[depth] = new Frame();
+			depth++;
+			f.node = node;
+			f.state = 0;
+		}
+
+		private void pop() {
+			stack[--depth].node = null;
+		}
+
+		private void emit(int op) {
+			if (size == code.length)
+				code = Arrays.copyOf(code, size * 2);
+			code[size++] = op;
+		}
+
+		private void emit(int op, int operand) {
+			emit(op);
+			emit(operand);
+		}
+
+		/** Emits a jump whose target is filled in later by patch(). */
+		private int emitJump(int op) {
+			emit(op, -1);
+			return size - 1;
+		}
+
+		private void patch(int operand) {
+			code[operand] = size;
+		}
+
+		/**
+		 * Does the next part of a node: emits code, pushes a child, or, once
+		 * the node is all done, pops it.
+		 */
+		private void visit(Frame f, Object n, int state) {
+			// a fused node compiles to what it stands for
+			if (n instanceof FusedNode) {
+				child(((FusedNode) n).original(), state);
+			}
+
+			// statements
+			else if (n instanceof ProgNode) {
+				children(((ProgNode) n).children, state);
+			} else if (n instanceof BlockNode) {
+				children(((BlockNode) n).children, state);
+			} else if (n instanceof LoopNode) {
+				child(((LoopNode) n).block, state);
+			} else if (n instanceof StmtNode) {
+				child(((StmtNode) n).child, state);
+			} else if (n instanceof ActNode) {
+				child(((ActNode) n).child, state);
+			} else if (n instanceof MoveNode) {
+				repeat(f, ((MoveNode) n).num, Robot.ACTION_MOVE, state);
+			} else if (n instanceof WaitNode) {
+				// wait(n) waits n + 1 times
+				WaitNode w = (WaitNode) n;
+				if (w.num == null)
+					leaf(ACT, Robot.ACTION_WAIT);
+				else if (repeat(f, w.num, Robot.ACTION_WAIT, state))
+					emit(ACT, Robot.ACTION_WAIT);
+			} else if (n instanceof TurnLNode) {
+				leaf(ACT, Robot.ACTION_TURN_LEFT);
+			} else if (n instanceof TurnRNode) {
+				leaf(ACT, Robot.ACTION_TURN_RIGHT);
+			} else if (n instanceof turnAroundNode) {
+				leaf(ACT, Robot.ACTION_TURN_AROUND);
+			} else if (n instanceof TakeFuelNode) {
+				leaf(ACT, Robot.ACTION_TAKE_FUEL);
+			} else if (n instanceof shieldOnNode) {
+				leaf(SHIELD, 1);
+			} else if (n instanceof shieldOffNode) {
+				leaf(SHIELD, 0);
+			} else if (n instanceof whileNode) {
+				whileNode w = (whileNode) n;
+				if (state == 0) {
+					f.top = size;
+					push(w.cond);
+				} else if (state == 1) {
+					f.jump = emitJump(JUMP_IF_FALSE);
+					push(w.block);
+				} else {
+					emit(JUMP, f.top);
+					patch(f.jump);
+					pop();
+				}
+			} else if (n instanceof ifNode) {
+				ifNode i = (ifNode) n;
+				if (state == 0) {
+					push(i.cond);
+				} else if (state == 1) {
+					f.jump = emitJump(JUMP_IF_FALSE);
+					push(i.block);
+				} else if (state == 2 && i.hasElse && i.elseBlock != null) {
+					int otherwise = f.jump;
+					f.jump = emitJump(JUMP);
+					patch(otherwise);
+					push(i.elseBlock);
+				} else {
+					patch(f.jump);
+					pop();
+				}
+			}
+
+			// conditions
+			else if (n instanceof condNode) {
+				condNode c = (condNode) n;
+				String relop = c.relop.toString();
+				binary(c.expOne, c.expTwo, relop.equals("lt") ? LT : relop.equals("gt") ? GT : EQ, state);
+			} else if (n instanceof andNode) {
+				andNode a = (andNode) n;
+				if (state == 0) {
+					push(a.conditionOne);
+				} else if (state == 1) {
+					f.jump = emitJump(JUMP_IF_FALSE);
+					push(a.conditionTwo);
+				} else {
+					int end = emitJump(JUMP);
+					patch(f.jump);
+					emit(PUSH, 0);
+					patch(end);
+					pop();
+				}
+			} else if (n instanceof orNode) {
+				orNode o = (orNode) n;
+				if (state == 0) {
+					push(o.conditionOne);
+				} else if (state == 1) {
+					int no = emitJump(JUMP_IF_FALSE);
+					emit(PUSH, 1);
+					f.jump = emitJump(JUMP);
+					patch(no);
+					push(o.conditionTwo);
+				} else {
+					patch(f.jump);
+					pop();
+				}
+			} else if (n instanceof notNode) {
+				if (state == 0) {
+					push(((notNode) n).condition);
+				} else {
+					emit(NOT);
+					pop();
+				}
+			}
+
+			// expressions
+			else if (n instanceof numNode) {
+				leaf(PUSH, ((numNode) n).num);
+			} else if (n instanceof fuelLeftNode) {
+				leaf(SENSE, FUEL_LEFT);
+			} else if (n instanceof oppLRNode) {
+				leaf(SENSE, OPP_LR);
+			} else if (n instanceof oppFBNode) {
+				leaf(SENSE, OPP_FB);
+			} else if (n instanceof numBarrelsNode) {
+				leaf(SENSE, NUM_BARRELS);
+			} else if (n instanceof barrelLRNode) {
+				leaf(SENSE, BARREL_LR);
+			} else if (n instanceof barrelFBNode) {
+				leaf(SENSE, BARREL_FB);
+			} else if (n instanceof wallDistNode) {
+				leaf(SENSE, WALL_DIST);
+			} else if (n instanceof addNode) {
+				binary(((addNode) n).conditionOne, ((addNode) n).conditionTwo, ADD, state);
+			} else if (n instanceof subNode) {
+				binary(((subNode) n).conditionOne, ((subNode) n).conditionTwo, SUB, state);
+			} else if (n instanceof mulNode) {
+				binary(((mulNode) n).conditionOne, ((mulNode) n).conditionTwo, MUL, state);
+			} else if (n instanceof divNode) {
+				binary(((divNode) n).conditionOne, ((divNode) n).conditionTwo, DIV, state);
+			} else {
+				throw new IllegalArgumentException("Can't compile " + n.getClass().getName());
+			}
+		}
+
+		private void leaf(int op, int operand) {
+			emit(op, operand);
+			pop();
+		}
+
+		private void child(Object child, int state) {
+			if (state == 0)
+				push(child);
+			else
+				pop();
+		}
+
+		private void children(List<RobotProgramNode> children, int state) {
+			if (state < children.size())
+				push(children.get(state));
+			else
+				pop();
+		}
+
+		private void binary(Object one, Object two, int op, int state) {
+			if (state == 0) {
+				push(one);
+			} else if (state == 1) {
+				push(two);
+			} else {
+				emit(op);
+				pop();
+			}
+		}
+
+		/**
+		 * Does an action count times, or once if count is null. Like the
+		 * tree-walking nodes, the count is evaluated again before each
+		 * action.
+		 *
+		 * @return whether the repeat is done, and has been popped
+		 */
+		private boolean repeat(Frame f, RobotSensorNode count, int action, int state) {
+			if (count == null) {
+				leaf(ACT, action);
+				return true;
+			}
+			if (state == 0) {
+				emit(PUSH, 0);
+				f.top = size;
+				emit(DUP);
+				push(count);
+				return false;
+			}
+			emit(LT);
+			int exit = emitJump(JUMP_IF_FALSE);
+			emit(ACT, action);
+			emit(PUSH, 1);
+			emit(ADD);
+			emit(JUMP, f.top);
+			patch(exit);
+			emit(POP);
+			pop();
+			return true;
+		}
+	}
+}
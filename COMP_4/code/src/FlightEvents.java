@@ -0,0 +1,126 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for parsing programs, world updates, robot
+ * actions and matches, all under "RoboGame" in JDK Mission Control. Each is
+ * made and begun where it happens and only filled in and committed if
+ * shouldCommit says a recording wants it, so with no recording running
+ * nothing is counted or looked up, and the JIT can do away with the events
+ * themselves.
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording=filename=game.jfr,settings=profile RoboGame
+ * jfr print --categories RoboGame game.jfr
+ * </pre>
+ */
+public final class FlightEvents {
+
+	private FlightEvents() {
+	}
+
+	@Name("robogame.Parse")
+	@Label("Parse Program")
+	@Category("RoboGame")
+	@Description("A program file parsed by Parser.parseFile")
+	@StackTrace(false)
+	static final class Parse extends Event {
+		@Label("File")
+		String file;
+
+		@Label("Size")
+		@DataAmount
+		long bytes;
+
+		@Label("Nodes")
+		@Description("The nodes in the program parsed, or 0 if it didn't parse")
+		int nodes;
+	}
+
+	@Name("robogame.Tick")
+	@Label("World Update")
+	@Category("RoboGame")
+	@Description("One update of the world, which applies both robots' actions")
+	@StackTrace(false)
+	static final class Tick extends Event {
+		@Label("Tick")
+		int tick;
+
+		@Label("Barrels")
+		int barrels;
+	}
+
+	@Name("robogame.RobotAction")
+	@Label("Robot Action")
+	@Category("RoboGame")
+	@Description("An action a robot did, lasting as long as the robot waited for the world to update it")
+	@StackTrace(false)
+	static final class RobotAction extends Event {
+		@Label("Robot")
+		@Description("1 for red or 2 for blue")
+		int robot;
+
+		@Label("Action")
+		String action;
+
+		@Label("Fuel Change")
+		@Description("The fuel the action will leave the robot with, less what it had")
+		int fuelDelta;
+	}
+
+	@Name("robogame.MatchStart")
+	@Label("Match Start")
+	@Category("RoboGame")
+	@StackTrace(false)
+	static final class MatchStart extends Event {
+		@Label("Stepped")
+		@Description("Whether the robots are stepped by the world rather than running on threads of their own")
+		boolean stepped;
+	}
+
+	@Name("robogame.MatchEnd")
+	@Label("Match")
+	@Category("RoboGame")
+	@Description("A match, from its start until a robot ran out of fuel or the match was stopped")
+	@StackTrace(false)
+	static final class MatchEnd extends Event {
+		@Label("Winner")
+		@Description("1 for red, 2 for blue, or 0 for a draw")
+		int winner;
+
+		@Label("Ticks")
+		int ticks;
+
+		@Label("Red Fuel")
+		int fuel1;
+
+		@Label("Blue Fuel")
+		int fuel2;
+	}
+
+	/** @return the name of a Robot.ACTION_, as in programs */
+	static String actionName(int action) {
+		switch (action) {
+		case Robot.ACTION_MOVE:
+			return "move";
+		case Robot.ACTION_TURN_LEFT:
+			return "turnL";
+		case Robot.ACTION_TURN_RIGHT:
+			return "turnR";
+		case Robot.ACTION_TURN_AROUND:
+			return "turnAround";
+		case Robot.ACTION_TAKE_FUEL:
+			return "takeFuel";
+		case Robot.ACTION_WAIT:
+			return "wait";
+		}
+		return "none";
+	}
+}
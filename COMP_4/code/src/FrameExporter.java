@@ -0,0 +1,156 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders a live or recorded match to a sequence of PNG frames without a
+ * display. Frames are painted off-screen with the same code as
+ * WorldComponent, and encoded in parallel by a pool of workers with a
+ * bounded queue, so the match plays as fast as the frames can be written
+ * rather than in real time.
+ */
+public class FrameExporter {
+
+	private static final int SIZE = World.SIZE * WorldComponent.GRID_SIZE;
+
+	/** A robot that takes longer than this to act misses the update. */
+	private static final long ACTION_TIMEOUT = 10000;
+
+	private final File dir;
+	private final int framesPerTick;
+	private final ThreadPoolExecutor encoders;
+	private int frame = 0;
+
+	/**
+	 * @param dir
+	 *            the directory the frames are written to
+	 * @param framesPerTick
+	 *            how many frames to draw for each world update, 1 draws just
+	 *            the state after each update
+	 */
+	public FrameExporter(File dir, int framesPerTick) {
+		this.dir = dir;
+		this.framesPerTick = Math.max(1, framesPerTick);
+		int threads = Runtime.getRuntime().availableProcessors();
+		// when the queue is full the renderer encodes the frame itself,
+		// which stops it getting too far ahead of the encoders
+		encoders = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+		dir.mkdirs();
+	}
+
+	/**
+	 * Plays a match in the given (not yet started) world until a robot runs
+	 * out of fuel or maxTicks updates have happened, writing every frame.
+	 *
+	 * @return the number of world updates played
+	 */
+	public int export(World world, int maxTicks) {
+		world.start();
+		int tick = 0;
+		try {
+			while (tick < maxTicks && !world.getRobot(1).isDead() && !world.getRobot(2).isDead()) {
+				// the robots can't change anything until the next update once
+				// they have both chosen their actions
+				world.getRobot(1).awaitAction(ACTION_TIMEOUT);
+				world.getRobot(2).awaitAction(ACTION_TIMEOUT);
+				for (int i = 0; i < framesPerTick; i++) {
+					drawFrame(world, (double) i / framesPerTick);
+				}
+				world.updateWorld();
+				tick++;
+			}
+			drawFrame(world, 0);
+		} finally {
+			world.reset();
+		}
+		return tick;
+	}
+
+	/**
+	 * Renders a recorded match, up to maxTicks of it.
+	 *
+	 * @return the number of ticks rendered
+	 */
+	public int export(ReplayPlayer replay, int maxTicks) {
+		World world = new World();
+		int ticks = Math.min(maxTicks, replay.getTickCount());
+		for (int tick = 0; tick < ticks; tick++) {
+			replay.show(world, tick);
+			for (int i = 0; i < framesPerTick; i++) {
+				drawFrame(world, (double) i / framesPerTick);
+			}
+		}
+		return ticks;
+	}
+
+	/** Paints the world into a new image and queues it to be written. */
+	public void drawFrame(World world, double time) {
+		final BufferedImage img = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = img.createGraphics();
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, SIZE, SIZE);
+		WorldComponent.paintWorld(g2d, world, time, null);
+		g2d.dispose();
+
+		final File file = new File(dir, String.format("frame_%06d.png", frame++));
+		encoders.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ImageIO.write(img, "png", file);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits for every queued frame to be written.
+	 */
+	public void finish() throws InterruptedException {
+		encoders.shutdown();
+		encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+	}
+
+	/**
+	 * Arguments: output directory, frames per update, maximum updates, and
+	 * optionally the programs for robot 1 and robot 2, or a recorded replay
+	 * file (ending in .replay).
+	 */
+	public static void main(String[] args) throws InterruptedException, IOException {
+		System.setProperty("java.awt.headless", "true");
+		if (args.length < 3) {
+			System.out.println("Usage: FrameExporter <dir> <framesPerTick> <maxTicks> [robot1.prog] [robot2.prog]");
+			System.out.println("       FrameExporter <dir> <framesPerTick> <maxTicks> <match.replay>");
+			return;
+		}
+		RoboGame.debugDisplay = false;
+		World.setPrintPrograms(false);
+		FrameExporter exporter = new FrameExporter(new File(args[0]), Integer.parseInt(args[1]));
+		long start = System.currentTimeMillis();
+		int ticks;
+		if (args.length > 3 && args[3].endsWith(".replay")) {
+			ReplayPlayer replay = new ReplayPlayer(new File(args[3]));
+			ticks = exporter.export(replay, Integer.parseInt(args[2]));
+			replay.close();
+		} else {
+			World world = new World();
+			for (int i = 3; i < args.length && i < 5; i++) {
+				world.loadRobotProgram(i - 2, new File(args[i]));
+			}
+			ticks = exporter.export(world, Integer.parseInt(args[2]));
+		}
+		exporter.finish();
+		System.out.println("Wrote " + exporter.frame + " frames of " + ticks + " updates in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+}
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * Runs a CompiledProgram for one robot, an action at a time. All of its
+ * state is the program counter and the operand stack, so it can be paused
+ * at any action, copied, and resumed later on any thread.
+ */
+public class Interpreter {
+
+	private final CompiledProgram program;
+	private int pc = 0;
+	private int[] stack;
+	private int sp = 0;
+
+	public Interpreter(CompiledProgram program) {
+		this.program = program;
+		this.stack = new int[16];
+	}
+
+	private Interpreter(Interpreter other) {
+		this.program = other.program;
+		this.pc = other.pc;
+		this.stack = Arrays.copyOf(other.stack, Math.max(other.sp, 16));
+		this.sp = other.sp;
+	}
+
+	/**
+	 * @return an independent interpreter at the same point in the program
+	 */
+	public Interpreter copy() {
+		return new Interpreter(this);
+	}
+
+	/**
+	 * @return whether the program has run to its end
+	 */
+	public boolean isFinished() {
+		return program.code[pc] == CompiledProgram.HALT;
+	}
+
+	/**
+	 * Runs the program up to its next action, reading the robot's sensors
+	 * and switching its shield on the way.
+	 *
+	 * @return the Robot.ACTION_ to do next, or 0 if the program has finished
+	 */
+	public int step(Robot robot) {
+		int[] code = program.code;
+		int[] stack = this.stack;
+		int pc = this.pc, sp = this.sp;
+		// nothing the program senses changes until its next action, unless
+		// it loops long enough for the world to update it
+		SensorSnapshot sensors = robot.currentSensors();
+		try {
+			while (true) {
+				if (sp + 2 > stack.length)
+					this.stack = stack = Arrays.copyOf(stack, stack.length * 2);
+				switch (code[pc++]) {
+				case CompiledProgram.HALT:
+					pc--;
+					return 0;
+				case CompiledProgram.PUSH:
+					stack[sp++] = code[pc++];
+					break;
+				case CompiledProgram.SENSE:
+					if (Metrics.ENABLED)
+						Metrics.sensorCall(robot.getPlace());
+					stack[sp++] = sensors.sense(code[pc++]);
+					break;
+				case CompiledProgram.ADD:
+					sp--;
+					stack[sp - 1] += stack[sp];
+					break;
+				case CompiledProgram.SUB:
+					sp--;
+					stack[sp - 1] -= stack[sp];
+					break;
+				case CompiledProgram.MUL:
+					sp--;
+					stack[sp - 1] *= stack[sp];
+					break;
+				case CompiledProgram.DIV:
+					sp--;
+					stack[sp - 1] /= stack[sp];
+					break;
+				case CompiledProgram.LT:
+					sp--;
+					stack[sp - 1] = (stack[sp - 1] < stack[sp]) ? 1 : 0;
+					break;
+				case CompiledProgram.GT:
+					sp--;
+					stack[sp - 1] = (stack[sp - 1] > stack[sp]) ? 1 : 0;
+					break;
+				case CompiledProgram.EQ:
+					sp--;
+					stack[sp - 1] = (stack[sp - 1] == stack[sp]) ? 1 : 0;
+					break;
+				case CompiledProgram.NOT:
+					stack[sp - 1] ^= 1;
+					break;
+				case CompiledProgram.JUMP:
+					// only loops jump backwards
+					if (code[pc] < pc) {
+						robot.loopIteration();
+						sensors = robot.currentSensors();
+					}
+					pc = code[pc];
+					break;
+				case CompiledProgram.JUMP_IF_FALSE:
+					pc = (stack[--sp] == 0) ? code[pc] : pc + 1;
+					break;
+				case CompiledProgram.DUP:
+					stack[sp] = stack[sp - 1];
+					sp++;
+					break;
+				case CompiledProgram.POP:
+					sp--;
+					break;
+				case CompiledProgram.ACT:
+					return code[pc++];
+				case CompiledProgram.SHIELD:
+					robot.setShield(code[pc++] == 1);
+					break;
+				default:
+					throw new IllegalStateException("Bad opcode " + code[pc - 1] + " at " + (pc - 1));
+				}
+			}
+		} finally {
+			this.pc = pc;
+			this.sp = sp;
+		}
+	}
+}
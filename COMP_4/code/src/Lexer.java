@@ -0,0 +1,59 @@
+/**
+ * A source of tokens for the StackParser. The lexer is always on a token,
+ * starting on the first one; next() moves it on. Each token has a kind from
+ * Token, the value of a number, and where it starts in the source.
+ */
+abstract class Lexer {
+
+	protected int kind, value;
+	protected int line = 1, column = 1, offset;
+
+	/** Moves on to the next token. */
+	abstract void next();
+
+	/** @return the source text of the current token, for error messages */
+	abstract String text();
+
+	int kind() {
+		return kind;
+	}
+
+	/** @return the value of a NUMBER token */
+	int value() {
+		return value;
+	}
+
+	int line() {
+		return line;
+	}
+
+	int column() {
+		return column;
+	}
+
+	int offset() {
+		return offset;
+	}
+
+	/** The characters the Parser's DELIMITER treats as whitespace. */
+	static boolean isSpace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+	}
+
+	/**
+	 * Works out the value of a word that might be a number, matching
+	 * Parser.NUMPAT: an optional minus, then 0 or digits not starting with 0.
+	 * Sets value and returns NUMBER if it is one that fits in an int, and
+	 * returns ERROR otherwise.
+	 */
+	protected int number(long v, boolean negative, int digits, boolean leadingZero) {
+		if (digits == 0 || (leadingZero && digits > 1))
+			return Token.ERROR;
+		if (negative)
+			v = -v;
+		if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+			return Token.ERROR;
+		value = (int) v;
+		return Token.NUMBER;
+	}
+}
@@ -0,0 +1,446 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers the results of stepped matches, so a match already played is
+ * never played again. A match stepped by World.runMatch always plays the
+ * same way for the same programs, seed, number of updates and budget, so
+ * those are the key: each program by its hash, along with the seed,
+ * maxTicks and the budget.
+ * <p>
+ * A program's hash is of the AstCodec encoding of a canonical form of it:
+ * the program optimized, then with its conditions simplified and reordered
+ * as the ProgramFuser does but without fused statements, which is the same
+ * whether the program had been optimized or fused (with its conditions
+ * reordered or not) before. For a few programs the optimizer can do more
+ * with one of these forms than another, so they hash differently and are
+ * played again. Programs with the same canonical form always play the
+ * same, so a result is never used for a program that would play
+ * differently.
+ * <p>
+ * Results are kept in two tiers. The most recently used are in memory, up
+ * to a number of them, the least recently used going first. Every result is
+ * also appended to a file, if there is one, which is read back when the
+ * cache is opened again, so results outlive the program. The file starts
+ * with the magic "RBMC", a version byte and the RULES the results were
+ * played by, followed by fixed size records: the two program hashes, the
+ * seed, maxTicks and the budget, then the winner, ticks, each robot's fuel
+ * and a byte of timed out flags, then a CRC32 of the rest. A file of
+ * another version or other rules is emptied when it is opened. Only an
+ * index of where each key's record is, by a hash of the key, is kept in
+ * memory for the file; the record itself is read when a key isn't in
+ * memory. A record cut short or garbled, by a crash while it was written,
+ * ends the file, and is cut off when it is opened.
+ * <p>
+ * Two different programs having the same 64 bit hash would get each
+ * other's results, but that is unlikely enough to ignore. Matches run on
+ * threads by World.start are timed rather than stepped, so don't play the
+ * same way twice, and can't be cached.
+ */
+public class MatchCache implements Closeable {
+
+	static final int VERSION = 2;
+	static final byte[] MAGIC = { 'R', 'B', 'M', 'C' };
+	static final int HEADER = MAGIC.length + 1 + 4;
+
+	/**
+	 * The version of the rules matches are played by. Change it whenever a
+	 * change to World, Robot or the interpreters changes how any match
+	 * plays, so files of results played by the old rules are emptied.
+	 */
+	static final int RULES = 1;
+	// hashes and seed, maxTicks and budget, winner, ticks and fuel, flags, crc
+	static final int RECORD = 3 * 8 + 2 * 4 + 1 + 3 * 4 + 1 + 4;
+
+	private final Map<Key, MatchResult> recent;
+	private final FileChannel file;
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD);
+
+	// the file's index: record numbers + 1, by a hash of their keys, with
+	// linear probing; 0 is empty
+	private long[] indexHashes = new long[1024];
+	private int[] indexRecords = new int[1024];
+	private int records;
+
+	private long hits, fileHits, misses;
+
+	/**
+	 * A cache that only keeps results in memory.
+	 *
+	 * @param capacity
+	 *            the most results kept in memory
+	 */
+	public MatchCache(int capacity) {
+		this.recent = lru(capacity);
+		this.file = null;
+	}
+
+	/**
+	 * A cache that keeps results in the file as well, reading those already
+	 * in it.
+	 *
+	 * @param capacity
+	 *            the most results kept in memory
+	 * @throws IOException
+	 *             if the file can't be read or written, or isn't a cache file
+	 */
+	public MatchCache(int capacity, File file) throws IOException {
+		this.recent = lru(capacity);
+		this.file = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			open(file);
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static Map<Key, MatchResult> lru(final int capacity) {
+		return new LinkedHashMap<Key, MatchResult>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, MatchResult> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Writes the header of a new or out of date file, or indexes the records
+	 * of an old one.
+	 */
+	private void open(File name) throws IOException {
+		if (file.size() >= HEADER) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			readFully(header, 0);
+			byte[] magic = new byte[MAGIC.length];
+			header.flip();
+			header.get(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException("Not a match cache: " + name);
+			int version = header.get(), rules = header.getInt();
+			if (version == VERSION && rules == RULES) {
+				readRecords();
+				return;
+			}
+			System.err.println("Emptying match cache " + name + " of version " + version + ", rules " + rules);
+		}
+		// new, cut short before its header was all written, or out of date
+		file.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.put(MAGIC).put((byte) VERSION).putInt(RULES).flip();
+		writeFully(header, 0);
+	}
+
+	/**
+	 * Indexes the records of the file, cutting off any record cut short or
+	 * garbled and everything after it.
+	 */
+	private void readRecords() throws IOException {
+		long size = file.size();
+		ByteBuffer in = ByteBuffer.allocate(RECORD * 1024);
+		long at = HEADER;
+		read: while (at + RECORD <= size) {
+			in.clear();
+			in.limit((int) Math.min(in.capacity(), (size - at) / RECORD * RECORD));
+			readFully(in, at);
+			in.flip();
+			while (in.remaining() >= RECORD) {
+				if (!validRecord(in))
+					break read;
+				Key key = readKey(in);
+				// a key can only be appended twice by two caches on one file
+				if (find(key) < 0)
+					index(key.hashCode64(), records);
+				records++;
+				in.position(in.position() + RECORD);
+				at += RECORD;
+			}
+		}
+		if (at < size)
+			file.truncate(at);
+	}
+
+	// Looking up
+	// ----------
+
+	/**
+	 * @return the result of a match between the programs, from the cache if
+	 *         it has been played before, or else played now, stepped by a new
+	 *         World on the calling thread
+	 */
+	public MatchResult play(RobotProgramNode one, RobotProgramNode two, long seed, int maxTicks, int budget) {
+		return play(one, hash(one), two, hash(two), seed, maxTicks, budget);
+	}
+
+	/**
+	 * The same, with the hashes of the programs already worked out, for
+	 * programs that play many matches.
+	 */
+	public MatchResult play(RobotProgramNode one, long hashOne, RobotProgramNode two, long hashTwo, long seed,
+			int maxTicks, int budget) {
+		Key key = new Key(hashOne, hashTwo, seed, maxTicks, budget);
+		MatchResult r = get(key);
+		if (r == null) {
+			// played without holding the lock; if another thread plays it
+			// at the same time it gets the same result
+			r = playMatch(one, two, seed, maxTicks, budget);
+			put(key, r);
+		}
+		return r;
+	}
+
+	/**
+	 * @return the result of the match, or null if it hasn't been played
+	 */
+	synchronized MatchResult get(Key key) {
+		MatchResult r = recent.get(key);
+		if (r != null) {
+			hits++;
+			return r;
+		}
+		if (file != null) {
+			try {
+				int n = find(key);
+				if (n >= 0) {
+					r = readResult(n);
+					recent.put(key, r);
+					fileHits++;
+					return r;
+				}
+			} catch (IOException e) {
+				// treated as never played, and played again
+				System.err.println("Can't read match cache: " + e.getMessage());
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	synchronized void put(Key key, MatchResult r) {
+		recent.put(key, r);
+		if (file == null)
+			return;
+		try {
+			if (find(key) >= 0)
+				return;
+			record.clear();
+			record.putLong(key.one).putLong(key.two).putLong(key.seed).putInt(key.maxTicks).putInt(key.budget);
+			record.put((byte) r.getWinner()).putInt(r.getTicks()).putInt(r.getFuel(1)).putInt(r.getFuel(2));
+			record.put((byte) ((r.isTimedOut(1) ? 1 : 0) | (r.isTimedOut(2) ? 2 : 0)));
+			CRC32 crc = new CRC32();
+			crc.update(record.array(), 0, RECORD - 4);
+			record.putInt((int) crc.getValue());
+			record.flip();
+			writeFully(record, HEADER + (long) records * RECORD);
+			index(key.hashCode64(), records);
+			records++;
+		} catch (IOException e) {
+			// still kept in memory
+			System.err.println("Can't write match cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Plays a match without the cache.
+	 */
+	static MatchResult playMatch(RobotProgramNode one, RobotProgramNode two, long seed, int maxTicks, int budget) {
+		World w = new World();
+		w.setSeed(seed);
+		w.getRobot(1).setProgram(one);
+		w.getRobot(2).setProgram(two);
+		w.getRobot(1).setBudget(budget);
+		w.getRobot(2).setBudget(budget);
+		return w.runMatch(maxTicks);
+	}
+
+	/**
+	 * @return the hash a program is known by in the cache, of its canonical
+	 *         form
+	 */
+	public static long hash(RobotProgramNode program) {
+		return AstCodec.hash(AstCodec.encode(ProgramFuser.canonical(ProgramOptimizer.optimize(program))));
+	}
+
+	// The file's index
+	// ----------------
+
+	/** @return the record number of the key in the file, or -1 */
+	private int find(Key key) throws IOException {
+		long h = key.hashCode64();
+		int mask = indexHashes.length - 1;
+		for (int i = (int) h & mask; indexRecords[i] != 0; i = (i + 1) & mask) {
+			// different keys can have the same hash, so check the record
+			if (indexHashes[i] == h && key.equals(readKey(indexRecords[i] - 1)))
+				return indexRecords[i] - 1;
+		}
+		return -1;
+	}
+
+	private void index(long h, int n) {
+		if ((records + 1) * 2 > indexHashes.length)
+			grow();
+		int mask = indexHashes.length - 1;
+		int i = (int) h & mask;
+		while (indexRecords[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		indexHashes[i] = h;
+		indexRecords[i] = n + 1;
+	}
+
+	private void grow() {
+		long[] hashes = indexHashes;
+		int[] recordNumbers = indexRecords;
+		indexHashes = new long[hashes.length * 2];
+		indexRecords = new int[hashes.length * 2];
+		int mask = indexHashes.length - 1;
+		for (int j = 0; j < hashes.length; j++) {
+			if (recordNumbers[j] == 0)
+				continue;
+			int i = (int) hashes[j] & mask;
+			while (indexRecords[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			indexHashes[i] = hashes[j];
+			indexRecords[i] = recordNumbers[j];
+		}
+	}
+
+	// Records
+	// -------
+
+	static final int KEY_BYTES = 3 * 8 + 2 * 4;
+
+	private static boolean validRecord(ByteBuffer in) {
+		CRC32 crc = new CRC32();
+		ByteBuffer rest = in.duplicate();
+		rest.limit(rest.position() + RECORD - 4);
+		crc.update(rest);
+		return in.getInt(in.position() + RECORD - 4) == (int) crc.getValue();
+	}
+
+	private static Key readKey(ByteBuffer in) {
+		int at = in.position();
+		return new Key(in.getLong(at), in.getLong(at + 8), in.getLong(at + 16), in.getInt(at + 24),
+				in.getInt(at + 28));
+	}
+
+	private Key readKey(int n) throws IOException {
+		ByteBuffer in = ByteBuffer.allocate(KEY_BYTES);
+		readFully(in, HEADER + (long) n * RECORD);
+		in.flip();
+		return readKey(in);
+	}
+
+	private MatchResult readResult(int n) throws IOException {
+		ByteBuffer in = ByteBuffer.allocate(RECORD - KEY_BYTES);
+		readFully(in, HEADER + (long) n * RECORD + KEY_BYTES);
+		in.flip();
+		int winner = in.get(), ticks = in.getInt(), fuel1 = in.getInt(), fuel2 = in.getInt(), flags = in.get();
+		return new MatchResult(winner, ticks, fuel1, fuel2, (flags & 1) != 0, (flags & 2) != 0);
+	}
+
+	private void readFully(ByteBuffer in, long at) throws IOException {
+		while (in.hasRemaining()) {
+			int n = file.read(in, at);
+			if (n < 0)
+				throw new IOException("Match cache cut short");
+			at += n;
+		}
+	}
+
+	private void writeFully(ByteBuffer out, long at) throws IOException {
+		while (out.hasRemaining()) {
+			at += file.write(out, at);
+		}
+	}
+
+	// Statistics
+	// ----------
+
+	/** @return the lookups found in memory */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/** @return the lookups found in the file but not in memory */
+	public synchronized long getFileHits() {
+		return fileHits;
+	}
+
+	/** @return the lookups that had to play the match */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/** @return the results in the file */
+	public synchronized int getRecords() {
+		return records;
+	}
+
+	public synchronized String toString() {
+		long lookups = hits + fileHits + misses;
+		return String.format("%d lookups, %d in memory, %d from file, %d played (%.1f%% hits), %d in file", lookups,
+				hits, fileHits, misses, (lookups == 0) ? 0.0 : 100.0 * (hits + fileHits) / lookups, records);
+	}
+
+	/**
+	 * Makes sure the file has everything written to it, and closes it.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (file != null && file.isOpen()) {
+			file.force(false);
+			file.close();
+		}
+	}
+
+	/**
+	 * What a match is known by: both programs, the seed, how long it can go
+	 * on and the programs' budget.
+	 */
+	static final class Key {
+		final long one, two, seed;
+		final int maxTicks, budget;
+
+		Key(long one, long two, long seed, int maxTicks, int budget) {
+			this.one = one;
+			this.two = two;
+			this.seed = seed;
+			this.maxTicks = maxTicks;
+			this.budget = budget;
+		}
+
+		long hashCode64() {
+			long h = one * 0x9E3779B97F4A7C15L;
+			h = (h ^ two) * 0xBF58476D1CE4E5B9L;
+			h = (h ^ seed) * 0x94D049BB133111EBL;
+			h = (h ^ ((long) maxTicks << 32 | budget & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+			return h ^ (h >>> 31);
+		}
+
+		@Override
+		public int hashCode() {
+			long h = hashCode64();
+			return (int) (h ^ (h >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return one == k.one && two == k.two && seed == k.seed && maxTicks == k.maxTicks && budget == k.budget;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * The outcome of a match: which robot won, after how many updates, the fuel
+ * each robot had left at the end, and whether either robot's program was
+ * stopped for going over its budget (see Robot.loopIteration).
+ */
+public final class MatchResult {
+
+	/** The winner of a match neither robot won. */
+	public static final int DRAW = 0;
+
+	private final int winner, ticks, fuel1, fuel2;
+	private final boolean timedOut1, timedOut2;
+
+	public MatchResult(int winner, int ticks, int fuel1, int fuel2) {
+		this(winner, ticks, fuel1, fuel2, false, false);
+	}
+
+	public MatchResult(int winner, int ticks, int fuel1, int fuel2, boolean timedOut1, boolean timedOut2) {
+		this.winner = winner;
+		this.ticks = ticks;
+		this.fuel1 = fuel1;
+		this.fuel2 = fuel2;
+		this.timedOut1 = timedOut1;
+		this.timedOut2 = timedOut2;
+	}
+
+	/**
+	 * A robot whose program went over its budget loses to one whose program
+	 * didn't. Otherwise the robot that didn't run out of fuel wins. If both
+	 * ran out at once it's a draw, and if neither did, the robot with more
+	 * fuel left wins.
+	 */
+	static MatchResult of(World world) {
+		Robot r1 = world.getRobot(1), r2 = world.getRobot(2);
+		int f1 = r1.getFuelLevel(), f2 = r2.getFuelLevel();
+		boolean t1 = r1.isTimedOut(), t2 = r2.isTimedOut();
+		int winner;
+		if (t1 != t2) {
+			winner = t1 ? 2 : 1;
+		} else if (r1.isDead() || r2.isDead()) {
+			winner = (r1.isDead() && r2.isDead()) ? DRAW : r1.isDead() ? 2 : 1;
+		} else {
+			winner = (f1 == f2) ? DRAW : (f1 > f2) ? 1 : 2;
+		}
+		return new MatchResult(winner, world.getTick(), f1, f2, t1, t2);
+	}
+
+	/**
+	 * @return 1 or 2 for the robot that won, or DRAW
+	 */
+	public int getWinner() {
+		return winner;
+	}
+
+	public int getTicks() {
+		return ticks;
+	}
+
+	public int getFuel(int robot) {
+		return (robot == 1) ? fuel1 : fuel2;
+	}
+
+	/**
+	 * @return whether the robot's program was stopped for going over its
+	 *         budget
+	 */
+	public boolean isTimedOut(int robot) {
+		return (robot == 1) ? timedOut1 : timedOut2;
+	}
+
+	public String toString() {
+		String who = (winner == DRAW) ? "draw" : "robot " + winner + " won";
+		String s = who + " after " + ticks + " updates, fuel " + fuel1 + "/" + fuel2;
+		if (timedOut1 || timedOut2)
+			s += (timedOut1 && timedOut2) ? ", both timed out" : ", robot " + (timedOut1 ? 1 : 2) + " timed out";
+		return s;
+	}
+}
@@ -0,0 +1,395 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the parts of a match that run every
+ * turn: how long each world update takes, and the robot updates in it, how
+ * long robots wait for the world, how long programs take to choose their
+ * actions, and how many actions and sensor reads each robot makes.
+ * <p>
+ * Off unless the JVM is started with -Drobogame.metrics=true. ENABLED is
+ * fixed when this class loads, so with metrics off the JIT drops the checks
+ * for it, and nothing is timed or counted. With them on, the metrics are
+ * registered as MXBeans under "robogame:*" for JConsole and the like, and
+ * -Drobogame.metrics.dump=n also prints them to System.err every n seconds.
+ * Counters are LongAdders and histogram buckets are striped by thread, so
+ * the robot threads and the world's timer don't wait on each other to
+ * record anything.
+ * <p>
+ * Robots are counted by their place in the world: red, which is robot 1, or
+ * blue, robot 2, adding up every world's robots in that place.
+ */
+public final class Metrics {
+
+	public static final boolean ENABLED = Boolean.getBoolean("robogame.metrics");
+
+	public static final Histogram TICK = new Histogram("tick"), UPDATE_PENDING = new Histogram("updatePending"),
+			BLOCKED = new Histogram("blocked"), THINK = new Histogram("think");
+
+	private static final String[] ROBOTS = { null, "red", "blue" };
+
+	private static final LongAdder ticks = new LongAdder(), programs = new LongAdder();
+	private static final LongAdder[] actions = { null, new LongAdder(), new LongAdder() },
+			sensorCalls = { null, new LongAdder(), new LongAdder() };
+
+	// when the counts started, and what they were at the last dump
+	private static volatile long started = System.nanoTime();
+	private static long lastDump = started, lastTicks;
+	private static final long[] lastActions = new long[3];
+
+	static {
+		if (ENABLED) {
+			register();
+			long seconds = Long.getLong("robogame.metrics.dump", 0);
+			if (seconds > 0)
+				startDumping(seconds);
+		}
+	}
+
+	private Metrics() {
+	}
+
+	/** The metrics as a whole, as JMX sees them. */
+	public interface MetricsMXBean {
+		long getTicks();
+
+		double getTicksPerSecond();
+
+		/** @return the robot programs started, on threads or stepped */
+		long getProgramsStarted();
+
+		long getRedActions();
+
+		long getBlueActions();
+
+		double getRedActionsPerSecond();
+
+		double getBlueActionsPerSecond();
+
+		double getRedSensorCallsPerAction();
+
+		double getBlueSensorCallsPerAction();
+
+		/** @return everything, as dump gives it */
+		String getDump();
+
+		void reset();
+	}
+
+	/** A latency histogram, as JMX sees it. All times are in nanoseconds. */
+	public interface HistogramMXBean {
+		long getCount();
+
+		double getMean();
+
+		long getP50();
+
+		long getP90();
+
+		long getP99();
+
+		long getP999();
+
+		long getMax();
+	}
+
+	// Recording
+	// ---------
+
+	/** @return the time now, to pass to the recording methods later */
+	static long start() {
+		return System.nanoTime();
+	}
+
+	static void tick(long start) {
+		ticks.increment();
+		TICK.record(System.nanoTime() - start);
+	}
+
+	static void programStarted() {
+		programs.increment();
+	}
+
+	/**
+	 * @param robot
+	 *            1 for red or 2 for blue
+	 */
+	static void action(int robot) {
+		actions[robot].increment();
+	}
+
+	static void sensorCall(int robot) {
+		sensorCalls[robot].increment();
+	}
+
+	/** @return the place of a robot of the given colour */
+	static int robot(String colour) {
+		return "blue".equals(colour) ? 2 : 1;
+	}
+
+	// Reading
+	// -------
+
+	/**
+	 * @return all the metrics, one a line, with rates since the last dump
+	 */
+	public static synchronized String dump() {
+		long now = System.nanoTime();
+		double seconds = Math.max(1, now - lastDump) / 1e9;
+		StringBuilder sb = new StringBuilder();
+		long t = ticks.sum();
+		sb.append(String.format("ticks %d (%.1f/s), programs started %d%n", t, (t - lastTicks) / seconds,
+				programs.sum()));
+		lastTicks = t;
+		for (Histogram h : new Histogram[] { TICK, UPDATE_PENDING, BLOCKED, THINK }) {
+			sb.append(h).append(String.format("%n"));
+		}
+		for (int i = 1; i <= 2; i++) {
+			long a = actions[i].sum();
+			sb.append(String.format("%-4s actions %d (%.1f/s), sensor calls per action %.2f%n", ROBOTS[i], a,
+					(a - lastActions[i]) / seconds, sensorCallsPerAction(i)));
+			lastActions[i] = a;
+		}
+		lastDump = now;
+		return sb.toString();
+	}
+
+	/**
+	 * Starts every count and histogram again from nothing.
+	 */
+	public static synchronized void reset() {
+		ticks.reset();
+		programs.reset();
+		for (int i = 1; i <= 2; i++) {
+			actions[i].reset();
+			sensorCalls[i].reset();
+			lastActions[i] = 0;
+		}
+		for (Histogram h : new Histogram[] { TICK, UPDATE_PENDING, BLOCKED, THINK }) {
+			h.reset();
+		}
+		started = lastDump = System.nanoTime();
+		lastTicks = 0;
+	}
+
+	private static double perSecond(long count) {
+		return count * 1e9 / Math.max(1, System.nanoTime() - started);
+	}
+
+	private static double sensorCallsPerAction(int robot) {
+		long a = actions[robot].sum();
+		return (a == 0) ? 0 : sensorCalls[robot].sum() / (double) a;
+	}
+
+	private static void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(new MetricsMXBean() {
+				public long getTicks() {
+					return ticks.sum();
+				}
+
+				public double getTicksPerSecond() {
+					return perSecond(ticks.sum());
+				}
+
+				public long getProgramsStarted() {
+					return programs.sum();
+				}
+
+				public long getRedActions() {
+					return actions[1].sum();
+				}
+
+				public long getBlueActions() {
+					return actions[2].sum();
+				}
+
+				public double getRedActionsPerSecond() {
+					return perSecond(actions[1].sum());
+				}
+
+				public double getBlueActionsPerSecond() {
+					return perSecond(actions[2].sum());
+				}
+
+				public double getRedSensorCallsPerAction() {
+					return sensorCallsPerAction(1);
+				}
+
+				public double getBlueSensorCallsPerAction() {
+					return sensorCallsPerAction(2);
+				}
+
+				public String getDump() {
+					return dump();
+				}
+
+				public void reset() {
+					Metrics.reset();
+				}
+			}, new ObjectName("robogame:type=Metrics"));
+			for (Histogram h : new Histogram[] { TICK, UPDATE_PENDING, BLOCKED, THINK }) {
+				server.registerMBean(h, new ObjectName("robogame:type=Histogram,name=" + h.name));
+			}
+		} catch (JMException e) {
+			// already registered, by another class loader
+			System.err.println("Metrics not registered: " + e);
+		}
+	}
+
+	private static void startDumping(long seconds) {
+		ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics dump");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		dumper.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				System.err.print(dump());
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Counts of times in buckets a few percent wide, like HdrHistogram with
+	 * two significant digits: times under 64ns each have a bucket, and above
+	 * that every power of two is split into 32 buckets. Each thread records
+	 * into one of a few stripes, by its id, and reading adds the stripes up.
+	 */
+	public static final class Histogram implements HistogramMXBean {
+
+		private static final int SUB = 32, BUCKETS = 60 * SUB, STRIPES = 4;
+
+		final String name;
+		private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+		private final LongAdder total = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+			public long applyAsLong(long a, long b) {
+				return Math.max(a, b);
+			}
+		}, 0);
+
+		Histogram(String name) {
+			this.name = name;
+			for (int i = 0; i < STRIPES; i++) {
+				stripes[i] = new AtomicLongArray(BUCKETS);
+			}
+		}
+
+		/** Records the time since start, from Metrics.start(). */
+		void since(long start) {
+			record(System.nanoTime() - start);
+		}
+
+		void record(long nanos) {
+			if (nanos < 0)
+				nanos = 0;
+			stripes[(int) (Thread.currentThread().getId() & (STRIPES - 1))].incrementAndGet(bucket(nanos));
+			total.add(nanos);
+			max.accumulate(nanos);
+		}
+
+		private static int bucket(long v) {
+			int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(v) - 5);
+			return shift * SUB + (int) (v >>> shift);
+		}
+
+		/** @return the highest time that goes in the bucket */
+		private static long highest(int bucket) {
+			if (bucket < 2 * SUB)
+				return bucket;
+			int shift = bucket / SUB - 1;
+			long lowest = (long) (bucket % SUB + SUB) << shift;
+			return lowest + (1L << shift) - 1;
+		}
+
+		private long[] counts() {
+			long[] counts = new long[BUCKETS];
+			for (AtomicLongArray s : stripes) {
+				for (int i = 0; i < BUCKETS; i++) {
+					counts[i] += s.get(i);
+				}
+			}
+			return counts;
+		}
+
+		/**
+		 * @return the time no more than the given fraction of those recorded
+		 *         took, to within its bucket
+		 */
+		public long percentile(double fraction) {
+			long[] counts = counts();
+			long n = 0;
+			for (long c : counts)
+				n += c;
+			long wanted = (long) Math.ceil(fraction * n), seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= wanted && seen > 0)
+					return Math.min(highest(i), max.get());
+			}
+			return 0;
+		}
+
+		public long getCount() {
+			long n = 0;
+			for (long c : counts())
+				n += c;
+			return n;
+		}
+
+		public double getMean() {
+			long n = getCount();
+			return (n == 0) ? 0 : total.sum() / (double) n;
+		}
+
+		public long getP50() {
+			return percentile(0.5);
+		}
+
+		public long getP90() {
+			return percentile(0.9);
+		}
+
+		public long getP99() {
+			return percentile(0.99);
+		}
+
+		public long getP999() {
+			return percentile(0.999);
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		void reset() {
+			for (AtomicLongArray s : stripes) {
+				for (int i = 0; i < BUCKETS; i++) {
+					s.set(i, 0);
+				}
+			}
+			total.reset();
+			max.reset();
+		}
+
+		public String toString() {
+			return String.format("%-13s count %d, mean %.1fus, p50 %.1fus, p99 %.1fus, max %.1fus", name, getCount(),
+					getMean() / 1e3, getP50() / 1e3, getP99() / 1e3, getMax() / 1e3);
+		}
+	}
+}
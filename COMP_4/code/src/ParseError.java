@@ -0,0 +1,39 @@
+/**
+ * A syntax error found by a parse that carries on past errors (see
+ * Parser.parseString(String, List)): what was wrong and where.
+ */
+public final class ParseError {
+
+	private final String message;
+	private final int line, column, offset;
+
+	public ParseError(String message, int line, int column, int offset) {
+		this.message = message;
+		this.line = line;
+		this.column = column;
+		this.offset = offset;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	/** @return the line of the error, from 1 */
+	public int getLine() {
+		return line;
+	}
+
+	/** @return the column of the error, from 1 */
+	public int getColumn() {
+		return column;
+	}
+
+	/** @return the offset of the error in the source */
+	public int getOffset() {
+		return offset;
+	}
+
+	public String toString() {
+		return "line " + line + ", column " + column + ": " + message;
+	}
+}
@@ -1,5 +1,11 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.regex.*;
 import javax.swing.JFileChooser;
@@ -11,17 +17,51 @@ import javax.swing.JFileChooser;
  */
 public class Parser {
 
+	/**
+	 * Whether parseFile and parseString use the StackParser, rather than the
+	 * recursive descent parser below. Both build the same nodes for the same
+	 * program, but the StackParser doesn't run out of Java stack on deeply
+	 * nested programs, and is faster.
+	 */
+	private static volatile boolean useStackParser = true;
+
+	static void setUseStackParser(boolean use) {
+		useStackParser = use;
+	}
+
 	/**
 	 * Top level parse method, called by the World
 	 */
 	static RobotProgramNode parseFile(File code) {
+		FlightEvents.Parse event = new FlightEvents.Parse();
+		event.begin();
+		RobotProgramNode n = parse(code);
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = code.getPath();
+			event.bytes = code.length();
+			event.nodes = (n == null) ? 0 : AstCodec.countNodes(n);
+			event.commit();
+		}
+		return n;
+	}
+
+	private static RobotProgramNode parse(File code) {
+		if (useStackParser) {
+			try {
+				return (code.length() < MAP_THRESHOLD) ? parseChannel(code) : parseMapped(code);
+			} catch (IOException e) {
+				System.out.println("Robot program source file not found");
+			} catch (ParserFailureException e) {
+				System.out.println("Parser error:");
+				System.out.println(e.getMessage());
+			}
+			return null;
+		}
 		Scanner scan = null;
 		try {
 			scan = new Scanner(code);
-
-			// the only time tokens can be next to each other is
-			// when one of them is one of (){},;
-			scan.useDelimiter("\\s+|(?=[{}(),;])|(?<=[{}(),;])");
+			scan.useDelimiter(DELIMITER);
 
 			RobotProgramNode n = parseProgram(scan); // You need to implement this!!!
 
@@ -37,9 +77,101 @@ public class Parser {
 		return null;
 	}
 
-	/** For testing the parser without requiring the world */
+	// the only time tokens can be next to each other is
+	// when one of them is one of (){},;
+	static final String DELIMITER = "\\s+|(?=[{}(),;])|(?<=[{}(),;])";
+
+	/**
+	 * Parses a program held in a string. Unlike parseFile, a program that
+	 * doesn't parse throws the ParserFailureException.
+	 */
+	static RobotProgramNode parseString(String code) {
+		if (useStackParser)
+			return new StackParser(new CharLexer(code)).parseProgram();
+		Scanner scan = new Scanner(code);
+		scan.useDelimiter(DELIMITER);
+		RobotProgramNode n = parseProgram(scan);
+		scan.close();
+		return n;
+	}
+
+	/**
+	 * Parses a program held in a string, carrying on past syntax errors: each
+	 * is added to errors, and the statements that did parse are returned.
+	 */
+	static RobotProgramNode parseString(String code, List<ParseError> errors) {
+		return new StackParser(new CharLexer(code), errors).parseProgram();
+	}
+
+	// files at least this big are mapped rather than read
+	private static final long MAP_THRESHOLD = 1 << 20;
+
+	/**
+	 * Parses a program from its ASCII bytes, from the buffer's position to
+	 * its limit. Like parseString, a program that doesn't parse throws the
+	 * ParserFailureException.
+	 */
+	static RobotProgramNode parseBuffer(ByteBuffer code) {
+		return parseBuffer(code, null);
+	}
+
+	/**
+	 * Parses a program from a buffer, carrying on past syntax errors like
+	 * parseString(String, List) if errors isn't null.
+	 */
+	static RobotProgramNode parseBuffer(ByteBuffer code, List<ParseError> errors) {
+		return new StackParser(new ByteLexer(code), errors).parseProgram();
+	}
+
+	/**
+	 * Parses a program from the channel, reading it a buffer at a time as
+	 * the parser gets to it.
+	 */
+	static RobotProgramNode parseChannel(ReadableByteChannel code) throws IOException {
+		return parseChannel(code, null);
+	}
+
+	/**
+	 * Parses a program from the channel, carrying on past syntax errors like
+	 * parseString(String, List) if errors isn't null.
+	 */
+	static RobotProgramNode parseChannel(ReadableByteChannel code, List<ParseError> errors) throws IOException {
+		try {
+			return new StackParser(new ByteLexer(code), errors).parseProgram();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	static RobotProgramNode parseChannel(File code) throws IOException {
+		return parseChannel(code, null);
+	}
+
+	static RobotProgramNode parseChannel(File code, List<ParseError> errors) throws IOException {
+		try (FileChannel channel = FileChannel.open(code.toPath(), StandardOpenOption.READ)) {
+			return parseChannel(channel, errors);
+		}
+	}
+
+	/**
+	 * Parses a file by mapping it into memory, which is quickest for big
+	 * programs.
+	 */
+	static RobotProgramNode parseMapped(File code) throws IOException {
+		try (FileChannel channel = FileChannel.open(code.toPath(), StandardOpenOption.READ)) {
+			return parseBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * For testing the parser without requiring the world. With -q, the
+	 * programs parsed aren't printed.
+	 */
 
 	public static void main(String[] args) {
+		boolean quiet = args.length > 0 && args[0].equals("-q");
+		if (quiet)
+			args = Arrays.copyOfRange(args, 1, args.length);
 		if (args.length > 0) {
 			for (String arg : args) {
 				File f = new File(arg);
@@ -47,9 +179,9 @@ public class Parser {
 					System.out.println("Parsing '" + f + "'");
 					RobotProgramNode prog = parseFile(f);
 					System.out.println("Parsing completed ");
-					if (prog != null) {
+					if (prog != null && !quiet) {
 						System.out.println("================\nProgram:");
-						System.out.println(prog);
+						ProgramPrinter.print(prog, System.out);
 					}
 					System.out.println("=================");
 				} else {
@@ -65,8 +197,9 @@ public class Parser {
 				}
 				RobotProgramNode prog = parseFile(chooser.getSelectedFile());
 				System.out.println("Parsing completed");
-				if (prog != null) {
-					System.out.println("Program: \n" + prog);
+				if (prog != null && !quiet) {
+					System.out.println("Program: ");
+					ProgramPrinter.print(prog, System.out);
 				}
 				System.out.println("=================");
 			}
@@ -138,6 +271,8 @@ public class Parser {
 			child = parseIf(s);
 		}else if(s.hasNext(WHILEPAT)){
 			child = parseWhile(s);
+		}else{
+			fail("Unknown statement", s);
 		}
 
 		return child;
@@ -542,12 +677,12 @@ class ProgNode implements RobotProgramNode{
 	}
 
     public String toString(){
-		String s = "";
+		StringBuilder s = new StringBuilder();
 		for(RobotProgramNode ch: children){
-			s = s + ch.toString() + " ";
+			s.append(ch).append(' ');
 		}
 
-        return s;
+        return s.toString();
     }
 }
 
@@ -697,10 +832,10 @@ class BlockNode implements RobotProgramNode{
     }
 
     public String toString() {
-        String s = "{";
+        StringBuilder s = new StringBuilder("{");
         for(RobotProgramNode n: children){ 
-		s = s + n.toString() + " ";}
-        return s + "}"; 
+		s.append(n).append(' ');}
+        return s.append('}').toString(); 
     }
 }
 
@@ -713,9 +848,10 @@ class whileNode implements RobotProgramNode{
 	public void setBlockNode(RobotProgramNode rpn){this.block = rpn;}
 
 	public void execute(Robot robot){
-		System.out.println("start while");
+		if(RoboGame.debugDisplay) System.out.println("start while");
 		while(cond.evaluate(robot)){
-			System.out.println("in while");
+			robot.loopIteration();
+			if(RoboGame.debugDisplay) System.out.println("in while");
 			block.execute(robot);
 		}
 	}
@@ -832,53 +968,49 @@ class eqNode implements RobotConditionNode{
 // see if the robot has feul left
 class fuelLeftNode implements RobotSensorNode{
 	public fuelLeftNode(){}
-	public int evaluate(Robot robot){return robot.getFuel();}
+	public int evaluate(Robot robot){return robot.getSensors().fuel;}
     public String toString() {return "fuelLeft";}
 }
 
 // get the x coordinate of the opposition
 class oppLRNode implements RobotSensorNode{
 	public oppLRNode(){}
-	public int evaluate(Robot robot){return robot.getOpponentLR();}
+	public int evaluate(Robot robot){return robot.getSensors().oppLR;}
     public String toString() {return "oppLR";}
 }
 
 // get the y coordinate of the opposition
 class oppFBNode implements RobotSensorNode{
 	public oppFBNode(){}
-	public int evaluate(Robot robot){return robot.getOpponentFB();}
+	public int evaluate(Robot robot){return robot.getSensors().oppFB;}
     public String toString() {return "oppLR";}
 }
 
 // get the x coordinate of the closest barrel
 class barrelLRNode implements RobotSensorNode{
 	public barrelLRNode(){}
-	public int evaluate(Robot robot){
-		System.out.println("Running barrelLR");
-		System.out.println("Num barrels: " +robot.numBarrels());
-		return robot.getClosestBarrelLR();
-	}
+	public int evaluate(Robot robot){return robot.getSensors().barrelLR(0);}
     public String toString() {return "barrelLR";}
 }
 
 // get the y coordinate of the closest barrel
 class barrelFBNode implements RobotSensorNode{
 	public barrelFBNode(){}
-	public int evaluate(Robot robot){return robot.getClosestBarrelFB();}
+	public int evaluate(Robot robot){return robot.getSensors().barrelFB(0);}
     public String toString() {return "barrelFB";}
 }
 
 // get the number of barrels
 class numBarrelsNode implements RobotSensorNode{
 	public numBarrelsNode(){}
-	public int evaluate(Robot robot){return robot.numBarrels();}
+	public int evaluate(Robot robot){return robot.getSensors().numBarrels();}
     public String toString() {return "numBarrels";}
 }
 
 // get the distance to the wall infront of the robot
 class wallDistNode implements RobotSensorNode{
 	public wallDistNode(){}
-	public int evaluate(Robot robot){return robot.getDistanceToWall();}
+	public int evaluate(Robot robot){return robot.getSensors().wallDist;}
     public String toString() {return "wallDist";}
 }
 
@@ -1027,4 +1159,165 @@ class notNode implements RobotConditionNode{
 	public boolean evaluate(Robot robot){
 		return !condition.evaluate(robot);
 	}
-}
\ No newline at end of file
+}
+
+// --  FUSED NODES  --------------------------------------------------------------------------------------------------------------------------------
+// Made by the ProgramFuser in place of common shapes of nodes, to do in one call what those nodes do in several.
+// Each keeps the node it stands for, which everything but execute and evaluate goes by.
+interface FusedNode{
+	Object original();
+}
+
+// a sensor compared with a number, such as gt(wallDist, 0)
+class testNode implements RobotConditionNode, FusedNode{
+	condNode original;
+	int sensor, relop, value; // a CompiledProgram sensor and LT, GT or EQ
+
+	public testNode(condNode original, int sensor, int relop, int value){
+		this.original = original;
+		this.sensor = sensor;
+		this.relop = relop;
+		this.value = value;
+	}
+
+	public Object original(){return original;}
+
+	public boolean evaluate(Robot robot){
+		int v = robot.getSensors().sense(sensor);
+		if(relop == CompiledProgram.LT){return v < value;}
+		if(relop == CompiledProgram.GT){return v > value;}
+		return v == value;
+	}
+
+	public String toString(){return original.toString();}
+}
+
+// an if with at most one statement in each branch, doing plain actions itself rather than through their nodes
+class testIfNode implements RobotProgramNode, FusedNode{
+	ifNode original;
+	RobotConditionNode cond;
+	RobotProgramNode then, otherwise; // null if empty, or done by the action
+	int thenAction, elseAction; // a Robot.ACTION_ to do, or 0
+
+	public testIfNode(ifNode original, RobotConditionNode cond){
+		this.original = original;
+		this.cond = cond;
+	}
+
+	public Object original(){return original;}
+
+	public void execute(Robot robot){
+		if(cond.evaluate(robot)){
+			if(thenAction != 0){act(robot, thenAction);}
+			else if(then != null){then.execute(robot);}
+		}else{
+			if(elseAction != 0){act(robot, elseAction);}
+			else if(otherwise != null){otherwise.execute(robot);}
+		}
+	}
+
+	static void act(Robot robot, int action){
+		switch(action){
+		case Robot.ACTION_MOVE: robot.move(); break;
+		case Robot.ACTION_TURN_LEFT: robot.turnLeft(); break;
+		case Robot.ACTION_TURN_RIGHT: robot.turnRight(); break;
+		case Robot.ACTION_TURN_AROUND: robot.turnAround(); break;
+		case Robot.ACTION_TAKE_FUEL: robot.takeFuel(); break;
+		default: robot.idleWait(); break;
+		}
+	}
+
+	public String toString(){return original.toString();}
+}
+
+// a while on a sensor compared with a number, such as while(gt(fuelLeft, 0)), running the statements of its block itself
+class testWhileNode implements RobotProgramNode, FusedNode{
+	whileNode original;
+	RobotConditionNode cond;
+	RobotProgramNode[] body;
+
+	public testWhileNode(whileNode original, RobotConditionNode cond, RobotProgramNode[] body){
+		this.original = original;
+		this.cond = cond;
+		this.body = body;
+	}
+
+	public Object original(){return original;}
+
+	public void execute(Robot robot){
+		if(RoboGame.debugDisplay) System.out.println("start while");
+		while(cond.evaluate(robot)){
+			robot.loopIteration();
+			if(RoboGame.debugDisplay) System.out.println("in while");
+			for(RobotProgramNode n: body){
+				n.execute(robot);
+			}
+		}
+	}
+
+	public String toString(){return original.toString();}
+}
+
+// an and or or of conditions that can't throw, trying them in whichever order has lately decided it most cheaply.
+// Every so often it tries all of them for a while to see how often each is true, then sorts them by cost over
+// how likely each is to decide the answer on its own (false for an and, true for an or), which is the quickest
+// order when the conditions are independent of each other.
+class orderedNode implements RobotConditionNode, FusedNode{
+	static final int PROFILE = 32, PERIOD = 1024; // profile the first PROFILE evaluations in every PERIOD
+
+	RobotConditionNode original;
+	boolean and;
+	RobotConditionNode[] terms;
+	int[] costs; // a guess at what each term costs, from how many nodes it has
+	int[] trues; // how many times each term has been true while profiling
+	volatile int[] order; // the terms to try, best first
+	int evaluations;
+
+	public orderedNode(RobotConditionNode original, boolean and, RobotConditionNode[] terms, int[] costs, int[] order){
+		this.original = original;
+		this.and = and;
+		this.terms = terms;
+		this.costs = costs;
+		this.trues = new int[terms.length];
+		this.order = order;
+	}
+
+	public Object original(){return original;}
+
+	public boolean evaluate(Robot robot){
+		int k = evaluations++ & (PERIOD - 1);
+		if(k < PROFILE){return profile(robot, k == PROFILE - 1);}
+		for(int i: order){
+			if(terms[i].evaluate(robot) != and){return !and;}
+		}
+		return and;
+	}
+
+	private boolean profile(Robot robot, boolean last){
+		boolean result = and;
+		for(int i = 0; i < terms.length; i++){
+			boolean v = terms[i].evaluate(robot);
+			if(v){trues[i]++;}
+			if(v != and){result = !and;}
+		}
+		if(last){
+			// sort by cost over the chance of deciding, guessing the chance a little towards a half
+			double[] rank = new double[terms.length];
+			for(int i = 0; i < terms.length; i++){
+				int deciding = and ? PROFILE - trues[i] : trues[i];
+				rank[i] = costs[i] * (PROFILE + 2.0) / (deciding + 1);
+				trues[i] = 0;
+			}
+			int[] sorted = order.clone();
+			for(int i = 1; i < sorted.length; i++){
+				int t = sorted[i], j = i;
+				for(; j > 0 && rank[sorted[j - 1]] > rank[t]; j--){sorted[j] = sorted[j - 1];}
+				sorted[j] = t;
+			}
+			order = sorted;
+		}
+		return result;
+	}
+
+	public String toString(){return original.toString();}
+}
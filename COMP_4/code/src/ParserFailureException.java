@@ -1,6 +1,21 @@
 @SuppressWarnings("serial")
 public class ParserFailureException extends RuntimeException {
+	private final int offset;
+
 	public ParserFailureException(String msg) {
+		this(msg, -1);
+	}
+
+	/**
+	 * @param offset
+	 *            where in the source the parser failed, or -1 if not known
+	 */
+	public ParserFailureException(String msg, int offset) {
 		super(msg);
+		this.offset = offset;
+	}
+
+	public int getOffset() {
+		return offset;
 	}
 }
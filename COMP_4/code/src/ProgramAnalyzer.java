@@ -0,0 +1,924 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out what can be known about a program without running it: bounds
+ * on the fuel its actions use, loops that spin without ever acting,
+ * branches that can never be taken, and sensors whose value is known where
+ * they are read. It's cheap enough to sort out candidate programs before
+ * spending any matches on them.
+ * <p>
+ * The analysis keeps a range of values for each sensor, narrowed by the
+ * conditions on the way to each statement. For a robot that is stepped, as
+ * by World.runMatch, or doesn't wait for the world, as in RoboGamePrinter,
+ * nothing the program can sense changes until it acts (see SensorSnapshot),
+ * so the ranges hold until the next action, after which they go back to
+ * what any turn could give. The body of a loop that can act is looked at
+ * once, starting from what any turn could give, rather than again and again
+ * until nothing changes, so every node is looked at a fixed number of times
+ * and the analysis takes time in proportion to the size of the program.
+ * Like the CompiledProgram compiler, it keeps the nodes it is working on on
+ * a stack of its own.
+ * <p>
+ * A robot run on its own thread by World.start sees its sensors change
+ * whenever the world updates, even while its program goes round a loop
+ * without acting, so that loop can end. Its programs are analyzed with
+ * stepped false, which takes every sensor to read what any turn could give
+ * wherever it is read: a condition is only found always or never true if it
+ * is whatever the sensors read, and a loop without actions is only a SPIN
+ * for stepped robots. The findings of the default analysis only hold for
+ * stepped robots and those that don't wait.
+ * <p>
+ * Fuel is counted as Robot.processFuel uses it: FUEL_MOVE for a move,
+ * FUEL_TURN for a turn, FUEL_IDLE for a wait, and FUEL_SHIELD more for any
+ * of them with the shield on. A takeFuel uses the same as a wait when it
+ * finds nothing, but nothing at all, shield or not, when it takes a barrel
+ * or siphons fuel, so it can use none. The fuel it gains isn't counted.
+ *
+ * <pre>
+ * java ProgramAnalyzer file...
+ * </pre>
+ */
+public class ProgramAnalyzer {
+
+	/** The most fuel a program that can act forever uses. */
+	public static final long UNBOUNDED = Long.MAX_VALUE;
+
+	public enum Kind {
+		/** A loop that never acts, so it never ends once it starts. */
+		SPIN,
+		/** A loop whose condition stays true, so it never ends. */
+		ENDLESS,
+		/** Statements that can never run. */
+		UNREACHABLE,
+		/** A condition of an if that is always true. */
+		ALWAYS_TRUE,
+		/** A sensor whose value is known where it is read. */
+		KNOWN_SENSOR
+	}
+
+	/** Something the analysis found out about one node of a program. */
+	public static final class Finding {
+		private final Kind kind;
+		private final Object node;
+		private final String message;
+
+		Finding(Kind kind, Object node, String message) {
+			this.kind = kind;
+			this.node = node;
+			this.message = message;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		/** @return the statement, condition or sensor node it is about */
+		public Object getNode() {
+			return node;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public String toString() {
+			return kind + ": " + message;
+		}
+	}
+
+	/** What the analysis found out about a whole program. */
+	public static final class Report {
+		private final boolean canFinish, canAct, canRefuel;
+		private final long minFuel, maxFuel;
+		private final List<Finding> findings;
+
+		Report(boolean canFinish, boolean canAct, boolean canRefuel, long minFuel, long maxFuel,
+				List<Finding> findings) {
+			this.canFinish = canFinish;
+			this.canAct = canAct;
+			this.canRefuel = canRefuel;
+			this.minFuel = minFuel;
+			this.maxFuel = maxFuel;
+			this.findings = Collections.unmodifiableList(findings);
+		}
+
+		/** @return whether any way through the program gets to its end */
+		public boolean canFinish() {
+			return canFinish;
+		}
+
+		/** @return whether the program can do any action at all */
+		public boolean canAct() {
+			return canAct;
+		}
+
+		/** @return whether the program can take fuel */
+		public boolean canRefuel() {
+			return canRefuel;
+		}
+
+		/**
+		 * @return the least fuel used on any way through the program that
+		 *         gets to its end, or 0 if none does
+		 */
+		public long getMinFuel() {
+			return minFuel;
+		}
+
+		/**
+		 * @return the most fuel used on any way through the program that gets
+		 *         to its end, or UNBOUNDED if a loop that acts can go round
+		 *         any number of times
+		 */
+		public long getMaxFuel() {
+			return maxFuel;
+		}
+
+		public List<Finding> getFindings() {
+			return findings;
+		}
+
+		/** @return whether any loop can spin without acting */
+		public boolean spins() {
+			for (Finding f : findings) {
+				if (f.kind == Kind.SPIN)
+					return true;
+			}
+			return false;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			if (canFinish) {
+				sb.append("fuel ").append(minFuel).append(" to ");
+				sb.append((maxFuel == UNBOUNDED) ? "unbounded" : Long.toString(maxFuel));
+			} else {
+				sb.append("never finishes");
+			}
+			if (!canAct)
+				sb.append(", never acts");
+			if (canRefuel)
+				sb.append(", can refuel");
+			for (Finding f : findings) {
+				sb.append('\n').append(f);
+			}
+			return sb.toString();
+		}
+	}
+
+	// slots in Facts: the CompiledProgram sensors, then the shield (0 off, 1 on)
+	private static final int SHIELD = 7, SLOTS = 8;
+
+	private static final String[] SENSOR_NAMES = { "fuelLeft", "oppLR", "oppFB", "numBarrels", "barrelLR",
+			"barrelFB", "wallDist" };
+
+	// how far away anything on the grid can be
+	private static final int FAR = World.SIZE - 1;
+
+	/**
+	 * What is known at some point in a program: the least and most each
+	 * sensor, and the shield, can be. A point that can't be reached has null
+	 * Facts rather than empty ranges.
+	 */
+	private static final class Facts {
+		final long[] lo = new long[SLOTS], hi = new long[SLOTS];
+
+		Facts copy() {
+			Facts f = new Facts();
+			System.arraycopy(lo, 0, f.lo, 0, SLOTS);
+			System.arraycopy(hi, 0, f.hi, 0, SLOTS);
+			return f;
+		}
+	}
+
+	/**
+	 * @return what any turn could give, with the shield as in the given facts
+	 */
+	private static Facts anyTurn(long shieldLo, long shieldHi) {
+		Facts f = new Facts();
+		set(f, CompiledProgram.FUEL_LEFT, Integer.MIN_VALUE, 100);
+		set(f, CompiledProgram.OPP_LR, -FAR, Robot.INFINITY);
+		set(f, CompiledProgram.OPP_FB, -FAR, Robot.INFINITY);
+		set(f, CompiledProgram.NUM_BARRELS, 0, World.SIZE * World.SIZE);
+		set(f, CompiledProgram.BARREL_LR, -FAR, Robot.INFINITY);
+		set(f, CompiledProgram.BARREL_FB, -FAR, Robot.INFINITY);
+		set(f, CompiledProgram.WALL_DIST, 0, FAR);
+		set(f, SHIELD, shieldLo, shieldHi);
+		return f;
+	}
+
+	private static void set(Facts f, int slot, long lo, long hi) {
+		f.lo[slot] = lo;
+		f.hi[slot] = hi;
+	}
+
+	/** @return what is known at a point reached from either a or b */
+	private static Facts join(Facts a, Facts b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		Facts f = new Facts();
+		for (int i = 0; i < SLOTS; i++) {
+			set(f, i, Math.min(a.lo[i], b.lo[i]), Math.max(a.hi[i], b.hi[i]));
+		}
+		return f;
+	}
+
+	/** @return what is known where both a and b hold */
+	private static Facts meet(Facts a, Facts b) {
+		if (a == null || b == null)
+			return null;
+		Facts f = new Facts();
+		for (int i = 0; i < SLOTS; i++) {
+			set(f, i, Math.max(a.lo[i], b.lo[i]), Math.min(a.hi[i], b.hi[i]));
+		}
+		return tighten(f);
+	}
+
+	/**
+	 * Narrows the barrel sensors by the number of barrels and the other way
+	 * round: with no barrels, barrelLR and barrelFB are INFINITY.
+	 *
+	 * @return the facts, or null if they can't all hold
+	 */
+	private static Facts tighten(Facts f) {
+		int n = CompiledProgram.NUM_BARRELS;
+		for (int s = CompiledProgram.BARREL_LR; s <= CompiledProgram.BARREL_FB; s++) {
+			if (f.hi[n] <= 0)
+				f.lo[s] = Math.max(f.lo[s], Robot.INFINITY);
+			else if (f.lo[n] >= 1)
+				f.hi[s] = Math.min(f.hi[s], FAR);
+			if (f.hi[s] < Robot.INFINITY)
+				f.lo[n] = Math.max(f.lo[n], 1);
+			else if (f.lo[s] >= Robot.INFINITY)
+				f.hi[n] = Math.min(f.hi[n], 0);
+		}
+		for (int i = 0; i < SLOTS; i++) {
+			if (f.lo[i] > f.hi[i])
+				return null;
+		}
+		return f;
+	}
+
+	/** @return the facts after an action: those of any turn */
+	private static Facts afterAction(Facts f) {
+		return anyTurn(f.lo[SHIELD], f.hi[SHIELD]);
+	}
+
+	/**
+	 * @return the facts at the start of a program: any turn, with the shield
+	 *         off
+	 */
+	private static Facts start() {
+		return anyTurn(0, 0);
+	}
+
+	/** @return a + b, or UNBOUNDED if either is */
+	private static long plus(long a, long b) {
+		if (a == UNBOUNDED || b == UNBOUNDED)
+			return UNBOUNDED;
+		long sum = a + b;
+		return (sum < 0) ? UNBOUNDED : sum;
+	}
+
+	// The analysis
+	// ------------
+
+	private static final class Frame {
+		Object node;
+		int state;
+		// the facts at the start of the node
+		Facts in;
+		// a block: the facts so far; an if: those after the first branch; a
+		// while: those if the loop is entered straight away
+		Facts facts;
+		// an if: those when the condition is false; a while: those when the
+		// condition is false on the way in, and at the top of the loop
+		Facts whenFalse, exit;
+		long min, max;
+		boolean acts;
+	}
+
+	private Frame[] stack = new Frame[32];
+	private int depth = 0;
+
+	// what the last node done finished with: the facts after it (null if it
+	// never finishes), the least and most fuel it uses if it does finish, and
+	// whether it can act
+	private Facts outFacts;
+	private long outMin, outMax;
+	private boolean outActs;
+
+	// what the last condition done gives when true and when false
+	private Facts whenTrue, whenFalse;
+
+	// the range of the last expression done
+	private long lo, hi;
+
+	// statements that have an action somewhere inside them
+	private final Set<Object> acting = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+	private final List<Finding> findings = new ArrayList<Finding>();
+	private boolean refuels;
+
+	// work space for conditions and expressions
+	private final ArrayList<Object> conditions = new ArrayList<Object>(), expressions = new ArrayList<Object>(),
+			pending = new ArrayList<Object>(), left = new ArrayList<Object>(), right = new ArrayList<Object>();
+	private long[] los = new long[32], his = new long[32];
+	private Facts[] trues = new Facts[32], falses = new Facts[32];
+
+	// whether the robot is stepped or doesn't wait, so its sensors only
+	// change when it acts
+	private final boolean stepped;
+
+	private ProgramAnalyzer(boolean stepped) {
+		this.stepped = stepped;
+	}
+
+	/**
+	 * @return what can be known about the program without running it, on a
+	 *         robot that is stepped or doesn't wait for the world
+	 */
+	public static Report analyze(RobotProgramNode program) {
+		return analyze(program, true);
+	}
+
+	/**
+	 * @param stepped
+	 *            whether the robot is stepped or doesn't wait for the world,
+	 *            rather than run on a thread of its own by World.start
+	 * @return what can be known about the program without running it
+	 */
+	public static Report analyze(RobotProgramNode program, boolean stepped) {
+		return new ProgramAnalyzer(stepped).run(program);
+	}
+
+	private Report run(RobotProgramNode program) {
+		findActions(program);
+		push(program, start());
+		while (depth > 0) {
+			Frame f = stack[depth - 1];
+			visit(f, f.node, f.state++);
+		}
+		boolean finishes = outFacts != null;
+		return new Report(finishes, outActs, refuels, finishes ? outMin : 0, finishes ? outMax : 0, findings);
+	}
+
+	private void push(Object node, Facts in) {
+		if (depth == stack.length)
+			stack = Arrays.copyOf(stack, depth * 2);
+		Frame f = stack[depth];
+		if (f == null)
+			f = stack[depth] = new Frame();
+		depth++;
+		f.node = node;
+		f.state = 0;
+		f.in = in;
+		f.facts = f.whenFalse = f.exit = null;
+	}
+
+	/** Pops the node being done, leaving what it finished with. */
+	private void finish(Facts facts, long min, long max, boolean acts) {
+		outFacts = facts;
+		outMin = min;
+		outMax = max;
+		outActs = acts;
+		Frame f = stack[--depth];
+		f.node = null;
+		f.in = f.facts = f.whenFalse = f.exit = null;
+	}
+
+	/** Leaves what a branch that is never taken finishes with. */
+	private void never() {
+		outFacts = null;
+		outMin = outMax = 0;
+		outActs = false;
+	}
+
+	private void finding(Kind kind, Object node, String message) {
+		findings.add(new Finding(kind, node, message));
+	}
+
+	/**
+	 * Does the next part of a statement: pushes a child, or, once the node is
+	 * all done, pops it.
+	 */
+	private void visit(Frame f, Object n, int state) {
+		if (n instanceof FusedNode) {
+			child(f, ((FusedNode) n).original(), state);
+		} else if (n instanceof ProgNode) {
+			sequence(f, ((ProgNode) n).children, state);
+		} else if (n instanceof BlockNode) {
+			sequence(f, ((BlockNode) n).children, state);
+		} else if (n instanceof LoopNode) {
+			child(f, ((LoopNode) n).block, state);
+		} else if (n instanceof StmtNode) {
+			child(f, ((StmtNode) n).child, state);
+		} else if (n instanceof ActNode) {
+			child(f, ((ActNode) n).child, state);
+		} else if (n instanceof MoveNode) {
+			repeat(f, ((MoveNode) n).num, Robot.FUEL_MOVE, 0);
+		} else if (n instanceof WaitNode) {
+			// wait(n) waits n + 1 times
+			WaitNode w = (WaitNode) n;
+			repeat(f, w.num, Robot.FUEL_IDLE, (w.num == null) ? 0 : 1);
+		} else if (n instanceof TurnLNode || n instanceof TurnRNode || n instanceof turnAroundNode) {
+			act(f, Robot.FUEL_TURN, 1, 1);
+		} else if (n instanceof TakeFuelNode) {
+			refuels = true;
+			act(f, 0, Robot.FUEL_IDLE + f.in.hi[SHIELD] * Robot.FUEL_SHIELD, 1, 1);
+		} else if (n instanceof shieldOnNode || n instanceof shieldOffNode) {
+			Facts after = f.in.copy();
+			int on = (n instanceof shieldOnNode) ? 1 : 0;
+			set(after, SHIELD, on, on);
+			finish(after, 0, 0, false);
+		} else if (n instanceof ifNode) {
+			ifNode i = (ifNode) n;
+			boolean hasElse = i.hasElse && i.elseBlock != null;
+			if (state == 0) {
+				condition(i.cond, f.in, true);
+				f.whenFalse = whenFalse;
+				if (whenTrue == null)
+					finding(Kind.UNREACHABLE, i.block, text(i.cond) + " is never true, so the if never runs");
+				else if (whenFalse == null && hasElse)
+					finding(Kind.UNREACHABLE, i.elseBlock, text(i.cond) + " is always true, so the else never runs");
+				else if (whenFalse == null)
+					finding(Kind.ALWAYS_TRUE, i.cond, text(i.cond) + " is always true");
+				if (whenTrue != null)
+					push(i.block, whenTrue);
+				else
+					never();
+			} else if (state == 1) {
+				f.facts = outFacts;
+				f.min = outMin;
+				f.max = outMax;
+				f.acts = outActs;
+				if (hasElse && f.whenFalse != null) {
+					push(i.elseBlock, f.whenFalse);
+				} else {
+					// no else is an else that does nothing
+					outFacts = f.whenFalse;
+					outMin = outMax = 0;
+					outActs = false;
+				}
+			} else {
+				either(f);
+			}
+		} else if (n instanceof whileNode) {
+			loop(f, (whileNode) n, state);
+		} else {
+			throw new IllegalArgumentException("Can't analyze " + n.getClass().getName());
+		}
+	}
+
+	private void child(Frame f, Object child, int state) {
+		if (state == 0)
+			push(child, f.in);
+		else
+			finish(outFacts, outMin, outMax, outActs);
+	}
+
+	private void sequence(Frame f, List<RobotProgramNode> children, int state) {
+		if (state == 0) {
+			f.facts = f.in;
+			f.min = f.max = 0;
+			f.acts = false;
+		} else {
+			f.facts = outFacts;
+			f.min = plus(f.min, outMin);
+			f.max = plus(f.max, outMax);
+			f.acts |= outActs;
+		}
+		if (state < children.size() && f.facts != null) {
+			push(children.get(state), f.facts);
+		} else {
+			if (state < children.size())
+				finding(Kind.UNREACHABLE, children.get(state),
+						"what comes before never finishes, so the rest of the block never runs");
+			finish(f.facts, f.min, f.max, f.acts);
+		}
+	}
+
+	/**
+	 * Finishes an if, from the first branch in the frame and the second just
+	 * done.
+	 */
+	private void either(Frame f) {
+		boolean acts = f.acts || outActs;
+		if (f.facts == null) {
+			finish(outFacts, outMin, outMax, acts);
+		} else if (outFacts == null) {
+			finish(f.facts, f.min, f.max, acts);
+		} else {
+			finish(join(f.facts, outFacts), Math.min(f.min, outMin), Math.max(f.max, outMax), acts);
+		}
+	}
+
+	/**
+	 * A loop that can act is entered from what any turn could give, since
+	 * the condition is checked again after its body acts; one that can't act
+	 * never sees the sensors change if the robot is stepped, so goes round
+	 * for ever once it starts.
+	 */
+	private void loop(Frame f, whileNode w, int state) {
+		if (state == 0) {
+			condition(w.cond, f.in, false);
+			f.facts = whenTrue;
+			f.whenFalse = whenFalse;
+			Facts top = (acting.contains(w.block) || !stepped) ? join(f.in, anyTurn(0, 1)) : f.in;
+			condition(w.cond, top, true);
+			f.exit = whenFalse;
+			if (whenTrue == null) {
+				finding(Kind.UNREACHABLE, w.block, text(w.cond) + " is never true, so the while never runs");
+				never();
+			} else {
+				push(w.block, whenTrue);
+			}
+		} else if (!outActs && stepped) {
+			if (f.facts != null)
+				finding(Kind.SPIN, w, "the while never acts, so once it starts it never ends");
+			finish(f.whenFalse, 0, 0, false);
+		} else if (outFacts == null) {
+			// the body never gets back to the top
+			finish(f.whenFalse, 0, 0, outActs);
+		} else {
+			if (f.exit == null)
+				finding(Kind.ENDLESS, w, text(w.cond) + " is always true, so the while never ends");
+			finish(f.exit, (f.whenFalse != null) ? 0 : outMin, outActs ? UNBOUNDED : 0, outActs);
+		}
+	}
+
+	/**
+	 * An action that is done count times, or once if count is null, and
+	 * extra times more. Like MoveNode and WaitNode, the count is evaluated
+	 * again before each action, after which the sensors can read anything.
+	 */
+	private void repeat(Frame f, RobotSensorNode count, int fuel, int extra) {
+		if (count == null) {
+			act(f, fuel, 1 + extra, 1 + extra);
+			return;
+		}
+		range(count, f.in, true);
+		long firstLo = lo, firstHi = hi;
+		range(count, afterAction(f.in), false);
+		long least = (firstLo > 0) ? Math.max(1, lo) : 0;
+		long most = (firstHi > 0) ? Math.max(1, hi) : 0;
+		act(f, fuel, least + extra, most + extra);
+	}
+
+	private void act(Frame f, int fuel, long least, long most) {
+		Facts in = f.in;
+		act(f, fuel + in.lo[SHIELD] * Robot.FUEL_SHIELD, fuel + in.hi[SHIELD] * Robot.FUEL_SHIELD, least, most);
+	}
+
+	/**
+	 * An action that is done between least and most times, each time using
+	 * between leastFuel and mostFuel.
+	 */
+	private void act(Frame f, long leastFuel, long mostFuel, long least, long most) {
+		Facts in = f.in;
+		Facts after = (most == 0) ? in : (least == 0) ? join(in, afterAction(in)) : afterAction(in);
+		finish(after, least * leastFuel, most * mostFuel, most > 0);
+	}
+
+	// Conditions
+	// ----------
+
+	/**
+	 * Works out the facts when a condition is true and when it is false,
+	 * leaving them in whenTrue and whenFalse. The two sides of an and or an
+	 * or are each worked out from the facts before the condition.
+	 *
+	 * @param record
+	 *            whether to record findings about the sensors it reads
+	 */
+	private void condition(RobotConditionNode cond, Facts facts, boolean record) {
+		prefix(cond, conditions);
+		int top = 0;
+		for (int k = conditions.size() - 1; k >= 0; k--) {
+			Object n = conditions.get(k);
+			Facts t, fl;
+			if (n instanceof andNode) {
+				top--;
+				t = meet(trues[top], trues[top - 1]);
+				fl = join(falses[top], falses[top - 1]);
+				top--;
+			} else if (n instanceof orNode) {
+				top--;
+				t = join(trues[top], trues[top - 1]);
+				fl = meet(falses[top], falses[top - 1]);
+				top--;
+			} else if (n instanceof notNode) {
+				top--;
+				t = falses[top];
+				fl = trues[top];
+			} else if (n instanceof condNode) {
+				compare((condNode) n, facts, record);
+				t = whenTrue;
+				fl = whenFalse;
+			} else {
+				throw new IllegalArgumentException("Can't analyze " + n.getClass().getName());
+			}
+			if (top == trues.length) {
+				trues = Arrays.copyOf(trues, top * 2);
+				falses = Arrays.copyOf(falses, top * 2);
+			}
+			trues[top] = t;
+			falses[top] = fl;
+			top++;
+		}
+		whenTrue = trues[0];
+		whenFalse = falses[0];
+		trues[0] = falses[0] = null;
+	}
+
+	private void compare(condNode c, Facts facts, boolean record) {
+		if (stepped) {
+			narrow(c, facts, record);
+			return;
+		}
+		// the sensors can read anything here, and what they read here says
+		// nothing about what they read anywhere else
+		narrow(c, afterAction(facts), record);
+		whenTrue = (whenTrue != null) ? facts : null;
+		whenFalse = (whenFalse != null) ? facts : null;
+	}
+
+	private void narrow(condNode c, Facts facts, boolean record) {
+		String relop = c.relop.toString();
+		range(c.expOne, facts, record);
+		long aLo = lo, aHi = hi;
+		range(c.expTwo, facts, record);
+		long bLo = lo, bHi = hi;
+		int a = ProgramWalk.sensor(c.expOne), b = ProgramWalk.sensor(c.expTwo);
+
+		if (same(c.expOne, c.expTwo)) {
+			// anything is equal to itself, whatever it reads
+			whenTrue = relop.equals("eq") ? facts : null;
+			whenFalse = relop.equals("eq") ? null : facts;
+		} else if (relop.equals("lt")) {
+			whenTrue = less(facts, aLo, aHi, a, bLo, bHi, b, false);
+			whenFalse = less(facts, bLo, bHi, b, aLo, aHi, a, true);
+		} else if (relop.equals("gt")) {
+			whenTrue = less(facts, bLo, bHi, b, aLo, aHi, a, false);
+			whenFalse = less(facts, aLo, aHi, a, bLo, bHi, b, true);
+		} else {
+			whenTrue = equal(facts, aLo, aHi, a, bLo, bHi, b);
+			whenFalse = notEqual(facts, aLo, aHi, a, bLo, bHi, b);
+		}
+	}
+
+	/**
+	 * @return the facts narrowed so that x is less than y, or no more than y
+	 *         if orEqual is set, where x and y have the given ranges and are
+	 *         the sensor in the given slot, or -1 if they aren't a sensor
+	 */
+	private static Facts less(Facts facts, long xLo, long xHi, int x, long yLo, long yHi, int y,
+			boolean orEqual) {
+		long gap = orEqual ? 0 : 1;
+		if (xLo + gap > yHi)
+			return null;
+		Facts f = facts.copy();
+		if (x >= 0)
+			f.hi[x] = Math.min(f.hi[x], yHi - gap);
+		if (y >= 0)
+			f.lo[y] = Math.max(f.lo[y], xLo + gap);
+		return tighten(f);
+	}
+
+	private static Facts equal(Facts facts, long xLo, long xHi, int x, long yLo, long yHi, int y) {
+		long l = Math.max(xLo, yLo), h = Math.min(xHi, yHi);
+		if (l > h)
+			return null;
+		Facts f = facts.copy();
+		if (x >= 0)
+			set(f, x, l, h);
+		if (y >= 0)
+			set(f, y, l, h);
+		return tighten(f);
+	}
+
+	private static Facts notEqual(Facts facts, long xLo, long xHi, int x, long yLo, long yHi, int y) {
+		if (xLo == xHi && yLo == yHi && xLo == yLo)
+			return null;
+		Facts f = facts.copy();
+		if (x >= 0 && yLo == yHi)
+			avoid(f, x, yLo);
+		if (y >= 0 && xLo == xHi)
+			avoid(f, y, xLo);
+		return tighten(f);
+	}
+
+	/** Narrows a slot's range so it can't be v, where v is at one end. */
+	private static void avoid(Facts f, int slot, long v) {
+		if (f.lo[slot] == v)
+			f.lo[slot]++;
+		else if (f.hi[slot] == v)
+			f.hi[slot]--;
+	}
+
+	/** Puts the condition or expression nodes in prefix order. */
+	private void prefix(Object root, List<Object> order) {
+		order.clear();
+		pending.add(root);
+		while (!pending.isEmpty()) {
+			Object n = pending.remove(pending.size() - 1);
+			while (n instanceof FusedNode) {
+				n = ((FusedNode) n).original();
+			}
+			order.add(n);
+			Object one = null, two = null;
+			if (n instanceof andNode) {
+				one = ((andNode) n).conditionOne;
+				two = ((andNode) n).conditionTwo;
+			} else if (n instanceof orNode) {
+				one = ((orNode) n).conditionOne;
+				two = ((orNode) n).conditionTwo;
+			} else if (n instanceof notNode) {
+				one = ((notNode) n).condition;
+			} else if (n instanceof addNode) {
+				one = ((addNode) n).conditionOne;
+				two = ((addNode) n).conditionTwo;
+			} else if (n instanceof subNode) {
+				one = ((subNode) n).conditionOne;
+				two = ((subNode) n).conditionTwo;
+			} else if (n instanceof mulNode) {
+				one = ((mulNode) n).conditionOne;
+				two = ((mulNode) n).conditionTwo;
+			} else if (n instanceof divNode) {
+				one = ((divNode) n).conditionOne;
+				two = ((divNode) n).conditionTwo;
+			}
+			if (two != null)
+				pending.add(two);
+			if (one != null)
+				pending.add(one);
+		}
+	}
+
+	// Expressions
+	// -----------
+
+	/**
+	 * Works out the range of values an expression can have, leaving it in lo
+	 * and hi. Sums and products that can overflow can be any int.
+	 *
+	 * @param record
+	 *            whether to record findings about the sensors it reads
+	 */
+	private void range(RobotSensorNode exp, Facts facts, boolean record) {
+		prefix(exp, expressions);
+		int top = 0;
+		for (int k = expressions.size() - 1; k >= 0; k--) {
+			Object n = expressions.get(k);
+			long l, h;
+			int s = ProgramWalk.sensor(n);
+			if (s >= 0) {
+				l = facts.lo[s];
+				h = facts.hi[s];
+				if (record && l == h)
+					finding(Kind.KNOWN_SENSOR, n,
+							SENSOR_NAMES[s] + " is always " + ((l == Robot.INFINITY) ? "INFINITY" : l) + " here");
+			} else if (n instanceof numNode) {
+				l = h = ((numNode) n).num;
+			} else {
+				// the first operand is on top
+				top -= 2;
+				long aLo = los[top + 1], aHi = his[top + 1], bLo = los[top], bHi = his[top];
+				if (n instanceof addNode) {
+					l = aLo + bLo;
+					h = aHi + bHi;
+				} else if (n instanceof subNode) {
+					l = aLo - bHi;
+					h = aHi - bLo;
+				} else if (n instanceof mulNode) {
+					long p = aLo * bLo, q = aLo * bHi, r = aHi * bLo, t = aHi * bHi;
+					l = Math.min(Math.min(p, q), Math.min(r, t));
+					h = Math.max(Math.max(p, q), Math.max(r, t));
+				} else if (n instanceof divNode) {
+					l = Long.MAX_VALUE;
+					h = Long.MIN_VALUE;
+					// dividing by 0 throws, so only the non-zero divisors count
+					for (int side = 0; side < 2; side++) {
+						long dLo = (side == 0) ? bLo : Math.max(bLo, 1), dHi = (side == 0) ? Math.min(bHi, -1) : bHi;
+						if (dLo > dHi)
+							continue;
+						long p = aLo / dLo, q = aLo / dHi, r = aHi / dLo, t = aHi / dHi;
+						l = Math.min(l, Math.min(Math.min(p, q), Math.min(r, t)));
+						h = Math.max(h, Math.max(Math.max(p, q), Math.max(r, t)));
+					}
+					if (l > h)
+						l = h = 0; // always divides by 0
+				} else {
+					throw new IllegalArgumentException("Can't analyze " + n.getClass().getName());
+				}
+				if (l < Integer.MIN_VALUE || h > Integer.MAX_VALUE) {
+					l = Integer.MIN_VALUE;
+					h = Integer.MAX_VALUE;
+				}
+			}
+			if (top == los.length) {
+				los = Arrays.copyOf(los, top * 2);
+				his = Arrays.copyOf(his, top * 2);
+			}
+			los[top] = l;
+			his[top] = h;
+			top++;
+		}
+		lo = los[0];
+		hi = his[0];
+	}
+
+	/**
+	 * @return whether two expressions are the same, so always have the same
+	 *         value. Each expression is compared at most once, as part of
+	 *         the one comparison it is in.
+	 */
+	private boolean same(Object a, Object b) {
+		left.clear();
+		right.clear();
+		left.add(a);
+		right.add(b);
+		while (!left.isEmpty()) {
+			Object x = left.remove(left.size() - 1), y = right.remove(right.size() - 1);
+			if (x.getClass() != y.getClass())
+				return false;
+			if (x instanceof numNode) {
+				if (((numNode) x).num != ((numNode) y).num)
+					return false;
+			} else if (ProgramWalk.sensor(x) < 0) {
+				left.add(operand(x, true));
+				left.add(operand(x, false));
+				right.add(operand(y, true));
+				right.add(operand(y, false));
+			}
+		}
+		return true;
+	}
+
+	private static RobotSensorNode operand(Object n, boolean first) {
+		if (n instanceof addNode)
+			return first ? ((addNode) n).conditionOne : ((addNode) n).conditionTwo;
+		if (n instanceof subNode)
+			return first ? ((subNode) n).conditionOne : ((subNode) n).conditionTwo;
+		if (n instanceof mulNode)
+			return first ? ((mulNode) n).conditionOne : ((mulNode) n).conditionTwo;
+		if (n instanceof divNode)
+			return first ? ((divNode) n).conditionOne : ((divNode) n).conditionTwo;
+		throw new IllegalArgumentException("Can't analyze " + n.getClass().getName());
+	}
+
+	// Actions
+	// -------
+
+	/**
+	 * Finds the statements with an action somewhere inside them, going
+	 * through the statements in prefix order and then back again, so each
+	 * is marked after everything inside it.
+	 */
+	private void findActions(RobotProgramNode program) {
+		List<Object> statements = new ArrayList<Object>();
+		pending.add(program);
+		while (!pending.isEmpty()) {
+			Object n = pending.remove(pending.size() - 1);
+			statements.add(n);
+			for (Object c : ProgramWalk.statementsIn(n)) {
+				pending.add(c);
+			}
+		}
+		for (int k = statements.size() - 1; k >= 0; k--) {
+			Object n = statements.get(k);
+			boolean acts = n instanceof MoveNode || n instanceof WaitNode || n instanceof TurnLNode
+					|| n instanceof TurnRNode || n instanceof turnAroundNode || n instanceof TakeFuelNode;
+			for (Object c : ProgramWalk.statementsIn(n)) {
+				acts |= acting.contains(c);
+			}
+			if (acts)
+				acting.add(n);
+		}
+	}
+
+	private static String text(RobotConditionNode cond) {
+		return ProgramPrinter.conditionToString(cond);
+	}
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: ProgramAnalyzer file...");
+			return;
+		}
+		for (String arg : args) {
+			RobotProgramNode prog = Parser.parseFile(new File(arg));
+			if (prog == null)
+				continue;
+			System.out.println(arg + ": " + analyze(prog));
+		}
+	}
+}
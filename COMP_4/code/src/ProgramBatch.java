@@ -0,0 +1,299 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses a whole collection of programs at once, in parallel, and reports
+ * which are valid: either every .prog file in a directory, or every program
+ * in an archive.
+ * <p>
+ * An archive is the programs one after another, each starting with a
+ * header line "%% name". Anything before the first header is ignored.
+ * <p>
+ * The report has a line per program, tab separated: the name, then "ok",
+ * the parse time in microseconds and the number of nodes, or "error", the
+ * parse time, the offset in the file or archive where parsing failed, and
+ * the message.
+ * <p>
+ * With -all, parsing carries on past errors, and every error in a program
+ * gets a line of its own, with its line and column in the message.
+ *
+ * <pre>
+ * java ProgramBatch &lt;directory | archive&gt; [-all] [-bundle file] [-threads n]
+ * java ProgramBatch -pack &lt;directory&gt; &lt;archive&gt;
+ * </pre>
+ */
+public class ProgramBatch {
+
+	static final String HEADER = "%%";
+
+	// programs per task before a task is split
+	private static final int TASK_SIZE = 8;
+
+	/** A program in the batch, and what happened when it was parsed. */
+	static final class Entry {
+		final String name;
+		final File file;
+		final ByteBuffer source;
+		final int offset;
+
+		RobotProgramNode program;
+		String error;
+		// every error, if parsed with recovery
+		List<ParseError> errors;
+		int errorOffset = -1, nodes;
+		long nanos;
+		byte[] encoded;
+
+		Entry(String name, File file, ByteBuffer source, int offset) {
+			this.name = name;
+			this.file = file;
+			this.source = source;
+			this.offset = offset;
+		}
+
+		boolean ok() {
+			return program != null && (errors == null || errors.isEmpty());
+		}
+	}
+
+	private final List<Entry> entries;
+
+	private ProgramBatch(List<Entry> entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * @return a batch of the .prog files in the directory, in name order
+	 */
+	public static ProgramBatch fromDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			files = new File[0];
+		Arrays.sort(files);
+		List<Entry> entries = new ArrayList<Entry>();
+		for (File f : files) {
+			if (f.isFile() && f.getName().endsWith(".prog"))
+				entries.add(new Entry(f.getName(), f, null, 0));
+		}
+		return new ProgramBatch(entries);
+	}
+
+	/**
+	 * @return a batch of the programs in the archive, which is mapped into
+	 *         memory rather than read
+	 */
+	public static ProgramBatch fromArchive(File archive) throws IOException {
+		ByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		List<Entry> entries = new ArrayList<Entry>();
+		int limit = buf.limit();
+		String name = null;
+		int start = 0;
+		for (int p = 0; p < limit;) {
+			int eol = p;
+			while (eol < limit && buf.get(eol) != '\n')
+				eol++;
+			if (eol - p >= 2 && buf.get(p) == '%' && buf.get(p + 1) == '%') {
+				if (name != null)
+					entries.add(new Entry(name, null, slice(buf, start, p), start));
+				name = ascii(buf, p + HEADER.length(), eol).trim();
+				start = Math.min(eol + 1, limit);
+			}
+			p = eol + 1;
+		}
+		if (name != null)
+			entries.add(new Entry(name, null, slice(buf, start, limit), start));
+		return new ProgramBatch(entries);
+	}
+
+	private static ByteBuffer slice(ByteBuffer buf, int start, int end) {
+		ByteBuffer b = buf.duplicate();
+		b.limit(end).position(start);
+		return b;
+	}
+
+	private static String ascii(ByteBuffer buf, int start, int end) {
+		byte[] b = new byte[end - start];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = buf.get(start + i);
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the .prog files in a directory into one archive.
+	 */
+	public static void pack(File dir, File archive) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(archive))) {
+			for (Entry e : fromDirectory(dir).entries) {
+				out.write((HEADER + " " + e.name + "\n").getBytes(StandardCharsets.UTF_8));
+				byte[] src = Files.readAllBytes(e.file.toPath());
+				out.write(src);
+				if (src.length > 0 && src[src.length - 1] != '\n')
+					out.write('\n');
+			}
+		}
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	// Parsing
+	// -------
+
+	/**
+	 * Parses every program on the pool, counting the nodes of those that
+	 * parse, and encoding them with AstCodec too if encode is set.
+	 */
+	public void parse(ForkJoinPool pool, boolean encode) {
+		parse(pool, encode, false);
+	}
+
+	/**
+	 * Parses every program on the pool, like parse(ForkJoinPool, boolean),
+	 * and if recover is set, carries on past errors to find them all.
+	 */
+	public void parse(ForkJoinPool pool, boolean encode, boolean recover) {
+		pool.invoke(new ParseTask(0, entries.size(), encode, recover));
+	}
+
+	@SuppressWarnings("serial")
+	private class ParseTask extends RecursiveAction {
+		private final int from, to;
+		private final boolean encode, recover;
+
+		ParseTask(int from, int to, boolean encode, boolean recover) {
+			this.from = from;
+			this.to = to;
+			this.encode = encode;
+			this.recover = recover;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= TASK_SIZE) {
+				for (int i = from; i < to; i++) {
+					parse(entries.get(i), encode, recover);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ParseTask(from, mid, encode, recover), new ParseTask(mid, to, encode, recover));
+			}
+		}
+	}
+
+	private static void parse(Entry e, boolean encode, boolean recover) {
+		long start = System.nanoTime();
+		if (recover)
+			e.errors = new ArrayList<ParseError>();
+		try {
+			e.program = (e.file != null) ? Parser.parseChannel(e.file, e.errors) : Parser.parseBuffer(e.source, e.errors);
+		} catch (ParserFailureException ex) {
+			e.error = ex.getMessage();
+			if (ex.getOffset() >= 0)
+				e.errorOffset = e.offset + ex.getOffset();
+		} catch (IOException ex) {
+			e.error = "Can't read: " + ex.getMessage();
+		}
+		e.nanos = System.nanoTime() - start;
+		if (e.ok()) {
+			e.nodes = AstCodec.countNodes(e.program);
+			if (encode)
+				e.encoded = AstCodec.encode(e.program);
+		}
+	}
+
+	// Output
+	// ------
+
+	public void report(PrintStream out) {
+		int ok = 0, errors = 0;
+		for (Entry e : entries) {
+			long micros = e.nanos / 1000;
+			if (e.ok()) {
+				ok++;
+				out.println(e.name + "\tok\t" + micros + "\t" + e.nodes);
+			} else if (e.error == null && e.errors != null) {
+				for (ParseError pe : e.errors) {
+					out.println(e.name + "\terror\t" + micros + "\t" + (e.offset + pe.getOffset()) + "\t" + pe);
+				}
+				errors += e.errors.size();
+			} else {
+				out.println(e.name + "\terror\t" + micros + "\t" + e.errorOffset + "\t"
+						+ e.error.replaceAll("\\s*\n\\s*", " "));
+				errors++;
+			}
+		}
+		out.println("# " + entries.size() + " programs, " + ok + " ok, " + (entries.size() - ok) + " with errors, "
+				+ errors + " errors in all");
+	}
+
+	/**
+	 * Writes the programs that parsed to an AstCodec bundle. parse must have
+	 * been called with encode set.
+	 */
+	public void writeBundle(File file) throws IOException {
+		Map<String, byte[]> programs = new LinkedHashMap<String, byte[]>();
+		for (Entry e : entries) {
+			if (e.encoded != null)
+				programs.put(e.name, e.encoded);
+		}
+		AstCodec.writeBundle(file, programs);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 3 && args[0].equals("-pack")) {
+			pack(new File(args[1]), new File(args[2]));
+			return;
+		}
+		if (args.length == 0) {
+			System.out.println("Usage: ProgramBatch <directory | archive> [-all] [-bundle file] [-threads n]");
+			System.out.println("       ProgramBatch -pack <directory> <archive>");
+			return;
+		}
+		File input = new File(args[0]), bundle = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean recover = false;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-all"))
+				recover = true;
+			else if (args[i].equals("-bundle") && i + 1 < args.length)
+				bundle = new File(args[++i]);
+			else if (args[i].equals("-threads") && i + 1 < args.length)
+				threads = Integer.parseInt(args[++i]);
+		}
+
+		ProgramBatch batch = input.isDirectory() ? fromDirectory(input) : fromArchive(input);
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			batch.parse(pool, bundle != null, recover);
+		} finally {
+			pool.shutdown();
+		}
+		long time = System.nanoTime() - start;
+		batch.report(System.out);
+		System.out.printf("# parsed in %.1f ms on %d threads%n", time / 1e6, threads);
+		if (bundle != null)
+			batch.writeBundle(bundle);
+	}
+}
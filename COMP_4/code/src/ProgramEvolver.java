@@ -0,0 +1,606 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evolves robot programs by genetic programming. Each generation's programs
+ * play seeded matches, stepped on the calling threads of a ForkJoinPool,
+ * against a pool of opponents that always includes the robots' default
+ * program, and the next generation is bred from the winners by tournament:
+ * <ul>
+ * <li>crossover replaces a node of one parent, and everything under it,
+ * with a node of the same kind from the other: a statement for a
+ * statement, a block for a block, a condition for a condition, and an
+ * expression for an expression;</li>
+ * <li>mutation either does the same with a new program from the
+ * ProgramGenerator as the other parent, or swaps one node for another of
+ * the same kind with the same children, like lt for gt or move for turnL,
+ * or changes a number.</li>
+ * </ul>
+ * Both work on programs as AstCodec writes them, splicing the bytes of one
+ * node into another's place, so every child is a program the Parser
+ * accepts, and a generation is kept as one array of bytes rather than as
+ * nodes (see Generation). Programs the ProgramAnalyzer finds can never act
+ * score nothing without playing, and programs that spin lose on their
+ * budget. The best programs of the last generation are printed to .prog
+ * files, each checked to parse back to the same program.
+ * <p>
+ * Matches can be played through a MatchCache, so programs bred again, such
+ * as elites and children the same as a parent, and programs that optimize
+ * to the same program, don't play the matches they have played already, and
+ * a run started again with the same seed and a cache file plays nothing it
+ * played the last time.
+ *
+ * <pre>
+ * java ProgramEvolver [-generations n] [-population n] [-seeds n] [-seed n] [-threads n]
+ *                     [-opponents directory] [-out directory] [-keep n] [-cache file]
+ * </pre>
+ */
+public class ProgramEvolver {
+
+	// what a node is, for finding nodes that can take its place
+	private static final int ROOT = 0, STATEMENT = 1, BLOCK = 2, CONDITION = 3, EXPRESSION = 4;
+
+	// opcodes that can take each other's place, having the same kind and
+	// the same children
+	private static final int[][] SWAPS = {
+			{ AstCodec.MOVE, AstCodec.TURN_L, AstCodec.TURN_R, AstCodec.TURN_AROUND, AstCodec.TAKE_FUEL, AstCodec.WAIT,
+					AstCodec.SHIELD_ON, AstCodec.SHIELD_OFF },
+			{ AstCodec.MOVE_N, AstCodec.WAIT_N }, { AstCodec.IF, AstCodec.WHILE },
+			{ AstCodec.LT, AstCodec.GT, AstCodec.EQ }, { AstCodec.AND, AstCodec.OR },
+			{ AstCodec.ADD, AstCodec.SUB, AstCodec.MUL, AstCodec.DIV },
+			{ AstCodec.FUEL_LEFT, AstCodec.OPP_LR, AstCodec.OPP_FB, AstCodec.NUM_BARRELS, AstCodec.BARREL_LR,
+					AstCodec.BARREL_FB, AstCodec.WALL_DIST } };
+
+	// programs per task before a task is split; matches take a while
+	private static final int TASK_SIZE = 2;
+
+	private final Random rand;
+	private final ProgramGenerator generator;
+	private final List<RobotProgramNode> opponents;
+	private final long[] opponentHashes;
+	private final ForkJoinPool pool;
+	private MatchCache cache;
+
+	private int populationSize = 100, tournament = 4, elites = 2, maxNodes = 300, seeds = 3, maxTicks = 500,
+			budget = 10000;
+	private double crossoverChance = 0.7;
+
+	/**
+	 * @param seed
+	 *            the same seed, settings and opponents always evolve the same
+	 *            programs, however many threads the pool has
+	 * @param opponents
+	 *            what to play against, as well as the default program
+	 */
+	public ProgramEvolver(long seed, List<RobotProgramNode> opponents, ForkJoinPool pool) {
+		this.rand = new Random(seed);
+		this.generator = new ProgramGenerator(rand.nextLong()).setMaxDepth(3).setBranching(3);
+		this.opponents = new ArrayList<RobotProgramNode>();
+		this.opponents.add(Robot.getDefaultProgram());
+		this.opponents.addAll(opponents);
+		this.opponentHashes = new long[this.opponents.size()];
+		for (int i = 0; i < opponentHashes.length; i++) {
+			opponentHashes[i] = MatchCache.hash(this.opponents.get(i));
+		}
+		this.pool = pool;
+	}
+
+	/** How many programs each generation has. */
+	public ProgramEvolver setPopulationSize(int populationSize) {
+		this.populationSize = Math.max(2, populationSize);
+		return this;
+	}
+
+	/** How many seeds each program plays each opponent on, from each side. */
+	public ProgramEvolver setSeeds(int seeds) {
+		this.seeds = Math.max(1, seeds);
+		return this;
+	}
+
+	/** The most nodes a program can have; bigger children aren't bred. */
+	public ProgramEvolver setMaxNodes(int maxNodes) {
+		this.maxNodes = maxNodes;
+		return this;
+	}
+
+	/** How many updates a match can last. */
+	public ProgramEvolver setMaxTicks(int maxTicks) {
+		this.maxTicks = maxTicks;
+		return this;
+	}
+
+	/**
+	 * How many times a program can go round its loops between actions
+	 * before it loses (see Robot.setBudget).
+	 */
+	public ProgramEvolver setBudget(int budget) {
+		this.budget = budget;
+		return this;
+	}
+
+	/** Where to look up and keep match results, or null to play them all. */
+	public ProgramEvolver setCache(MatchCache cache) {
+		this.cache = cache;
+		return this;
+	}
+
+	/**
+	 * Evolves a population from random programs.
+	 *
+	 * @param log
+	 *            where to print how each generation did, or null
+	 * @return the last generation, with its fitness
+	 */
+	public Generation evolve(int generations, PrintStream log) {
+		Generation g = initial();
+		for (int gen = 0;; gen++) {
+			long start = System.nanoTime();
+			evaluate(g, gen);
+			if (log != null) {
+				int best = g.best();
+				log.printf("generation %d: best %.3f, mean %.3f, %.1f nodes a program, %d bytes, %.0f ms%n", gen,
+						g.fitness[best], g.meanFitness(), g.meanNodes(), g.bytes(), (System.nanoTime() - start) / 1e6);
+			}
+			if (gen == generations)
+				return g;
+			g = breed(g);
+		}
+	}
+
+	private Generation initial() {
+		Generation g = new Generation();
+		while (g.size() < populationSize) {
+			RobotProgramNode p = Parser.parseString(generator.generateStatements(1 + rand.nextInt(4)));
+			byte[] code = AstCodec.encode(p);
+			if (new Layout(code).n <= maxNodes)
+				g.add(code);
+		}
+		return g;
+	}
+
+	private Generation breed(Generation parents) {
+		Generation next = new Generation();
+		Integer[] ranked = parents.ranked();
+		for (int i = 0; i < elites && i < ranked.length; i++) {
+			next.add(parents.get(ranked[i]));
+		}
+		while (next.size() < populationSize) {
+			byte[] parent = parents.get(select(parents)), child;
+			if (rand.nextDouble() < crossoverChance)
+				child = crossover(parent, parents.get(select(parents)));
+			else if (rand.nextBoolean())
+				child = crossover(parent, AstCodec.encode(Parser.parseString(generator.generateStatements(1))));
+			else
+				child = pointMutation(parent);
+			next.add((child != null && new Layout(child).n <= maxNodes) ? child : parent);
+		}
+		return next;
+	}
+
+	/** @return the best of a few programs picked at random */
+	private int select(Generation g) {
+		int best = rand.nextInt(g.size());
+		for (int i = 1; i < tournament; i++) {
+			int other = rand.nextInt(g.size());
+			if (g.fitness[other] > g.fitness[best])
+				best = other;
+		}
+		return best;
+	}
+
+	// Breeding
+	// --------
+
+	/**
+	 * @return a with a node other than its root, and everything under it,
+	 *         replaced by a node of the same kind from b, or null if b has
+	 *         none
+	 */
+	private byte[] crossover(byte[] a, byte[] b) {
+		Layout la = new Layout(a), lb = new Layout(b);
+		if (la.n < 2)
+			return null;
+		int i = 1 + rand.nextInt(la.n - 1);
+		int kind = la.kind[i];
+		int matches = 0, j = -1;
+		for (int k = 1; k < lb.n; k++) {
+			// pick one of those of the kind, each as likely
+			if (lb.kind[k] == kind && rand.nextInt(++matches) == 0)
+				j = k;
+		}
+		if (j < 0)
+			return null;
+		return splice(a, la.start[i], la.end[i], b, lb.start[j], lb.end[j]);
+	}
+
+	/**
+	 * @return the program with one of its nodes swapped for another of the
+	 *         same kind with the same children, or a number changed
+	 */
+	private byte[] pointMutation(byte[] code) {
+		Layout l = new Layout(code);
+		if (l.n < 2)
+			return null;
+		int i = 1 + rand.nextInt(l.n - 1), at = l.start[i];
+		int op = code[at];
+		if (op == AstCodec.NUM) {
+			int old = VarInt.readSigned(ByteBuffer.wrap(code, at + 1, code.length - at - 1));
+			int value = rand.nextBoolean() ? old + rand.nextInt(5) - 2 : rand.nextInt(25) - 12;
+			ByteArrayOutputStream num = new ByteArrayOutputStream();
+			num.write(AstCodec.NUM);
+			try {
+				VarInt.writeSigned(num, value);
+			} catch (IOException e) {
+				throw new AssertionError(e); // can't happen writing to memory
+			}
+			byte[] b = num.toByteArray();
+			return splice(code, at, l.end[i], b, 0, b.length);
+		}
+		for (int[] swaps : SWAPS) {
+			for (int s : swaps) {
+				if (s == op) {
+					byte[] child = code.clone();
+					child[at] = (byte) swaps[rand.nextInt(swaps.length)];
+					return child;
+				}
+			}
+		}
+		// a program, block or if with an else: nothing to swap with
+		return null;
+	}
+
+	/** @return a with a[aFrom, aTo) replaced by b[bFrom, bTo) */
+	private static byte[] splice(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo) {
+		byte[] child = new byte[a.length - (aTo - aFrom) + (bTo - bFrom)];
+		System.arraycopy(a, 0, child, 0, aFrom);
+		System.arraycopy(b, bFrom, child, aFrom, bTo - bFrom);
+		System.arraycopy(a, aTo, child, aFrom + bTo - bFrom, a.length - aTo);
+		return child;
+	}
+
+	/**
+	 * Where each node of an encoded program starts and ends, and what kind
+	 * of node it is, in prefix order, so the root is node 0. Found in one
+	 * pass, keeping the nodes still waiting for children on a stack.
+	 */
+	static final class Layout {
+		int n;
+		int[] start, end;
+		byte[] kind;
+
+		Layout(byte[] code) {
+			start = new int[16];
+			end = new int[16];
+			kind = new byte[16];
+			// the open nodes, and how many children each still needs
+			int[] open = new int[16], needs = new int[16];
+			int depth = 0;
+			ByteBuffer in = ByteBuffer.wrap(code);
+			do {
+				if (n == start.length) {
+					start = Arrays.copyOf(start, n * 2);
+					end = Arrays.copyOf(end, n * 2);
+					kind = Arrays.copyOf(kind, n * 2);
+				}
+				int node = n++;
+				start[node] = in.position();
+				int op = in.get(), children = 0;
+				kind[node] = (byte) kindOf(op);
+				if (op == AstCodec.PROG || op == AstCodec.BLOCK)
+					children = VarInt.read(in);
+				else if (op == AstCodec.NUM)
+					VarInt.readSigned(in);
+				else
+					children = arity(op);
+				if (children > 0) {
+					if (depth == open.length) {
+						open = Arrays.copyOf(open, depth * 2);
+						needs = Arrays.copyOf(needs, depth * 2);
+					}
+					open[depth] = node;
+					needs[depth++] = children;
+					continue;
+				}
+				// the node is done, and so is every open node it was the
+				// last child of
+				end[node] = in.position();
+				while (depth > 0 && --needs[depth - 1] == 0) {
+					end[open[--depth]] = in.position();
+				}
+			} while (depth > 0);
+		}
+
+		private static int kindOf(int op) {
+			if (op == AstCodec.PROG)
+				return ROOT;
+			if (op == AstCodec.BLOCK)
+				return BLOCK;
+			if (op >= AstCodec.LT && op <= AstCodec.NOT)
+				return CONDITION;
+			if (op >= AstCodec.NUM)
+				return EXPRESSION;
+			return STATEMENT;
+		}
+
+		private static int arity(int op) {
+			switch (op) {
+			case AstCodec.LOOP:
+			case AstCodec.MOVE_N:
+			case AstCodec.WAIT_N:
+			case AstCodec.NOT:
+				return 1;
+			case AstCodec.IF_ELSE:
+				return 3;
+			case AstCodec.IF:
+			case AstCodec.WHILE:
+			case AstCodec.LT:
+			case AstCodec.GT:
+			case AstCodec.EQ:
+			case AstCodec.AND:
+			case AstCodec.OR:
+			case AstCodec.ADD:
+			case AstCodec.SUB:
+			case AstCodec.MUL:
+			case AstCodec.DIV:
+				return 2;
+			}
+			return 0;
+		}
+	}
+
+	// Fitness
+	// -------
+
+	/**
+	 * Plays every program in the generation against every opponent, on the
+	 * generation's seeds, from both sides. Programs get a point for a win
+	 * and half for a draw, and a little for the fuel they had over their
+	 * opponent, averaged over their matches.
+	 */
+	private void evaluate(Generation g, int gen) {
+		long base = new Random(rand.nextLong() ^ gen).nextLong();
+		pool.invoke(new EvaluateTask(g, base, 0, g.size()));
+	}
+
+	@SuppressWarnings("serial")
+	private class EvaluateTask extends RecursiveAction {
+		private final Generation g;
+		private final long base;
+		private final int from, to;
+
+		EvaluateTask(Generation g, long base, int from, int to) {
+			this.g = g;
+			this.base = base;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= TASK_SIZE) {
+				for (int i = from; i < to; i++) {
+					RobotProgramNode program = g.decode(i);
+					g.fitness[i] = fitness(program, (cache != null) ? MatchCache.hash(program) : 0, base);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new EvaluateTask(g, base, from, mid), new EvaluateTask(g, base, mid, to));
+			}
+		}
+	}
+
+	private double fitness(RobotProgramNode program, long hash, long base) {
+		if (!ProgramAnalyzer.analyze(program).canAct())
+			return 0;
+		double points = 0, fuel = 0;
+		int matches = 0;
+		for (int o = 0; o < opponents.size(); o++) {
+			RobotProgramNode opponent = opponents.get(o);
+			long opponentHash = opponentHashes[o];
+			for (int s = 0; s < seeds; s++) {
+				for (int side = 1; side <= 2; side++) {
+					MatchResult r = (side == 1) ? play(program, hash, opponent, opponentHash, base + s)
+							: play(opponent, opponentHash, program, hash, base + s);
+					if (r.getWinner() == side)
+						points += 1;
+					else if (r.getWinner() == MatchResult.DRAW)
+						points += 0.5;
+					fuel += r.getFuel(side) - r.getFuel(3 - side);
+					matches++;
+				}
+			}
+		}
+		return (points + fuel / 1000) / matches;
+	}
+
+	private MatchResult play(RobotProgramNode one, long hashOne, RobotProgramNode two, long hashTwo, long seed) {
+		if (cache != null)
+			return cache.play(one, hashOne, two, hashTwo, seed, maxTicks, budget);
+		return MatchCache.playMatch(one, two, seed, maxTicks, budget);
+	}
+
+	// The population
+	// --------------
+
+	/**
+	 * The programs of one generation, as AstCodec encodes them, one after
+	 * another in a single array, with the fitness of each once evaluated.
+	 */
+	public static final class Generation {
+		private byte[] code = new byte[4096];
+		// where each program starts, and where the last one ends
+		private int[] offsets = new int[65];
+		private int size;
+		double[] fitness = new double[64];
+
+		void add(byte[] program) {
+			int at = offsets[size];
+			if (at + program.length > code.length)
+				code = Arrays.copyOf(code, Math.max(code.length * 2, at + program.length));
+			System.arraycopy(program, 0, code, at, program.length);
+			if (size + 2 > offsets.length) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				fitness = Arrays.copyOf(fitness, offsets.length);
+			}
+			offsets[++size] = at + program.length;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/** @return the bytes the programs take up */
+		public int bytes() {
+			return offsets[size];
+		}
+
+		/** @return the encoded program */
+		byte[] get(int i) {
+			return Arrays.copyOfRange(code, offsets[i], offsets[i + 1]);
+		}
+
+		/** @return the program, as new nodes */
+		public RobotProgramNode decode(int i) {
+			return AstCodec.decode(ByteBuffer.wrap(code, offsets[i], offsets[i + 1] - offsets[i]));
+		}
+
+		public double getFitness(int i) {
+			return fitness[i];
+		}
+
+		/** @return the programs, fittest first */
+		public Integer[] ranked() {
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(fitness[b], fitness[a]);
+				}
+			});
+			return order;
+		}
+
+		int best() {
+			return ranked()[0];
+		}
+
+		double meanFitness() {
+			double sum = 0;
+			for (int i = 0; i < size; i++) {
+				sum += fitness[i];
+			}
+			return sum / size;
+		}
+
+		double meanNodes() {
+			long nodes = 0;
+			for (int i = 0; i < size; i++) {
+				nodes += new Layout(get(i)).n;
+			}
+			return nodes / (double) size;
+		}
+	}
+
+	/**
+	 * Prints the fittest programs to evolved_1.prog, evolved_2.prog and so
+	 * on in the directory, and parses each file back to check it is the same
+	 * program.
+	 *
+	 * @throws IllegalStateException
+	 *             if a file doesn't parse back to the program written
+	 */
+	public static List<File> write(Generation g, File dir, int count) throws IOException {
+		Files.createDirectories(dir.toPath());
+		List<File> files = new ArrayList<File>();
+		Integer[] ranked = g.ranked();
+		for (int rank = 0; rank < count && rank < ranked.length; rank++) {
+			File f = new File(dir, "evolved_" + (rank + 1) + ".prog");
+			Files.write(f.toPath(), ProgramPrinter.toIndentedString(g.decode(ranked[rank]))
+					.getBytes(StandardCharsets.UTF_8));
+			RobotProgramNode parsed = Parser.parseFile(f);
+			if (parsed == null || !Arrays.equals(AstCodec.encode(parsed), g.get(ranked[rank])))
+				throw new IllegalStateException(f + " doesn't parse back to the program written");
+			files.add(f);
+		}
+		return files;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int generations = 20, population = 100, seeds = 3, keep = 5;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = 1;
+		File opponentDir = new File("../data"), out = new File("evolved"), cacheFile = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("-generations"))
+				generations = Integer.parseInt(value);
+			else if (args[i].equals("-population"))
+				population = Integer.parseInt(value);
+			else if (args[i].equals("-seeds"))
+				seeds = Integer.parseInt(value);
+			else if (args[i].equals("-seed"))
+				seed = Long.parseLong(value);
+			else if (args[i].equals("-threads"))
+				threads = Integer.parseInt(value);
+			else if (args[i].equals("-opponents"))
+				opponentDir = new File(value);
+			else if (args[i].equals("-out"))
+				out = new File(value);
+			else if (args[i].equals("-keep"))
+				keep = Integer.parseInt(value);
+			else if (args[i].equals("-cache"))
+				cacheFile = new File(value);
+		}
+		RoboGame.debugDisplay = false;
+
+		// robots print their state when they switch their shield, and the
+		// parser its errors, none of which is wanted here
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		MatchCache cache = (cacheFile != null) ? new MatchCache(100000, cacheFile) : null;
+		try {
+			// every program in the directory that parses
+			List<RobotProgramNode> opponents = new ArrayList<RobotProgramNode>();
+			File[] files = opponentDir.listFiles();
+			if (files != null) {
+				Arrays.sort(files);
+				for (File f : files) {
+					if (f.getName().endsWith(".prog")) {
+						RobotProgramNode p = Parser.parseFile(f);
+						if (p != null)
+							opponents.add(p);
+					}
+				}
+			}
+			console.printf("# %d opponents and the default program, %d threads%n", opponents.size(), threads);
+			Generation last = new ProgramEvolver(seed, opponents, pool).setPopulationSize(population).setSeeds(seeds)
+					.setCache(cache).evolve(generations, console);
+			if (cache != null)
+				console.println("# match cache: " + cache);
+			for (File f : write(last, out, keep)) {
+				console.println("# wrote " + f);
+			}
+		} finally {
+			System.setOut(console);
+			pool.shutdown();
+			if (cache != null)
+				cache.close();
+		}
+	}
+}
@@ -0,0 +1,504 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the shapes of nodes most robot programs are made of with fused
+ * nodes (see FusedNode in Parser.java) that do the same in fewer calls when
+ * the program is run by walking its tree:
+ * <ul>
+ * <li>a sensor compared with a number, like gt(wallDist, 0), becomes a
+ * testNode, which reads the sensor and compares it itself;</li>
+ * <li>an if on such a test with at most one statement in each branch, like
+ * if(gt(wallDist, 0)) { move; } or if(lt(barrelLR, 0)) { turnL; } else {
+ * turnR; }, becomes a testIfNode, which does plain actions itself;</li>
+ * <li>a while on such a test, like while(gt(fuelLeft, 0)), becomes a
+ * testWhileNode, which runs the statements of its block itself.</li>
+ * </ul>
+ * To find more of these, conditions are simplified first: expressions
+ * without sensors are worked out (unless they divide by zero), and
+ * comparisons of numbers, double nots, and ands and ors with a side that is
+ * always true or false are done away with, where that can't skip anything
+ * that could throw. StmtNode and ActNode wrappers and loops, which run their
+ * block once, go too.
+ * <p>
+ * Optionally, the ands and ors in a condition that can't throw are also
+ * reordered. Chains of them, like and(and(a, b), c), become an orderedNode,
+ * which starts with the cheapest conditions first, by a guess from how many
+ * nodes each has, and then keeps trying them in the order that profiling
+ * shows decides the condition soonest. Nothing a condition reads can change
+ * while it is being evaluated, so this only changes how long it takes.
+ * <p>
+ * The program passed in isn't changed. Everything other than running the
+ * program (printing, compiling, encoding and analysing it) goes by the
+ * nodes the fused nodes stand for, so the stepped Interpreter runs the same
+ * code for them as it would have; only simplified conditions that aren't
+ * fused show up there.
+ */
+public class ProgramFuser {
+
+	// what each statement done has become: any number of statements
+	private final Map<Object, List<RobotProgramNode>> done = new IdentityHashMap<Object, List<RobotProgramNode>>();
+
+	// whether to reorder ands and ors, and whether to leave out the fused
+	// statements
+	private final boolean reorder, plain;
+
+	private ProgramFuser(boolean reorder, boolean plain) {
+		this.reorder = reorder;
+		this.plain = plain;
+	}
+
+	/**
+	 * @return a program that does the same as the one given, with fused
+	 *         nodes where it can
+	 */
+	public static RobotProgramNode fuse(RobotProgramNode program) {
+		return fuse(program, false);
+	}
+
+	/**
+	 * @param reorder
+	 *            whether to reorder the ands and ors in conditions as well
+	 * @return a program that does the same as the one given, with fused
+	 *         nodes where it can
+	 */
+	public static RobotProgramNode fuse(RobotProgramNode program, boolean reorder) {
+		return new ProgramFuser(reorder, false).run(program);
+	}
+
+	/**
+	 * @return the program with its conditions simplified and reordered, but
+	 *         without testIfNodes or testWhileNodes, whose nodes they stand
+	 *         for aren't simplified; programs that differ only in how they
+	 *         were fused come out the same, for MatchCache to hash
+	 */
+	static RobotProgramNode canonical(RobotProgramNode program) {
+		return new ProgramFuser(true, true).run(program);
+	}
+
+	private RobotProgramNode run(RobotProgramNode program) {
+		List<Object> statements = ProgramWalk.statements(program);
+		for (int k = statements.size() - 1; k >= 0; k--) {
+			Object n = statements.get(k);
+			done.put(n, statement(n));
+		}
+		List<RobotProgramNode> result = get(program);
+		if (result.size() == 1 && result.get(0) instanceof ProgNode)
+			return result.get(0);
+		return new ProgNode(new ArrayList<RobotProgramNode>(result));
+	}
+
+	private List<RobotProgramNode> get(Object n) {
+		return done.get(ProgramWalk.unfused(n));
+	}
+
+	/**
+	 * @return what a statement becomes, once those inside it are done
+	 */
+	private List<RobotProgramNode> statement(Object n) {
+		if (n instanceof ProgNode) {
+			return ProgramWalk.one(new ProgNode(sequence(((ProgNode) n).children)));
+		} else if (n instanceof BlockNode) {
+			return sequence(((BlockNode) n).children);
+		} else if (n instanceof LoopNode) {
+			return get(((LoopNode) n).block);
+		} else if (n instanceof StmtNode) {
+			return get(((StmtNode) n).child);
+		} else if (n instanceof ActNode) {
+			return get(((ActNode) n).child);
+		} else if (n instanceof ifNode) {
+			ifNode i = (ifNode) n;
+			boolean hasElse = i.hasElse && i.elseBlock != null;
+			RobotConditionNode cond = condition(i.cond);
+			List<RobotProgramNode> then = get(i.block);
+			List<RobotProgramNode> otherwise = hasElse ? get(i.elseBlock)
+					: Collections.<RobotProgramNode> emptyList();
+			if (!plain && cond instanceof testNode && then.size() <= 1 && otherwise.size() <= 1) {
+				testIfNode t = new testIfNode(i, cond);
+				if (!then.isEmpty()) {
+					t.then = then.get(0);
+					t.thenAction = action(t.then);
+				}
+				if (!otherwise.isEmpty()) {
+					t.otherwise = otherwise.get(0);
+					t.elseAction = action(t.otherwise);
+				}
+				return ProgramWalk.one(t);
+			}
+			ifNode opt = new ifNode();
+			opt.setCondNode(cond);
+			opt.setBlockNode(ProgramWalk.block(then));
+			if (hasElse) {
+				opt.setElse(true);
+				opt.setElseBlockNode(ProgramWalk.block(otherwise));
+			}
+			return ProgramWalk.one(opt);
+		} else if (n instanceof whileNode) {
+			whileNode w = (whileNode) n;
+			RobotConditionNode cond = condition(w.cond);
+			List<RobotProgramNode> body = get(w.block);
+			if (!plain && cond instanceof testNode)
+				return ProgramWalk.one(new testWhileNode(w, cond, body.toArray(new RobotProgramNode[body.size()])));
+			whileNode opt = new whileNode();
+			opt.setCondNode(cond);
+			opt.setBlockNode(ProgramWalk.block(body));
+			return ProgramWalk.one(opt);
+		}
+		// the actions and the shield
+		return ProgramWalk.one((RobotProgramNode) n);
+	}
+
+	private ArrayList<RobotProgramNode> sequence(List<RobotProgramNode> children) {
+		ArrayList<RobotProgramNode> out = new ArrayList<RobotProgramNode>();
+		for (RobotProgramNode child : children) {
+			out.addAll(get(child));
+		}
+		return out;
+	}
+
+	/**
+	 * @return the Robot.ACTION_ a statement does once and nothing else, or 0
+	 *         if it isn't such a statement
+	 */
+	private static int action(RobotProgramNode n) {
+		if (n instanceof MoveNode && ((MoveNode) n).num == null)
+			return Robot.ACTION_MOVE;
+		if (n instanceof WaitNode && ((WaitNode) n).num == null)
+			return Robot.ACTION_WAIT;
+		if (n instanceof TurnLNode)
+			return Robot.ACTION_TURN_LEFT;
+		if (n instanceof TurnRNode)
+			return Robot.ACTION_TURN_RIGHT;
+		if (n instanceof turnAroundNode)
+			return Robot.ACTION_TURN_AROUND;
+		if (n instanceof TakeFuelNode)
+			return Robot.ACTION_TAKE_FUEL;
+		return 0;
+	}
+
+	// Conditions
+	// ----------
+
+	/**
+	 * @return the condition simplified, with testNodes in it where it can, and
+	 *         reordered if asked for, or the condition itself if it is always
+	 *         true or false
+	 */
+	private RobotConditionNode condition(RobotConditionNode cond) {
+		Object c = simplify(cond);
+		if (c instanceof Boolean)
+			return cond;
+		return reorder ? order((RobotConditionNode) c) : (RobotConditionNode) c;
+	}
+
+	/**
+	 * Simplifies a condition, going through its nodes in prefix order and
+	 * then back again, so each is done after what is inside it.
+	 *
+	 * @return the new condition, or Boolean.TRUE or FALSE if it is always
+	 *         true or false and can't throw
+	 */
+	private static Object simplify(RobotConditionNode cond) {
+		List<Object> order = new ArrayList<Object>(), pending = new ArrayList<Object>();
+		pending.add(cond);
+		while (!pending.isEmpty()) {
+			Object n = ProgramWalk.unfused(pending.remove(pending.size() - 1));
+			order.add(n);
+			if (n instanceof andNode) {
+				pending.add(((andNode) n).conditionTwo);
+				pending.add(((andNode) n).conditionOne);
+			} else if (n instanceof orNode) {
+				pending.add(((orNode) n).conditionTwo);
+				pending.add(((orNode) n).conditionOne);
+			} else if (n instanceof notNode) {
+				pending.add(((notNode) n).condition);
+			}
+		}
+		// the first operand ends up on top
+		List<Object> values = new ArrayList<Object>();
+		for (int k = order.size() - 1; k >= 0; k--) {
+			Object n = order.get(k), v;
+			if (n instanceof condNode) {
+				v = compare((condNode) n);
+			} else if (n instanceof notNode) {
+				Object a = values.remove(values.size() - 1);
+				if (a instanceof Boolean)
+					v = !(Boolean) a;
+				else if (a instanceof notNode)
+					v = ((notNode) a).condition;
+				else
+					v = (a == ((notNode) n).condition) ? n : new notNode((RobotConditionNode) a);
+			} else {
+				boolean and = n instanceof andNode;
+				Object a = values.remove(values.size() - 1), b = values.remove(values.size() - 1);
+				// and(false, b) and or(true, b) never get to b
+				if (a instanceof Boolean)
+					v = ((Boolean) a == and) ? b : a;
+				else if (b instanceof Boolean && (Boolean) b == and)
+					v = a;
+				else if (b instanceof Boolean && ProgramWalk.cannotThrow((RobotConditionNode) a))
+					v = b;
+				else
+					v = both(n, and, a, b);
+			}
+			values.add(v);
+		}
+		return values.get(0);
+	}
+
+	/**
+	 * @return an and or or of the two, which is the node itself if they are
+	 *         what it already had
+	 */
+	private static Object both(Object n, boolean and, Object a, Object b) {
+		RobotConditionNode one = (a instanceof Boolean) ? constant((Boolean) a) : (RobotConditionNode) a;
+		RobotConditionNode two = (b instanceof Boolean) ? constant((Boolean) b) : (RobotConditionNode) b;
+		if (and) {
+			andNode x = (andNode) n;
+			return (one == x.conditionOne && two == x.conditionTwo) ? x : new andNode(one, two);
+		}
+		orNode x = (orNode) n;
+		return (one == x.conditionOne && two == x.conditionTwo) ? x : new orNode(one, two);
+	}
+
+	/** @return a condition that is always the given value */
+	private static RobotConditionNode constant(boolean value) {
+		condNode c = new condNode();
+		c.setRelop(new eqNode());
+		c.setExpOne(new numNode(0));
+		c.setExpTwo(new numNode(value ? 0 : 1));
+		return c;
+	}
+
+	/**
+	 * @return a testNode if the comparison is of a sensor with something
+	 *         without sensors, a Boolean if it is of two things without
+	 *         sensors, or else the comparison, with its sides worked out if
+	 *         they have no sensors
+	 */
+	private static Object compare(condNode c) {
+		String relop = c.relop.toString();
+		int op = relop.equals("lt") ? CompiledProgram.LT : relop.equals("gt") ? CompiledProgram.GT : CompiledProgram.EQ;
+		Integer one = constant(c.expOne), two = constant(c.expTwo);
+		if (one != null && two != null)
+			return (op == CompiledProgram.LT) ? one < two : (op == CompiledProgram.GT) ? one > two : one.equals(two);
+		int s = ProgramWalk.sensor(c.expOne);
+		if (s >= 0 && two != null)
+			return new testNode(c, s, op, two);
+		s = ProgramWalk.sensor(c.expTwo);
+		if (s >= 0 && one != null) {
+			// the sensor on the left, so lt(0, barrelFB) is gt(barrelFB, 0)
+			int flipped = (op == CompiledProgram.LT) ? CompiledProgram.GT
+					: (op == CompiledProgram.GT) ? CompiledProgram.LT : op;
+			return new testNode(c, s, flipped, one);
+		}
+		if (one == null && two == null)
+			return c;
+		condNode opt = new condNode();
+		opt.setRelop(c.relop);
+		opt.setExpOne((one != null) ? new numNode(one) : c.expOne);
+		opt.setExpTwo((two != null) ? new numNode(two) : c.expTwo);
+		return opt;
+	}
+
+	/**
+	 * Works out an expression without sensors, as the nodes would, going
+	 * through it in prefix order and back again.
+	 *
+	 * @return its value, or null if it reads a sensor or divides by zero
+	 */
+	private static Integer constant(RobotSensorNode exp) {
+		List<Object> order = new ArrayList<Object>(), pending = new ArrayList<Object>();
+		pending.add(exp);
+		while (!pending.isEmpty()) {
+			Object n = pending.remove(pending.size() - 1);
+			order.add(n);
+			if (n instanceof addNode) {
+				pending.add(((addNode) n).conditionTwo);
+				pending.add(((addNode) n).conditionOne);
+			} else if (n instanceof subNode) {
+				pending.add(((subNode) n).conditionTwo);
+				pending.add(((subNode) n).conditionOne);
+			} else if (n instanceof mulNode) {
+				pending.add(((mulNode) n).conditionTwo);
+				pending.add(((mulNode) n).conditionOne);
+			} else if (n instanceof divNode) {
+				pending.add(((divNode) n).conditionTwo);
+				pending.add(((divNode) n).conditionOne);
+			} else if (!(n instanceof numNode)) {
+				return null;
+			}
+		}
+		int[] values = new int[order.size()];
+		int top = 0;
+		for (int k = order.size() - 1; k >= 0; k--) {
+			Object n = order.get(k);
+			if (n instanceof numNode) {
+				values[top++] = ((numNode) n).num;
+				continue;
+			}
+			// the first operand is on top
+			int a = values[--top], b = values[--top];
+			if (n instanceof addNode)
+				values[top++] = a + b;
+			else if (n instanceof subNode)
+				values[top++] = a - b;
+			else if (n instanceof mulNode)
+				values[top++] = a * b;
+			else if (b == 0)
+				return null;
+			else
+				values[top++] = a / b;
+		}
+		return values[0];
+	}
+
+	// Reordering
+	// ----------
+
+	/**
+	 * Turns each chain of ands or ors in a condition into an orderedNode,
+	 * going through the condition in prefix order and back again. A condition
+	 * that might throw is left as it is, since trying its parts in another
+	 * order could throw where it didn't or not where it did.
+	 */
+	private static RobotConditionNode order(RobotConditionNode cond) {
+		if (!ProgramWalk.cannotThrow(cond))
+			return cond;
+		List<Object> order = new ArrayList<Object>(), pending = new ArrayList<Object>();
+		Map<Object, List<RobotConditionNode>> chains = new IdentityHashMap<Object, List<RobotConditionNode>>();
+		pending.add(cond);
+		while (!pending.isEmpty()) {
+			Object n = pending.remove(pending.size() - 1);
+			order.add(n);
+			if (n instanceof andNode || n instanceof orNode) {
+				List<RobotConditionNode> terms = terms((RobotConditionNode) n);
+				chains.put(n, terms);
+				pending.addAll(terms);
+			} else if (n instanceof notNode) {
+				pending.add(((notNode) n).condition);
+			}
+		}
+		Map<Object, RobotConditionNode> done = new IdentityHashMap<Object, RobotConditionNode>();
+		for (int k = order.size() - 1; k >= 0; k--) {
+			Object n = order.get(k);
+			if (chains.containsKey(n)) {
+				done.put(n, ordered(n instanceof andNode, chains.get(n), done));
+			} else if (n instanceof notNode) {
+				RobotConditionNode c = done.get(((notNode) n).condition);
+				done.put(n, (c == ((notNode) n).condition) ? (notNode) n : new notNode(c));
+			} else {
+				done.put(n, (RobotConditionNode) n);
+			}
+		}
+		return done.get(cond);
+	}
+
+	/**
+	 * @return the conditions an and or or chain is of, left to right, so
+	 *         and(and(a, b), and(c, d)) is of a, b, c and d
+	 */
+	private static List<RobotConditionNode> terms(RobotConditionNode chain) {
+		Class<?> kind = chain.getClass();
+		List<RobotConditionNode> terms = new ArrayList<RobotConditionNode>();
+		List<RobotConditionNode> pending = new ArrayList<RobotConditionNode>();
+		pending.add(chain);
+		while (!pending.isEmpty()) {
+			RobotConditionNode n = pending.remove(pending.size() - 1);
+			if (n.getClass() != kind) {
+				terms.add(n);
+			} else if (n instanceof andNode) {
+				pending.add(((andNode) n).conditionTwo);
+				pending.add(((andNode) n).conditionOne);
+			} else {
+				pending.add(((orNode) n).conditionTwo);
+				pending.add(((orNode) n).conditionOne);
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * @return an orderedNode of the terms once they are done, cheapest first,
+	 *         standing for a chain of ands or ors of them in that order
+	 */
+	private static RobotConditionNode ordered(boolean and, List<RobotConditionNode> chain,
+			Map<Object, RobotConditionNode> done) {
+		int n = chain.size();
+		RobotConditionNode[] terms = new RobotConditionNode[n];
+		int[] costs = new int[n];
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			terms[i] = done.get(chain.get(i));
+			costs[i] = cost(terms[i]);
+			order[i] = i;
+		}
+		final int[] c = costs;
+		// a stable sort, so terms that cost the same stay as they were
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(c[a], c[b]);
+			}
+		});
+		int[] first = new int[n];
+		RobotConditionNode original = null;
+		for (int i = 0; i < n; i++) {
+			first[i] = order[i];
+			RobotConditionNode t = terms[order[i]];
+			original = (original == null) ? t : and ? new andNode(original, t) : new orNode(original, t);
+		}
+		return new orderedNode(original, and, terms, costs, first);
+	}
+
+	/**
+	 * @return a guess at what evaluating a condition costs: the nodes it goes
+	 *         through, counting a comparison once more for each relop it
+	 *         tries before finding its own
+	 */
+	private static int cost(RobotConditionNode cond) {
+		int cost = 0;
+		List<Object> pending = new ArrayList<Object>();
+		pending.add(cond);
+		while (!pending.isEmpty()) {
+			Object n = pending.remove(pending.size() - 1);
+			cost++;
+			if (n instanceof testNode) {
+				continue;
+			} else if (n instanceof orderedNode) {
+				pending.addAll(Arrays.asList(((orderedNode) n).terms));
+			} else if (n instanceof andNode) {
+				pending.add(((andNode) n).conditionOne);
+				pending.add(((andNode) n).conditionTwo);
+			} else if (n instanceof orNode) {
+				pending.add(((orNode) n).conditionOne);
+				pending.add(((orNode) n).conditionTwo);
+			} else if (n instanceof notNode) {
+				pending.add(((notNode) n).condition);
+			} else if (n instanceof condNode) {
+				String relop = ((condNode) n).relop.toString();
+				cost += relop.equals("eq") ? 1 : relop.equals("lt") ? 2 : 3;
+				pending.add(((condNode) n).expOne);
+				pending.add(((condNode) n).expTwo);
+			} else if (n instanceof addNode) {
+				pending.add(((addNode) n).conditionOne);
+				pending.add(((addNode) n).conditionTwo);
+			} else if (n instanceof subNode) {
+				pending.add(((subNode) n).conditionOne);
+				pending.add(((subNode) n).conditionTwo);
+			} else if (n instanceof mulNode) {
+				pending.add(((mulNode) n).conditionOne);
+				pending.add(((mulNode) n).conditionTwo);
+			} else if (n instanceof divNode) {
+				pending.add(((divNode) n).conditionOne);
+				pending.add(((divNode) n).conditionTwo);
+			}
+		}
+		return cost;
+	}
+
+}
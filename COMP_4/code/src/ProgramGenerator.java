@@ -0,0 +1,275 @@
+import java.util.Random;
+
+/**
+ * Makes random robot programs that the Parser accepts, for stress testing
+ * the parser and interpreters with programs far bigger and deeper than the
+ * ones in data/. The same seed and settings always give the same program.
+ * <p>
+ * Every block of a loop or while does at least one action that takes a
+ * turn, so no generated loop can spin without the world moving on, and
+ * every divisor is a non-zero number. A move(n) doesn't count, as it does
+ * nothing if n isn't positive, but a wait(n) does, as it always waits at
+ * least once.
+ */
+public class ProgramGenerator {
+
+	private static final String[] ACTIONS = { "move", "turnL", "turnR", "turnAround", "takeFuel", "wait" };
+	private static final String[] SENSORS = { "fuelLeft", "oppLR", "oppFB", "numBarrels", "barrelLR", "barrelFB",
+			"wallDist" };
+	private static final String[] RELOPS = { "lt", "gt", "eq" };
+	private static final String[] OPS = { "add", "sub", "mul", "div" };
+
+	private static final int MAX_INDENT = 16;
+
+	private final Random rand;
+	private int maxDepth = 4;
+	private int branching = 4;
+	private double compoundChance = 0.3;
+	private double shieldChance = 0.1;
+	private int conditionDepth = 3;
+	private int expressionDepth = 3;
+
+	public ProgramGenerator(long seed) {
+		rand = new Random(seed);
+	}
+
+	/** The deepest that blocks can nest. */
+	public ProgramGenerator setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	/** The most statements in a block. */
+	public ProgramGenerator setBranching(int branching) {
+		this.branching = Math.max(1, branching);
+		return this;
+	}
+
+	/**
+	 * How likely a statement is to be a loop, if or while rather than an
+	 * action, while the blocks aren't yet at the maximum depth.
+	 */
+	public ProgramGenerator setCompoundChance(double compoundChance) {
+		this.compoundChance = compoundChance;
+		return this;
+	}
+
+	/**
+	 * How likely a statement is to switch the shield on or off rather than
+	 * be an action. A shield left on burns fuel fast, so at 0 matches last
+	 * much longer.
+	 */
+	public ProgramGenerator setShieldChance(double shieldChance) {
+		this.shieldChance = shieldChance;
+		return this;
+	}
+
+	/** The deepest that and, or and not can nest in a condition. */
+	public ProgramGenerator setConditionDepth(int conditionDepth) {
+		this.conditionDepth = conditionDepth;
+		return this;
+	}
+
+	/** The deepest that add, sub, mul and div can nest in an expression. */
+	public ProgramGenerator setExpressionDepth(int expressionDepth) {
+		this.expressionDepth = expressionDepth;
+		return this;
+	}
+
+	/**
+	 * @return a program with the given number of top level statements
+	 */
+	public String generateStatements(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			stmt(sb, 0);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return a program of at least the given number of characters
+	 */
+	public String generate(int length) {
+		StringBuilder sb = new StringBuilder(length + 1024);
+		while (sb.length() < length) {
+			stmt(sb, 0);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return a program of one chain of loops, ifs and whiles, each inside
+	 *         the last, nested to the given depth
+	 */
+	public String generateNested(int depth) {
+		StringBuilder sb = new StringBuilder();
+		int[] kinds = new int[depth];
+		for (int d = 0; d < depth; d++) {
+			indent(sb, d);
+			kinds[d] = rand.nextInt(3);
+			if (kinds[d] == 0) {
+				sb.append("loop");
+			} else {
+				sb.append((kinds[d] == 1) ? "if(" : "while(");
+				cond(sb, 0);
+				sb.append(')');
+			}
+			sb.append("{\n");
+		}
+		action(sb, depth, false);
+		for (int d = depth - 1; d >= 0; d--) {
+			// an action in every loop and while, after the nested statement
+			if (kinds[d] != 1)
+				action(sb, d + 1, true);
+			indent(sb, d);
+			sb.append('}');
+			if (kinds[d] == 1 && rand.nextBoolean()) {
+				sb.append(" else{\n");
+				action(sb, d + 1, false);
+				indent(sb, d);
+				sb.append('}');
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	// Statements
+	// ----------
+
+	/**
+	 * @return whether the statement was an action that certainly takes a
+	 *         turn
+	 */
+	private boolean stmt(StringBuilder sb, int depth) {
+		if (depth < maxDepth && rand.nextDouble() < compoundChance) {
+			indent(sb, depth);
+			switch (rand.nextInt(3)) {
+			case 0:
+				sb.append("loop");
+				block(sb, depth, true);
+				break;
+			case 1:
+				sb.append("if(");
+				cond(sb, 0);
+				sb.append(')');
+				block(sb, depth, false);
+				if (rand.nextBoolean()) {
+					sb.append(" else");
+					block(sb, depth, false);
+				}
+				break;
+			default:
+				sb.append("while(");
+				cond(sb, 0);
+				sb.append(')');
+				block(sb, depth, true);
+			}
+			sb.append('\n');
+		} else if (rand.nextDouble() < shieldChance) {
+			indent(sb, depth);
+			sb.append(rand.nextBoolean() ? "shieldOn;\n" : "shieldOff;\n");
+		} else {
+			return action(sb, depth, false);
+		}
+		return false;
+	}
+
+	/**
+	 * An action that uses up a turn, or a move(n), which doesn't if n isn't
+	 * positive.
+	 *
+	 * @param mustAct
+	 *            whether it can't be a move(n)
+	 * @return whether it certainly takes a turn
+	 */
+	private boolean action(StringBuilder sb, int depth, boolean mustAct) {
+		indent(sb, depth);
+		String act = ACTIONS[rand.nextInt(ACTIONS.length)];
+		sb.append(act);
+		boolean acts = true;
+		if ((act.equals("move") || act.equals("wait")) && rand.nextBoolean() && !(mustAct && act.equals("move"))) {
+			sb.append('(');
+			exp(sb, 0);
+			sb.append(')');
+			acts = act.equals("wait");
+		}
+		sb.append(";\n");
+		return acts;
+	}
+
+	/**
+	 * If mustAct and none of the statements were actions, an action is added
+	 * at the end.
+	 */
+	private void block(StringBuilder sb, int depth, boolean mustAct) {
+		sb.append("{\n");
+		int n = 1 + rand.nextInt(branching);
+		boolean acted = false;
+		for (int i = 0; i < n; i++) {
+			acted |= stmt(sb, depth + 1);
+		}
+		if (mustAct && !acted)
+			action(sb, depth + 1, true);
+		indent(sb, depth);
+		sb.append('}');
+	}
+
+	private static void indent(StringBuilder sb, int depth) {
+		// deeply nested programs would otherwise be mostly tabs
+		for (int i = Math.min(depth, MAX_INDENT); i > 0; i--) {
+			sb.append('\t');
+		}
+	}
+
+	// Conditions and expressions
+	// --------------------------
+
+	private void cond(StringBuilder sb, int depth) {
+		int kind = (depth < conditionDepth) ? rand.nextInt(5) : 0;
+		switch (kind) {
+		case 0:
+		case 1:
+			sb.append(RELOPS[rand.nextInt(RELOPS.length)]).append('(');
+			exp(sb, 0);
+			sb.append(", ");
+			exp(sb, 0);
+			sb.append(')');
+			break;
+		case 2:
+		case 3:
+			sb.append((kind == 2) ? "and(" : "or(");
+			cond(sb, depth + 1);
+			sb.append(", ");
+			cond(sb, depth + 1);
+			sb.append(')');
+			break;
+		default:
+			sb.append("not(");
+			cond(sb, depth + 1);
+			sb.append(')');
+		}
+	}
+
+	private void exp(StringBuilder sb, int depth) {
+		int kind = (depth < expressionDepth) ? rand.nextInt(4) : rand.nextInt(2);
+		if (kind == 0) {
+			sb.append(rand.nextInt(21) - 10);
+		} else if (kind == 1) {
+			sb.append(SENSORS[rand.nextInt(SENSORS.length)]);
+		} else {
+			String op = OPS[rand.nextInt(OPS.length)];
+			sb.append(op).append('(');
+			exp(sb, depth + 1);
+			sb.append(", ");
+			if (op.equals("div")) {
+				int d = 1 + rand.nextInt(9);
+				sb.append(rand.nextBoolean() ? d : -d);
+			} else {
+				exp(sb, depth + 1);
+			}
+			sb.append(')');
+		}
+	}
+}
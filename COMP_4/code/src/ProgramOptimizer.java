@@ -0,0 +1,195 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a program into one that does exactly the same, with fewer nodes
+ * to go through each time it runs:
+ * <ul>
+ * <li>StmtNode and ActNode wrappers go, and blocks that are statements of
+ * their own (which is what a loop parses to, and which run once) are
+ * spliced into the block around them.</li>
+ * <li>Ifs and whiles the ProgramAnalyzer finds can never run their body or
+ * their else are replaced by what can run, and statements after ones that
+ * never finish go. Conditions that might divide by zero are kept, since
+ * evaluating them can throw.</li>
+ * <li>Ifs with nothing in either branch go, and empty elses are dropped, as
+ * are moves a constant number of times no more than 0.</li>
+ * <li>Moves and waits one after another with constant counts become one
+ * move or wait, which does the same actions in the same turns. Turns are
+ * left alone, since there is no node that does a turn more than once.</li>
+ * </ul>
+ * What the ProgramAnalyzer finds depends on how the robot is run: a loop
+ * without actions only never ends if the robot is stepped or doesn't wait
+ * for the world, and a robot run on its own thread by World.start can see
+ * its sensors change anywhere, so its programs are optimized with stepped
+ * false.
+ * <p>
+ * The program passed in isn't changed; the nodes that can be shared are
+ * shared with the new one. Like the other passes over programs, this keeps
+ * its own stack, so deep programs don't overflow the Java one.
+ */
+public class ProgramOptimizer {
+
+	// the blocks and statements that never run, and the conditions of ifs
+	// that are always true
+	private final Set<Object> unreachable = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()),
+			alwaysTrue = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+	// what each statement done has become: any number of statements
+	private final Map<Object, List<RobotProgramNode>> done = new IdentityHashMap<Object, List<RobotProgramNode>>();
+
+	private ProgramOptimizer(ProgramAnalyzer.Report report) {
+		for (ProgramAnalyzer.Finding f : report.getFindings()) {
+			if (f.getKind() == ProgramAnalyzer.Kind.UNREACHABLE)
+				unreachable.add(f.getNode());
+			else if (f.getKind() == ProgramAnalyzer.Kind.ALWAYS_TRUE)
+				alwaysTrue.add(f.getNode());
+		}
+	}
+
+	/**
+	 * @return a program that does the same as the one given, which is left
+	 *         as it was, on a robot that is stepped or doesn't wait for the
+	 *         world
+	 */
+	public static RobotProgramNode optimize(RobotProgramNode program) {
+		return optimize(program, true);
+	}
+
+	/**
+	 * @param stepped
+	 *            whether the robot is stepped or doesn't wait for the world,
+	 *            rather than run on a thread of its own by World.start
+	 * @return a program that does the same as the one given, which is left
+	 *         as it was
+	 */
+	public static RobotProgramNode optimize(RobotProgramNode program, boolean stepped) {
+		return new ProgramOptimizer(ProgramAnalyzer.analyze(program, stepped)).run(program);
+	}
+
+	private RobotProgramNode run(RobotProgramNode program) {
+		List<Object> statements = ProgramWalk.statements(program);
+		for (int k = statements.size() - 1; k >= 0; k--) {
+			Object n = statements.get(k);
+			done.put(n, statement(n));
+		}
+		List<RobotProgramNode> result = get(program);
+		if (result.size() == 1 && result.get(0) instanceof ProgNode)
+			return result.get(0);
+		return new ProgNode(new ArrayList<RobotProgramNode>(result));
+	}
+
+	private List<RobotProgramNode> get(Object n) {
+		return done.get(ProgramWalk.unfused(n));
+	}
+
+	/**
+	 * @return what a statement becomes, once those inside it are done
+	 */
+	private List<RobotProgramNode> statement(Object n) {
+		if (n instanceof ProgNode) {
+			return ProgramWalk.one(new ProgNode(sequence(((ProgNode) n).children)));
+		} else if (n instanceof BlockNode) {
+			return sequence(((BlockNode) n).children);
+		} else if (n instanceof LoopNode) {
+			return get(((LoopNode) n).block);
+		} else if (n instanceof StmtNode) {
+			return get(((StmtNode) n).child);
+		} else if (n instanceof ActNode) {
+			return get(((ActNode) n).child);
+		} else if (n instanceof MoveNode) {
+			MoveNode m = (MoveNode) n;
+			if (m.num instanceof numNode && ((numNode) m.num).num <= 0)
+				return Collections.emptyList();
+			return ProgramWalk.one(m);
+		} else if (n instanceof ifNode) {
+			ifNode i = (ifNode) n;
+			boolean hasElse = i.hasElse && i.elseBlock != null;
+			List<RobotProgramNode> then = get(i.block);
+			List<RobotProgramNode> otherwise = hasElse ? get(i.elseBlock)
+					: Collections.<RobotProgramNode> emptyList();
+			boolean safe = ProgramWalk.cannotThrow(i.cond);
+			if (safe && unreachable.contains(i.block))
+				return otherwise;
+			if (safe && (alwaysTrue.contains(i.cond) || (hasElse && unreachable.contains(i.elseBlock))))
+				return then;
+			if (safe && then.isEmpty() && otherwise.isEmpty())
+				return Collections.emptyList();
+			ifNode opt = new ifNode();
+			opt.setCondNode(i.cond);
+			opt.setBlockNode(ProgramWalk.block(then));
+			if (!otherwise.isEmpty()) {
+				opt.setElse(true);
+				opt.setElseBlockNode(ProgramWalk.block(otherwise));
+			}
+			return ProgramWalk.one(opt);
+		} else if (n instanceof whileNode) {
+			whileNode w = (whileNode) n;
+			if (unreachable.contains(w.block) && ProgramWalk.cannotThrow(w.cond))
+				return Collections.emptyList();
+			whileNode opt = new whileNode();
+			opt.setCondNode(w.cond);
+			opt.setBlockNode(ProgramWalk.block(get(w.block)));
+			return ProgramWalk.one(opt);
+		}
+		// the other actions and the shield
+		return ProgramWalk.one((RobotProgramNode) n);
+	}
+
+	/**
+	 * @return the statements the children become, one after another, up to
+	 *         any that never run, with moves and waits merged
+	 */
+	private ArrayList<RobotProgramNode> sequence(List<RobotProgramNode> children) {
+		ArrayList<RobotProgramNode> out = new ArrayList<RobotProgramNode>();
+		for (RobotProgramNode child : children) {
+			if (unreachable.contains(child))
+				break;
+			for (RobotProgramNode s : get(child)) {
+				RobotProgramNode last = out.isEmpty() ? null : out.get(out.size() - 1);
+				RobotProgramNode merged = merge(last, s);
+				if (merged != null)
+					out.set(out.size() - 1, merged);
+				else
+					out.add(s);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @return a move or wait that does what a then b do, or null if they
+	 *         can't be merged
+	 */
+	private static RobotProgramNode merge(RobotProgramNode a, RobotProgramNode b) {
+		if (a instanceof MoveNode && b instanceof MoveNode) {
+			long one = times(((MoveNode) a).num, 1), two = times(((MoveNode) b).num, 1);
+			if (one >= 0 && two >= 0 && one + two <= Integer.MAX_VALUE)
+				return new MoveNode(new numNode((int) (one + two)));
+		} else if (a instanceof WaitNode && b instanceof WaitNode) {
+			// wait(n) waits n + 1 times, so the two together wait one + two + 2
+			long one = times(((WaitNode) a).num, 0), two = times(((WaitNode) b).num, 0);
+			if (one >= 0 && two >= 0 && one + two + 1 <= Integer.MAX_VALUE)
+				return new WaitNode(new numNode((int) (one + two + 1)));
+		}
+		return null;
+	}
+
+	/**
+	 * @return how many times a constant count repeats (none for a count
+	 *         below 0), missing if there is no count, or -1 if the count
+	 *         isn't constant
+	 */
+	private static long times(RobotSensorNode count, int missing) {
+		if (count == null)
+			return missing;
+		if (!(count instanceof numNode))
+			return -1;
+		return Math.max(0, ((numNode) count).num);
+	}
+
+}
@@ -0,0 +1,280 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prints a program back out in the robot language, in a form the parser
+ * reads back to the same nodes. Everything is written straight to one
+ * Appendable, so printing takes time in proportion to the size of the
+ * program, and the nodes still to print are kept on a stack of the
+ * printer's own, so it copes with programs nested as deeply as the parser
+ * allows.
+ * <p>
+ * With an indent, each statement goes on a line of its own, indented by
+ * how deeply it is nested (up to MAX_INDENT levels). Without one the whole
+ * program goes on one line.
+ */
+public class ProgramPrinter {
+
+	// deeper statements are indented no further, so the output of a deeply
+	// nested program doesn't grow with the square of its depth
+	static final int MAX_INDENT = 16;
+
+	// markers on the stack, between nodes and strings
+	private static final Object NEWLINE = new Object(), INDENT = new Object(), DEDENT = new Object();
+
+	private final Appendable out;
+	private final String indent;
+	private Object[] stack = new Object[32];
+	private int depth = 0, level = 0;
+
+	/**
+	 * @param indent
+	 *            what to indent each level with, such as "\t", or null to
+	 *            print on one line
+	 */
+	public ProgramPrinter(Appendable out, String indent) {
+		this.out = out;
+		this.indent = indent;
+	}
+
+	/**
+	 * @return the program on one line
+	 */
+	public static String toString(RobotProgramNode program) {
+		StringBuilder sb = new StringBuilder();
+		new ProgramPrinter(sb, null).print(program);
+		return sb.toString();
+	}
+
+	/**
+	 * @return the condition, as it would be written in an if or while
+	 */
+	public static String conditionToString(RobotConditionNode condition) {
+		StringBuilder sb = new StringBuilder();
+		new ProgramPrinter(sb, null).printNode(condition);
+		return sb.toString();
+	}
+
+	/**
+	 * @return the program with a statement per line, indented with a tab
+	 */
+	public static String toIndentedString(RobotProgramNode program) {
+		StringBuilder sb = new StringBuilder();
+		new ProgramPrinter(sb, "\t").print(program);
+		return sb.toString();
+	}
+
+	/**
+	 * Prints the program to the stream indented with a tab, through a buffer
+	 * so a big program isn't written a few characters at a time.
+	 */
+	public static void print(RobotProgramNode program, PrintStream stream) {
+		Writer w = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+		new ProgramPrinter(w, "\t").print(program);
+		try {
+			w.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Prints the program, ending it with a newline if indenting.
+	 *
+	 * @throws UncheckedIOException
+	 *             if the Appendable throws an IOException
+	 */
+	public void print(RobotProgramNode program) {
+		printNode(program);
+	}
+
+	private void printNode(Object node) {
+		try {
+			push(node);
+			while (depth > 0) {
+				Object o = stack[--depth];
+				stack[depth] = null;
+				if (o instanceof String)
+					out.append((String) o);
+				else if (o == NEWLINE)
+					newline();
+				else if (o == INDENT)
+					level++;
+				else if (o == DEDENT)
+					level--;
+				else
+					node(o);
+			}
+			if (indent != null)
+				out.append('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void newline() throws IOException {
+		if (indent == null) {
+			out.append(' ');
+		} else {
+			out.append('\n');
+			for (int i = Math.min(level, MAX_INDENT); i > 0; i--) {
+				out.append(indent);
+			}
+		}
+	}
+
+	/**
+	 * Prints what it can of a node straight away, and pushes the rest: its
+	 * children and the text that goes between them.
+	 */
+	private void node(Object n) throws IOException {
+		// a fused node prints as what it stands for
+		if (n instanceof FusedNode) {
+			push(((FusedNode) n).original());
+		}
+
+		// statements
+		else if (n instanceof ProgNode) {
+			List<RobotProgramNode> children = ((ProgNode) n).children;
+			for (int i = children.size() - 1; i > 0; i--) {
+				push(NEWLINE, children.get(i));
+			}
+			if (!children.isEmpty())
+				push(children.get(0));
+		} else if (n instanceof BlockNode) {
+			// a block on its own as a statement is what a loop parses to
+			out.append("loop ");
+			pushBlock(n);
+		} else if (n instanceof LoopNode) {
+			out.append("loop ");
+			pushBlock(((LoopNode) n).block);
+		} else if (n instanceof StmtNode) {
+			push(((StmtNode) n).child);
+		} else if (n instanceof ActNode) {
+			push(((ActNode) n).child);
+		} else if (n instanceof MoveNode) {
+			action("move", ((MoveNode) n).num);
+		} else if (n instanceof WaitNode) {
+			action("wait", ((WaitNode) n).num);
+		} else if (n instanceof TurnLNode) {
+			out.append("turnL;");
+		} else if (n instanceof TurnRNode) {
+			out.append("turnR;");
+		} else if (n instanceof turnAroundNode) {
+			out.append("turnAround;");
+		} else if (n instanceof TakeFuelNode) {
+			out.append("takeFuel;");
+		} else if (n instanceof shieldOnNode) {
+			out.append("shieldOn;");
+		} else if (n instanceof shieldOffNode) {
+			out.append("shieldOff;");
+		} else if (n instanceof ifNode) {
+			ifNode i = (ifNode) n;
+			if (i.hasElse && i.elseBlock != null) {
+				pushBlock(i.elseBlock);
+				push(" else ");
+			}
+			pushBlock(i.block);
+			push(i.cond, ") ");
+			out.append("if (");
+		} else if (n instanceof whileNode) {
+			whileNode w = (whileNode) n;
+			pushBlock(w.block);
+			push(w.cond, ") ");
+			out.append("while (");
+
+			// conditions
+		} else if (n instanceof condNode) {
+			condNode c = (condNode) n;
+			String relop = c.relop.toString();
+			binary(relop, c.expOne, c.expTwo);
+		} else if (n instanceof andNode) {
+			binary("and", ((andNode) n).conditionOne, ((andNode) n).conditionTwo);
+		} else if (n instanceof orNode) {
+			binary("or", ((orNode) n).conditionOne, ((orNode) n).conditionTwo);
+		} else if (n instanceof notNode) {
+			out.append("not(");
+			push(((notNode) n).condition, ")");
+
+			// expressions
+		} else if (n instanceof numNode) {
+			out.append(Integer.toString(((numNode) n).num));
+		} else if (n instanceof fuelLeftNode) {
+			out.append("fuelLeft");
+		} else if (n instanceof oppLRNode) {
+			out.append("oppLR");
+		} else if (n instanceof oppFBNode) {
+			out.append("oppFB");
+		} else if (n instanceof numBarrelsNode) {
+			out.append("numBarrels");
+		} else if (n instanceof barrelLRNode) {
+			out.append("barrelLR");
+		} else if (n instanceof barrelFBNode) {
+			out.append("barrelFB");
+		} else if (n instanceof wallDistNode) {
+			out.append("wallDist");
+		} else if (n instanceof addNode) {
+			binary("add", ((addNode) n).conditionOne, ((addNode) n).conditionTwo);
+		} else if (n instanceof subNode) {
+			binary("sub", ((subNode) n).conditionOne, ((subNode) n).conditionTwo);
+		} else if (n instanceof mulNode) {
+			binary("mul", ((mulNode) n).conditionOne, ((mulNode) n).conditionTwo);
+		} else if (n instanceof divNode) {
+			binary("div", ((divNode) n).conditionOne, ((divNode) n).conditionTwo);
+		} else {
+			throw new IllegalArgumentException("Can't print " + n.getClass().getName());
+		}
+	}
+
+	private void action(String name, RobotSensorNode num) throws IOException {
+		out.append(name);
+		if (num == null) {
+			out.append(';');
+		} else {
+			out.append('(');
+			push(num, ");");
+		}
+	}
+
+	private void binary(String name, Object one, Object two) throws IOException {
+		out.append(name).append('(');
+		push(one, ", ", two, ")");
+	}
+
+	/**
+	 * Pushes a block: its braces, and its statements each on a new line one
+	 * level in. A statement that isn't a block is printed as a block of one.
+	 */
+	private void pushBlock(Object n) {
+		List<RobotProgramNode> children = (n instanceof BlockNode) ? ((BlockNode) n).children
+				: Arrays.asList((RobotProgramNode) n);
+		if (children.isEmpty()) {
+			push("{}");
+			return;
+		}
+		push(DEDENT, NEWLINE, "}");
+		for (int i = children.size() - 1; i >= 0; i--) {
+			push(NEWLINE, children.get(i));
+		}
+		push("{", INDENT);
+	}
+
+	/**
+	 * Pushes the items so that the first comes off first. What is pushed by
+	 * one call comes off before what was pushed by the call before.
+	 */
+	private void push(Object... items) {
+		if (depth + items.length > stack.length)
+			stack = Arrays.copyOf(stack, Math.max(stack.length * 2, depth + items.length));
+		for (int i = items.length - 1; i >= 0; i--) {
+			stack[depth++] = items[i];
+		}
+	}
+}
@@ -0,0 +1,142 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the passes over programs (the ProgramAnalyzer, ProgramOptimizer and
+ * ProgramFuser) have in common: going through a program's statements on a
+ * stack of their own rather than the Java one, looking through fused nodes
+ * to the nodes they stand for, and a few questions about conditions and
+ * sensors.
+ */
+final class ProgramWalk {
+
+	private ProgramWalk() {
+	}
+
+	/**
+	 * @return the statements of a program in prefix order, with each fused
+	 *         node as the node it stands for, so going backwards does each
+	 *         after the statements inside it
+	 */
+	static List<Object> statements(RobotProgramNode program) {
+		List<Object> statements = new ArrayList<Object>();
+		List<Object> pending = new ArrayList<Object>();
+		pending.add(program);
+		while (!pending.isEmpty()) {
+			Object n = unfused(pending.remove(pending.size() - 1));
+			statements.add(n);
+			pending.addAll(statementsIn(n));
+		}
+		return statements;
+	}
+
+	/**
+	 * @return the statements directly inside a statement; for a fused node,
+	 *         the node it stands for
+	 */
+	static List<?> statementsIn(Object n) {
+		if (n instanceof FusedNode)
+			return Collections.singletonList(((FusedNode) n).original());
+		if (n instanceof ProgNode)
+			return ((ProgNode) n).children;
+		if (n instanceof BlockNode)
+			return ((BlockNode) n).children;
+		if (n instanceof LoopNode)
+			return Collections.singletonList(((LoopNode) n).block);
+		if (n instanceof StmtNode)
+			return Collections.singletonList(((StmtNode) n).child);
+		if (n instanceof ActNode)
+			return Collections.singletonList(((ActNode) n).child);
+		if (n instanceof ifNode) {
+			ifNode i = (ifNode) n;
+			return (i.hasElse && i.elseBlock != null) ? Arrays.asList(i.block, i.elseBlock)
+					: Collections.singletonList(i.block);
+		}
+		if (n instanceof whileNode)
+			return Collections.singletonList(((whileNode) n).block);
+		return Collections.emptyList();
+	}
+
+	/** @return the node a fused node stands for, or the node itself */
+	static Object unfused(Object n) {
+		while (n instanceof FusedNode) {
+			n = ((FusedNode) n).original();
+		}
+		return n;
+	}
+
+	/**
+	 * @return whether evaluating a condition can't throw, which it can only
+	 *         do by dividing by zero
+	 */
+	static boolean cannotThrow(RobotConditionNode cond) {
+		List<Object> pending = new ArrayList<Object>();
+		pending.add(cond);
+		while (!pending.isEmpty()) {
+			Object n = pending.remove(pending.size() - 1);
+			if (n instanceof testNode) {
+				// compares a sensor with a number already worked out
+				continue;
+			} else if (n instanceof FusedNode) {
+				pending.add(((FusedNode) n).original());
+			} else if (n instanceof andNode) {
+				pending.add(((andNode) n).conditionOne);
+				pending.add(((andNode) n).conditionTwo);
+			} else if (n instanceof orNode) {
+				pending.add(((orNode) n).conditionOne);
+				pending.add(((orNode) n).conditionTwo);
+			} else if (n instanceof notNode) {
+				pending.add(((notNode) n).condition);
+			} else if (n instanceof condNode) {
+				pending.add(((condNode) n).expOne);
+				pending.add(((condNode) n).expTwo);
+			} else if (n instanceof addNode) {
+				pending.add(((addNode) n).conditionOne);
+				pending.add(((addNode) n).conditionTwo);
+			} else if (n instanceof subNode) {
+				pending.add(((subNode) n).conditionOne);
+				pending.add(((subNode) n).conditionTwo);
+			} else if (n instanceof mulNode) {
+				pending.add(((mulNode) n).conditionOne);
+				pending.add(((mulNode) n).conditionTwo);
+			} else if (n instanceof divNode) {
+				RobotSensorNode divisor = ((divNode) n).conditionTwo;
+				if (!(divisor instanceof numNode) || ((numNode) divisor).num == 0)
+					return false;
+				pending.add(((divNode) n).conditionOne);
+			}
+		}
+		return true;
+	}
+
+	/** @return the CompiledProgram sensor a node reads, or -1 */
+	static int sensor(Object n) {
+		if (n instanceof fuelLeftNode)
+			return CompiledProgram.FUEL_LEFT;
+		if (n instanceof oppLRNode)
+			return CompiledProgram.OPP_LR;
+		if (n instanceof oppFBNode)
+			return CompiledProgram.OPP_FB;
+		if (n instanceof numBarrelsNode)
+			return CompiledProgram.NUM_BARRELS;
+		if (n instanceof barrelLRNode)
+			return CompiledProgram.BARREL_LR;
+		if (n instanceof barrelFBNode)
+			return CompiledProgram.BARREL_FB;
+		if (n instanceof wallDistNode)
+			return CompiledProgram.WALL_DIST;
+		return -1;
+	}
+
+	static BlockNode block(List<RobotProgramNode> statements) {
+		BlockNode b = new BlockNode();
+		b.children.addAll(statements);
+		return b;
+	}
+
+	static List<RobotProgramNode> one(RobotProgramNode n) {
+		return Collections.singletonList(n);
+	}
+}
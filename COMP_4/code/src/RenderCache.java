@@ -0,0 +1,92 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-rendered images used when painting the world. The grid is rasterised
+ * once, and every sprite that can rotate is pre-rotated at fixed angular
+ * steps, so drawing a frame is only a handful of image blits.
+ */
+public class RenderCache {
+
+	/** Number of pre-rotated frames in a full turn (every 5 degrees). */
+	public static final int ANGLE_STEPS = 72;
+
+	private static final double STEP = 2 * Math.PI / ANGLE_STEPS;
+
+	private static final ConcurrentHashMap<String, BufferedImage[]> atlases = new ConcurrentHashMap<String, BufferedImage[]>();
+	private static volatile BufferedImage grid;
+
+	/**
+	 * @return the grid lines of the whole world on a transparent background
+	 */
+	public static BufferedImage grid() {
+		BufferedImage img = grid;
+		if (img == null) {
+			synchronized (RenderCache.class) {
+				if ((img = grid) == null) {
+					grid = img = renderGrid();
+				}
+			}
+		}
+		return img;
+	}
+
+	/**
+	 * @return the given frame of a robot's sprite rotated to the nearest
+	 *         angular step of angle (in radians, clockwise from north)
+	 */
+	public static BufferedImage robot(String colour, int frame, double angle) {
+		String name = "robot_" + colour + "_" + frame + ".png";
+		BufferedImage[] atlas = atlases.get(name);
+		if (atlas == null) {
+			atlas = atlases.computeIfAbsent(name, RenderCache::renderAtlas);
+		}
+		int i = (int) Math.round(angle / STEP) % ANGLE_STEPS;
+		if (i < 0)
+			i += ANGLE_STEPS;
+		return atlas[i];
+	}
+
+	private static BufferedImage renderGrid() {
+		int size = World.SIZE * WorldComponent.GRID_SIZE;
+		// one pixel spare on each edge so the outer lines aren't clipped
+		BufferedImage img = new BufferedImage(size + 2, size + 2, BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g2d = img.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2d.translate(1, 1);
+		g2d.setColor(Color.BLACK);
+		g2d.setStroke(new BasicStroke(2));
+		for (int i = 0; i <= World.SIZE; i++) {
+			int p = i * WorldComponent.GRID_SIZE;
+			g2d.draw(new Line2D.Double(0, p, size, p));
+			g2d.draw(new Line2D.Double(p, 0, p, size));
+		}
+		g2d.dispose();
+		return img;
+	}
+
+	private static BufferedImage[] renderAtlas(String name) {
+		BufferedImage src = Sprites.get(name);
+		// big enough for the sprite's diagonal at any angle
+		int side = (int) Math.ceil(Math.hypot(src.getWidth(), src.getHeight()));
+		BufferedImage[] atlas = new BufferedImage[ANGLE_STEPS];
+		for (int i = 0; i < ANGLE_STEPS; i++) {
+			BufferedImage img = new BufferedImage(side, side, BufferedImage.TYPE_INT_ARGB_PRE);
+			Graphics2D g2d = img.createGraphics();
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+			g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g2d.translate(side / 2d, side / 2d);
+			g2d.rotate(i * STEP);
+			g2d.translate(-src.getWidth() / 2d, -src.getHeight() / 2d);
+			g2d.drawImage(src, 0, 0, null);
+			g2d.dispose();
+			atlas[i] = img;
+		}
+		return atlas;
+	}
+}
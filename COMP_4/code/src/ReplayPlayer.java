@@ -0,0 +1,174 @@
+import java.awt.Point;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Plays back a file written by ReplayRecorder. The file is memory-mapped,
+ * and any tick can be reached by jumping to the keyframe before it and
+ * applying the deltas from there.
+ */
+public class ReplayPlayer implements Closeable {
+
+	private final FileChannel channel;
+	private final ByteBuffer data;
+	private final int tickCount;
+	private final int[] keyTicks, keyOffsets;
+
+	// the decoded state at tick, [robot][x, y, dir, fuel, shield, action]
+	private int tick = -1;
+	private final int[][] state = new int[3][6];
+	private final boolean[] barrels = new boolean[World.SIZE * World.SIZE];
+
+	public ReplayPlayer(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		data = map;
+
+		byte[] magic = new byte[4];
+		data.get(magic);
+		if (!Arrays.equals(magic, ReplayRecorder.MAGIC))
+			throw new IOException("Not a replay file: " + file);
+		int version = data.get();
+		if (version != ReplayRecorder.VERSION)
+			throw new IOException("Unsupported replay version " + version);
+		if (data.get() != World.SIZE)
+			throw new IOException("Replay is for a different world size");
+		VarInt.read(data); // keyframe interval, only the index is needed
+
+		// the trailer: index offset and magic
+		int end = data.limit();
+		data.position(end - 4);
+		data.get(magic);
+		if (!Arrays.equals(magic, ReplayRecorder.INDEX_MAGIC))
+			throw new IOException("Replay file was not closed properly: " + file);
+		data.position((int) data.getLong(end - 12));
+		tickCount = VarInt.read(data);
+		int keys = VarInt.read(data);
+		keyTicks = new int[keys];
+		keyOffsets = new int[keys];
+		int t = 0, off = 0;
+		for (int i = 0; i < keys; i++) {
+			t += VarInt.read(data);
+			off += VarInt.read(data);
+			keyTicks[i] = t;
+			keyOffsets[i] = off;
+		}
+	}
+
+	public int getTickCount() {
+		return tickCount;
+	}
+
+	public int getTick() {
+		return tick;
+	}
+
+	/**
+	 * Moves to the given tick, decoding forward from the closest keyframe at
+	 * or before it (or from the current tick, if that's closer).
+	 */
+	public void seek(int target) {
+		if (target < 0 || target >= tickCount)
+			throw new IndexOutOfBoundsException("tick " + target + " of " + tickCount);
+		int k = Arrays.binarySearch(keyTicks, target);
+		if (k < 0)
+			k = -k - 2;
+		if (tick > target || tick < keyTicks[k]) {
+			data.position(keyOffsets[k]);
+			tick = keyTicks[k] - 1;
+		}
+		while (tick < target) {
+			next();
+		}
+	}
+
+	/**
+	 * Decodes the next tick.
+	 */
+	public void next() {
+		if (tick + 1 >= tickCount)
+			throw new IndexOutOfBoundsException("tick " + (tick + 1) + " of " + tickCount);
+		boolean keyframe = data.get() == 1;
+		for (int i = 1; i <= 2; i++) {
+			int[] s = state[i];
+			if (keyframe) {
+				s[0] = VarInt.read(data);
+				s[1] = VarInt.read(data);
+				s[2] = VarInt.read(data);
+				s[3] = VarInt.readSigned(data);
+				s[4] = data.get();
+				s[5] = VarInt.read(data);
+			} else {
+				int mask = data.get();
+				if ((mask & ReplayRecorder.CHANGED_X) != 0)
+					s[0] += VarInt.readSigned(data);
+				if ((mask & ReplayRecorder.CHANGED_Y) != 0)
+					s[1] += VarInt.readSigned(data);
+				if ((mask & ReplayRecorder.CHANGED_DIR) != 0)
+					s[2] = VarInt.read(data);
+				if ((mask & ReplayRecorder.CHANGED_FUEL) != 0)
+					s[3] += VarInt.readSigned(data);
+				if ((mask & ReplayRecorder.CHANGED_SHIELD) != 0)
+					s[4] ^= 1;
+				if ((mask & ReplayRecorder.CHANGED_ACTION) != 0)
+					s[5] = VarInt.read(data);
+			}
+		}
+		if (keyframe) {
+			Arrays.fill(barrels, false);
+			readCells(true);
+		} else {
+			readCells(true);
+			readCells(false);
+		}
+		tick++;
+	}
+
+	private void readCells(boolean value) {
+		int count = VarInt.read(data);
+		int cell = 0;
+		for (int i = 0; i < count; i++) {
+			cell += VarInt.read(data);
+			barrels[cell] = value;
+		}
+	}
+
+	/**
+	 * Sets up the world to show the given tick: every robot at its state at
+	 * that tick and heading for its state at the next, and the barrels as
+	 * they were at that tick. World.updateWorld shouldn't be called on it.
+	 */
+	public void show(World world, int t) {
+		seek(t);
+		int[][] from = new int[3][];
+		for (int i = 1; i <= 2; i++) {
+			from[i] = state[i].clone();
+		}
+		Set<Point> fuel = world.getAvailableFuel();
+		fuel.clear();
+		for (int c = 0; c < barrels.length; c++) {
+			if (barrels[c])
+				fuel.add(new Point(c % World.SIZE, c / World.SIZE));
+		}
+		if (t + 1 < tickCount)
+			next();
+		for (int i = 1; i <= 2; i++) {
+			int[] a = from[i], b = state[i];
+			// the action that gets from here to the next tick
+			int action = (tick > t) ? b[5] : 0;
+			world.getRobot(i).setReplayState(a[0], a[1], a[2], a[3], a[4] == 1, action, b[0], b[1], b[2], b[3]);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,184 @@
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records a match, one entry per world update, to a compact binary file
+ * that ReplayPlayer can play back without running the programs.
+ * <p>
+ * The file starts with the magic "RBRP", a version byte, the world size and
+ * the keyframe interval. Every tick then starts with a byte saying whether it
+ * is a keyframe. A keyframe holds each robot's x, y, direction, fuel, shield
+ * and last action, then the barrel cells. Other ticks hold, for each robot, a
+ * mask of the fields that changed and their (zig-zag) differences, then the
+ * barrel cells added and removed. Barrel cells are y * SIZE + x, sorted and
+ * delta encoded. After the last tick comes an index of keyframe ticks and
+ * offsets, the offset of that index as a long, and the magic "RBIX".
+ */
+public class ReplayRecorder implements Closeable {
+
+	static final int VERSION = 1;
+	static final byte[] MAGIC = { 'R', 'B', 'R', 'P' };
+	static final byte[] INDEX_MAGIC = { 'R', 'B', 'I', 'X' };
+	static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+
+	// bits of the per robot change mask
+	static final int CHANGED_X = 1, CHANGED_Y = 2, CHANGED_DIR = 4, CHANGED_FUEL = 8, CHANGED_SHIELD = 16,
+			CHANGED_ACTION = 32;
+
+	private final DataOutputStream out;
+	private final int keyframeInterval;
+	private final List<int[]> index = new ArrayList<int[]>();
+	private int tick = 0;
+
+	// the last state recorded, [robot][field]
+	private final int[][] last = new int[3][6];
+	private boolean[] lastBarrels = new boolean[World.SIZE * World.SIZE];
+	private boolean failed = false, closed = false;
+
+	public ReplayRecorder(File file) throws IOException {
+		this(file, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	public ReplayRecorder(File file, int keyframeInterval) throws IOException {
+		this.keyframeInterval = Math.max(1, keyframeInterval);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.write(MAGIC);
+		out.write(VERSION);
+		out.write(World.SIZE);
+		VarInt.write(out, this.keyframeInterval);
+	}
+
+	/**
+	 * Records the current state of the world as the next tick. Called by the
+	 * World after every update.
+	 */
+	public synchronized void record(World world) {
+		if (failed || closed)
+			return;
+		try {
+			int[][] state = new int[3][];
+			for (int i = 1; i <= 2; i++) {
+				Robot r = world.getRobot(i);
+				state[i] = new int[] { r.getX(), r.getY(), r.getDirection(), r.getFuelLevel(), r.getShield() ? 1 : 0,
+						r.getLastAction() };
+			}
+			boolean[] barrels = new boolean[World.SIZE * World.SIZE];
+			for (Point p : world.getAvailableFuel()) {
+				barrels[p.y * World.SIZE + p.x] = true;
+			}
+
+			if (tick % keyframeInterval == 0) {
+				index.add(new int[] { tick, out.size() });
+				writeKeyframe(state, barrels);
+			} else {
+				writeDelta(state, barrels);
+			}
+			for (int i = 1; i <= 2; i++) {
+				last[i] = state[i];
+			}
+			lastBarrels = barrels;
+			tick++;
+		} catch (IOException e) {
+			e.printStackTrace();
+			failed = true;
+		}
+	}
+
+	private void writeKeyframe(int[][] state, boolean[] barrels) throws IOException {
+		out.write(1);
+		for (int i = 1; i <= 2; i++) {
+			int[] s = state[i];
+			VarInt.write(out, s[0]);
+			VarInt.write(out, s[1]);
+			VarInt.write(out, s[2]);
+			VarInt.writeSigned(out, s[3]);
+			out.write(s[4]);
+			VarInt.write(out, s[5]);
+		}
+		writeCells(barrels, null);
+	}
+
+	private void writeDelta(int[][] state, boolean[] barrels) throws IOException {
+		out.write(0);
+		for (int i = 1; i <= 2; i++) {
+			int[] s = state[i], l = last[i];
+			int mask = 0;
+			for (int f = 0; f < 6; f++) {
+				if (s[f] != l[f])
+					mask |= 1 << f;
+			}
+			out.write(mask);
+			if ((mask & CHANGED_X) != 0)
+				VarInt.writeSigned(out, s[0] - l[0]);
+			if ((mask & CHANGED_Y) != 0)
+				VarInt.writeSigned(out, s[1] - l[1]);
+			if ((mask & CHANGED_DIR) != 0)
+				VarInt.write(out, s[2]);
+			if ((mask & CHANGED_FUEL) != 0)
+				VarInt.writeSigned(out, s[3] - l[3]);
+			// the shield bit in the mask is enough, it can only flip
+			if ((mask & CHANGED_ACTION) != 0)
+				VarInt.write(out, s[5]);
+		}
+		writeCells(barrels, lastBarrels);
+		writeCells(lastBarrels, barrels);
+	}
+
+	/** Writes the cells set in a but not in b (or all of a if b is null). */
+	private void writeCells(boolean[] a, boolean[] b) throws IOException {
+		int count = 0;
+		for (int c = 0; c < a.length; c++) {
+			if (a[c] && (b == null || !b[c]))
+				count++;
+		}
+		VarInt.write(out, count);
+		int prev = 0;
+		for (int c = 0; c < a.length; c++) {
+			if (a[c] && (b == null || !b[c])) {
+				VarInt.write(out, c - prev);
+				prev = c;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of ticks recorded so far
+	 */
+	public synchronized int getTickCount() {
+		return tick;
+	}
+
+	/**
+	 * Writes the keyframe index and closes the file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		if (failed) {
+			out.close();
+			return;
+		}
+		long indexStart = out.size();
+		VarInt.write(out, tick);
+		VarInt.write(out, index.size());
+		int prevTick = 0, prevOffset = 0;
+		for (int[] entry : index) {
+			VarInt.write(out, entry[0] - prevTick);
+			VarInt.write(out, entry[1] - prevOffset);
+			prevTick = entry[0];
+			prevOffset = entry[1];
+		}
+		out.writeLong(indexStart);
+		out.write(INDEX_MAGIC);
+		out.close();
+	}
+}
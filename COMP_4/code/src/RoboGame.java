@@ -14,6 +14,7 @@ import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 
 @SuppressWarnings("serial")
 public class RoboGame extends JFrame {
@@ -43,6 +44,10 @@ public class RoboGame extends JFrame {
 
 		final JMenu loadMenu = new JMenu("Load Program");
 		final JMenu debugMenu = new JMenu("Debug ");
+		final JMenu speedMenu = new JMenu("Speed");
+		final JMenu replayMenu = new JMenu("Replay");
+		final JMenuItem record = new JMenuItem("Record Next Match...");
+		final JMenuItem play = new JMenuItem("Play...");
 		final JMenuItem load1 = new JMenuItem("Robot 1");
 		final JMenuItem load2 = new JMenuItem("Robot 2");
 		final JMenuItem start = new JMenuItem("Start");
@@ -56,6 +61,16 @@ public class RoboGame extends JFrame {
 		loadMenu.add(load2);
 		menu.add(start);
 		menu.add(reset);
+		menu.add(replayMenu);
+		replayMenu.add(record);
+		replayMenu.add(play);
+		menu.add(speedMenu);
+		addSpeed(speedMenu, "0.5x", 0.5);
+		addSpeed(speedMenu, "1x", 1);
+		addSpeed(speedMenu, "2x", 2);
+		addSpeed(speedMenu, "4x", 4);
+		addSpeed(speedMenu, "10x", 10);
+		addSpeed(speedMenu, "As fast as possible", WorldComponent.FASTEST);
 		menu.add(debugMenu);
 		debugMenu.add(debugOn);
 		debugMenu.add(debugOff);
@@ -112,6 +127,32 @@ public class RoboGame extends JFrame {
 			}
 		});
 
+		record.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				JFileChooser chooser = new JFileChooser(".");
+				if (chooser.showSaveDialog(RoboGame.this) == JFileChooser.APPROVE_OPTION) {
+					worldComp.setRecordFile(chooser.getSelectedFile());
+				}
+			}
+		});
+		play.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				File replay = getCodeFile();
+				if (replay != null) {
+					try {
+						worldComp.playReplay(replay);
+						load1.setEnabled(false);
+						load2.setEnabled(false);
+						start.setEnabled(false);
+					} catch (IOException ex) {
+						JOptionPane.showMessageDialog(RoboGame.this, "Can't play replay: " + ex.getMessage());
+					}
+				}
+			}
+		});
+
 		debugOn.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
@@ -155,6 +196,17 @@ public class RoboGame extends JFrame {
 		 */
 	}
 
+	private void addSpeed(JMenu speedMenu, String name, final double speed) {
+		JMenuItem item = new JMenuItem(name);
+		speedMenu.add(item);
+		item.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				worldComp.setSpeed(speed);
+			}
+		});
+	}
+
 	public File getCodeFile() {
 		JFileChooser chooser = new JFileChooser(".");// System.getProperty("user.dir"));
 		int res = chooser.showOpenDialog(this);
@@ -2,17 +2,11 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Point;
-import java.awt.geom.AffineTransform;
+import java.awt.Rectangle;
 import java.awt.geom.Arc2D;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-
-import javax.imageio.ImageIO;
+import java.util.Arrays;
 
 public class Robot {
 
@@ -26,29 +20,10 @@ public class Robot {
 	/**
 	 * Move forward one step.
 	 */
-	public void move() {
+	public synchronized void move() {
 		debug("move");
 		currentAction = ACTION_MOVE;
-		if (dir == DIRECTION.NORTH)
-			targetY -= 1;
-		else if (dir == DIRECTION.WEST)
-			targetX -= 1;
-		else if (dir == DIRECTION.SOUTH)
-			targetY += 1;
-		else
-			targetX += 1;
-		targetX = Math.max(0, targetX);
-		targetY = Math.max(0, targetY);
-		targetX = Math.min(11, targetX);
-		targetY = Math.min(11, targetY);
-		Robot other = world.getOtherRobot(this);
-		if (other != null) {
-			if (other.targetX == targetX && other.targetY == targetY) {
-				// not allowed to move
-				targetX = x;
-				targetY = y;
-			}
-		}
+		aim();
 		processFuelAndBlock();
 		readState();
 	}
@@ -56,23 +31,10 @@ public class Robot {
 	/**
 	 * Turn 90 degrees to the left
 	 */
-	public void turnLeft() {
+	public synchronized void turnLeft() {
 		debug("turnL");
 		currentAction = ACTION_TURN_LEFT;
-		switch (dir) {
-		case NORTH:
-			targetDir = DIRECTION.WEST;
-			break;
-		case WEST:
-			targetDir = DIRECTION.SOUTH;
-			break;
-		case SOUTH:
-			targetDir = DIRECTION.EAST;
-			break;
-		case EAST:
-			targetDir = DIRECTION.NORTH;
-			break;
-		}
+		aim();
 		processFuelAndBlock();
 		readState();
 	}
@@ -80,23 +42,10 @@ public class Robot {
 	/**
 	 * Turn 90 degrees to the right
 	 */
-	public void turnRight() {
+	public synchronized void turnRight() {
 		debug("turnR");
 		currentAction = ACTION_TURN_RIGHT;
-		switch (dir) {
-		case NORTH:
-			targetDir = DIRECTION.EAST;
-			break;
-		case WEST:
-			targetDir = DIRECTION.NORTH;
-			break;
-		case SOUTH:
-			targetDir = DIRECTION.WEST;
-			break;
-		case EAST:
-			targetDir = DIRECTION.SOUTH;
-			break;
-		}
+		aim();
 		processFuelAndBlock();
 		readState();
 	}
@@ -104,23 +53,10 @@ public class Robot {
 	/**
 	 * Turn 180 degrees.
 	 */
-	public void turnAround() {
+	public synchronized void turnAround() {
 		debug("turnAround");
 		currentAction = ACTION_TURN_AROUND;
-		switch (dir) {
-		case NORTH:
-			targetDir = DIRECTION.SOUTH;
-			break;
-		case WEST:
-			targetDir = DIRECTION.EAST;
-			break;
-		case SOUTH:
-			targetDir = DIRECTION.NORTH;
-			break;
-		case EAST:
-			targetDir = DIRECTION.WEST;
-			break;
-		}
+		aim();
 		processFuelAndBlock();
 		readState();
 	}
@@ -138,7 +74,7 @@ public class Robot {
 	/**
 	 * Take fuel barrel or siphon fuel from other robot.
 	 */
-	public void takeFuel() {
+	public synchronized void takeFuel() {
 		debug("takeFuel");
 		currentAction = ACTION_TAKE_FUEL;
 		processFuelAndBlock();
@@ -148,7 +84,7 @@ public class Robot {
 	/**
 	 * Do nothing and wait.
 	 */
-	public void idleWait() {
+	public synchronized void idleWait() {
 		debug("wait");
 		currentAction = ACTION_WAIT;
 		processFuelAndBlock();
@@ -167,17 +103,7 @@ public class Robot {
 	public int getDistanceToWall() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		switch (dir) {
-		case NORTH:
-			return y;
-		case SOUTH:
-			return 11 - y;
-		case WEST:
-			return x;
-		case EAST:
-			return 11 - x;
-		}
-		return 0;
+		return sensors.wallDist;
 	}
 
 	/**
@@ -190,13 +116,10 @@ public class Robot {
 	public int getOpponentLR() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		if (otherRobotPos == null) {
-			debug("oppLR=INFINTY");
-			return INFINITY;
-		} else {
-			debug("oppLR=" + otherRobotPos.x);
-			return otherRobotPos.x;
-		}
+		int val = sensors.oppLR;
+		if (debugging())
+			debug("oppLR=" + ((val == INFINITY) ? "INFINTY" : "" + val));
+		return val;
 	}
 
 	/**
@@ -209,13 +132,10 @@ public class Robot {
 	public int getOpponentFB() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		if (otherRobotPos == null) {
-			debug("oppFB=INFINTY");
-			return INFINITY;
-		} else {
-			debug("oppFB=" + otherRobotPos.y);
-			return otherRobotPos.y;
-		}
+		int val = sensors.oppFB;
+		if (debugging())
+			debug("oppFB=" + ((val == INFINITY) ? "INFINTY" : "" + val));
+		return val;
 	}
 
 	/**
@@ -224,8 +144,10 @@ public class Robot {
 	public int numBarrels() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		debug("numBarrels = " + barrels.size());
-		return barrels.size();
+		int val = sensors.numBarrels();
+		if (debugging())
+			debug("numBarrels = " + val);
+		return val;
 	}
 
 	/**
@@ -236,8 +158,6 @@ public class Robot {
 	 *         the right and 0 if directly in front or behind
 	 */
 	public int getClosestBarrelLR() {
-		if (cancelled)
-			throw new RobotInterruptedException();
 		return getBarrelLR(0);
 	}
 
@@ -249,8 +169,6 @@ public class Robot {
 	 *         and 0 if directly to the left or right.
 	 */
 	public int getClosestBarrelFB() {
-		if (cancelled)
-			throw new RobotInterruptedException();
 		return getBarrelFB(0);
 	}
 
@@ -264,8 +182,9 @@ public class Robot {
 	public int getBarrelLR(int n) {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		int val = (n >= barrels.size()) ? INFINITY : barrels.get(n).x;
-		debug(((n == 0) ? "" : (n + "th")) + "closestBarrelLR = " + ((val == INFINITY) ? "INFINITY" : "" + val));
+		int val = sensors.barrelLR(n);
+		if (debugging())
+			debug(((n == 0) ? "" : (n + "th")) + "closestBarrelLR = " + ((val == INFINITY) ? "INFINITY" : "" + val));
 		return val;
 	}
 
@@ -279,8 +198,9 @@ public class Robot {
 	public int getBarrelFB(int n) {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		int val = (n >= barrels.size()) ? INFINITY : barrels.get(n).y;
-		debug(((n == 0) ? "" : (n + "th")) + "closestBarrelFB = " + ((val == INFINITY) ? "INFINITY" : "" + val));
+		int val = sensors.barrelFB(n);
+		if (debugging())
+			debug(((n == 0) ? "" : (n + "th")) + "closestBarrelFB = " + ((val == INFINITY) ? "INFINITY" : "" + val));
 		return val;
 	}
 
@@ -292,8 +212,33 @@ public class Robot {
 	public int getFuel() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		debug("fuel=" + fuel);
-		return fuel;
+		int val = sensors.fuel;
+		if (debugging())
+			debug("fuel=" + val);
+		return val;
+	}
+
+	/**
+	 * @return what the sensors read this turn, for the sensor nodes, which
+	 *         read it directly rather than through the getters above
+	 */
+	SensorSnapshot getSensors() {
+		if (Metrics.ENABLED)
+			Metrics.sensorCall(place);
+		return sensors;
+	}
+
+	/**
+	 * @return the same as getSensors, for the Interpreter, which counts the
+	 *         sensors it reads itself
+	 */
+	SensorSnapshot currentSensors() {
+		return sensors;
+	}
+
+	/** @return 1 for the red robot and 2 for the blue one */
+	int getPlace() {
+		return place;
 	}
 
 	/**
@@ -306,6 +251,32 @@ public class Robot {
 		return shield;
 	}
 
+	// Budget
+	// ------
+
+	/**
+	 * Called on every pass round a loop. A program that goes round its loops
+	 * more than the robot's budget of times without an action in between is
+	 * stopped, as it would otherwise never give the world a turn; a program
+	 * without loops always gets to an action or its end. This only applies
+	 * to robots that are stepped or don't wait for the world: a robot whose
+	 * world updates on a timer may be looping until the world changes what
+	 * its sensors see. Also stops a robot that has been cancelled, which a
+	 * loop without actions would otherwise never notice.
+	 * 
+	 * @throws RobotInterruptedException
+	 *             if the robot has run out of budget or been cancelled
+	 */
+	public void loopIteration() {
+		if (cancelled)
+			throw new RobotInterruptedException();
+		if (++spent > budget && budget > 0 && (stepped || noWait)) {
+			timedOut = true;
+			debug("out of budget");
+			throw new RobotInterruptedException("Over budget of " + budget + " loop iterations between actions");
+		}
+	}
+
 	// =======================================================
 	// The internal workings of the robot, not needed by the parser or
 	// interpreter.
@@ -316,44 +287,74 @@ public class Robot {
 	    ACTION_TURN_AROUND = 4, ACTION_TAKE_FUEL = 5, ACTION_WAIT = 6,
 	    INFINITY = Integer.MAX_VALUE;  
 
-	private static final int
+	// what each action costs, see processFuel
+	static final int
 	    FUEL_IDLE = 3, FUEL_MOVE = 6, FUEL_TURN = 5, FUEL_SHIELD = 15;
 
+	private static final BasicStroke FUEL_STROKE = new BasicStroke(3);
+
         private enum DIRECTION { NORTH, WEST, SOUTH, EAST }
 
         private World world;
-	private Point otherRobotPos;
-	private List<Point> barrels = new ArrayList<Point>();
+	// what the sensors read, replaced each turn, and how many times it has
+	// been
+	private volatile SensorSnapshot sensors;
+	private long sensorEpoch;
+	private static final int[] NO_BARRELS = new int[0];
 	private RobotProgramNode program;
 
-	private boolean shield, dead, finished, cancelled;
+	private boolean shield, dead, finished;
+	// set by other threads, and read by programs that might not be acting
+	private volatile boolean cancelled;
 	private int fuel = 100, targetFuel;
 	private int x, y, targetX, targetY;
         private DIRECTION dir, targetDir;
     //	private int x, y, dir, targetX, targetY, targetDir;
-	private int currentAction;
+	private int currentAction, lastAction;
+	private Interpreter interpreter;
 	private String colour;
-	private BufferedImage robotImage1, robotImage2, shieldImage;
+	private BufferedImage shieldImage;
+	private final Arc2D.Double fuelArc = new Arc2D.Double(Arc2D.OPEN);
 	private boolean noWait = false;
 
+	/**
+	 * Whether run() goes through the program's compiled form rather than
+	 * calling execute on its nodes. The Interpreter keeps its place on a
+	 * stack of its own, so deeply nested programs can't overflow the Java
+	 * stack.
+	 */
+	private static volatile boolean interpreted = false;
+
+	/** The default budget of loop iterations between actions. */
+	public static final int DEFAULT_BUDGET = 1000000;
+
+	private static volatile int defaultBudget = DEFAULT_BUDGET;
+
+	// loop iterations since the last action, the most allowed, and whether
+	// the program was stopped for going over
+	private int spent, budget = defaultBudget;
+	private boolean timedOut, stepped;
+
+	// where the robot is counted in the Metrics, and when its program started
+	// choosing its next action
+	private final int place;
+	private long choosing;
+
 	public Robot(World world, int x, int y, String colour, boolean noWait) {
 		this.world = world;
 		this.x = x;
 		this.y = y;
 		this.colour = colour;
 		this.noWait = noWait;
+		place = Metrics.robot(colour);
 		targetX = x;
 		targetY = y;
 		dir = (y < World.SIZE / 2) ? DIRECTION.SOUTH : DIRECTION.NORTH;
 		targetDir = dir;
 		targetFuel = fuel;
-		try {
-			robotImage1 = ImageIO.read(new File("assets/robot_" + colour + "_1.png"));
-			robotImage2 = ImageIO.read(new File("assets/robot_" + colour + "_2.png"));
-			shieldImage = ImageIO.read(new File("assets/shield.png"));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// the other robot may not exist yet, and no barrels are seen until
+		// the first update
+		sensors = new SensorSnapshot(0, fuel, distanceToWall(), INFINITY, INFINITY, NO_BARRELS, NO_BARRELS);
 	}
 
 	private ArrayList<String> history = new ArrayList<>();
@@ -373,6 +374,7 @@ public class Robot {
 	 */
 	public void setProgram(RobotProgramNode prog) {
 		program = prog;
+		interpreter = null;
 	}
 
 	/**
@@ -380,13 +382,137 @@ public class Robot {
 	 * program, passing in the robot. Otherwise, calls the default program.
 	 */
 	public void run() {
-		if (program != null) {
+		if (Metrics.ENABLED) {
+			Metrics.programStarted();
+			choosing = Metrics.start();
+		}
+		if (program != null && interpreted) {
+			runInterpreted();
+		} else if (program != null) {
 			program.execute(this);
 		} else {
 			defaultProgram();
 		}
 	}
 
+	public static void setInterpreted(boolean interpreted) {
+		Robot.interpreted = interpreted;
+	}
+
+	/**
+	 * Sets the budget of robots made from now on. 0 means no limit.
+	 */
+	public static void setDefaultBudget(int budget) {
+		defaultBudget = budget;
+	}
+
+	/**
+	 * Sets how many times this robot's program can go round its loops
+	 * without an action before it is stopped. 0 means no limit.
+	 */
+	public void setBudget(int budget) {
+		this.budget = budget;
+	}
+
+	public int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return whether the program was stopped for going over its budget
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	private void runInterpreted() {
+		Interpreter in = new Interpreter(CompiledProgram.of(program));
+		int action;
+		while ((action = in.step(this)) != 0) {
+			switch (action) {
+			case ACTION_MOVE:
+				move();
+				break;
+			case ACTION_TURN_LEFT:
+				turnLeft();
+				break;
+			case ACTION_TURN_RIGHT:
+				turnRight();
+				break;
+			case ACTION_TURN_AROUND:
+				turnAround();
+				break;
+			case ACTION_TAKE_FUEL:
+				takeFuel();
+				break;
+			default:
+				idleWait();
+			}
+		}
+	}
+
+	/**
+	 * Runs this robot's program up to its next action and starts that action
+	 * without blocking, for a world that steps its robots itself instead of
+	 * giving each one a thread. Robots without a valid program step through
+	 * the same default program as run().
+	 */
+	public void step() {
+		if (finished)
+			return;
+		stepped = true;
+		int action;
+		long start = Metrics.ENABLED ? Metrics.start() : 0;
+		try {
+			action = getInterpreter().step(this);
+		} catch (RobotInterruptedException e) {
+			action = 0;
+		} catch (ArithmeticException e) {
+			// division by zero ends the program
+			action = 0;
+		}
+		if (Metrics.ENABLED)
+			Metrics.THINK.since(start);
+		if (action == 0) {
+			setFinished(true);
+		} else {
+			beginAction(action);
+		}
+	}
+
+	private Interpreter getInterpreter() {
+		if (interpreter == null) {
+			if (Metrics.ENABLED)
+				Metrics.programStarted();
+			interpreter = new Interpreter(CompiledProgram.of((program != null) ? program : getDefaultProgram()));
+		}
+		return interpreter;
+	}
+
+	/**
+	 * Starts an action chosen by step().
+	 */
+	private synchronized void beginAction(int action) {
+		if (cancelled)
+			throw new RobotInterruptedException();
+		spent = 0;
+		currentAction = action;
+		if (Metrics.ENABLED)
+			Metrics.action(place);
+		aim();
+		processFuel();
+		// the world applies the action when it next updates, without this
+		// robot waiting for it
+		FlightEvents.RobotAction event = new FlightEvents.RobotAction();
+		if (event.shouldCommit()) {
+			event.robot = place;
+			event.action = FlightEvents.actionName(action);
+			event.fuelDelta = targetFuel - fuel;
+			event.commit();
+		}
+		notifyAll();
+	}
+
 	/**
 	 * Unblocks execution of this robot and hopefully completes its execution.
 	 * Don't call this yourself.
@@ -417,6 +543,10 @@ public class Robot {
 	 * @param time
 	 */
 	public void draw(Graphics2D g2d, double time) {
+		// the shield is only looked up once something actually draws this robot
+		if (shieldImage == null) {
+			shieldImage = Sprites.shield();
+		}
 		double x = this.x * (1 - time) + targetX * time;
 		double y = this.y * (1 - time) + targetY * time;
 		x = x * WorldComponent.GRID_SIZE + WorldComponent.GRID_SIZE / 2d;
@@ -435,21 +565,14 @@ public class Robot {
 			break;
 		}
 
-		AffineTransform trans = new AffineTransform();
-		trans.translate(x, y);
-		trans.rotate(angle);
-		trans.translate(-robotImage1.getWidth() / 2d, -robotImage1.getHeight() / 2d);
-
-		if (((int) (time * 10)) % 2 == 0 && currentAction < ACTION_TAKE_FUEL && currentAction > 0) {
-			g2d.drawImage(robotImage2, trans, null);
-		} else {
-			g2d.drawImage(robotImage1, trans, null);
-		}
+		// pre-rotated sprites, so this is a plain blit
+		int frame = (((int) (time * 10)) % 2 == 0 && currentAction < ACTION_TAKE_FUEL && currentAction > 0) ? 2 : 1;
+		BufferedImage robotImage = RenderCache.robot(colour, frame, angle);
+		g2d.drawImage(robotImage, (int) Math.round(x - robotImage.getWidth() / 2d),
+				(int) Math.round(y - robotImage.getHeight() / 2d), null);
 
 		if (shield) {
-			trans = new AffineTransform();
-			trans.translate(x - 25, y - 25);
-			g2d.drawImage(shieldImage, trans, null);
+			g2d.drawImage(shieldImage, (int) Math.round(x - 25), (int) Math.round(y - 25), null);
 		}
 
 		double fuelCurrent = targetFuel * time + fuel * (1 - time);
@@ -457,12 +580,38 @@ public class Robot {
 			dead = true;
 
 		// draw fuel indicator
-		Arc2D fuelArc = new Arc2D.Double(x - 10, y - 10, 20, 20, -90, 360d * fuelCurrent / 100d, Arc2D.OPEN);
-		g2d.setStroke(new BasicStroke(3));
+		fuelArc.setArc(x - 10, y - 10, 20, 20, -90, 360d * fuelCurrent / 100d, Arc2D.OPEN);
+		g2d.setStroke(FUEL_STROKE);
 		g2d.setColor(Color.GREEN);
 		g2d.draw(fuelArc);
 	}
 
+	/**
+	 * Called by the GUI only.
+	 * 
+	 * @return the area, in pixels, that draw() can paint over during the
+	 *         current turn
+	 */
+	public Rectangle getDrawBounds() {
+		int g = WorldComponent.GRID_SIZE;
+		// rotated sprites reach half a cell past their own cell
+		int left = Math.min(x, targetX) * g - g / 2;
+		int top = Math.min(y, targetY) * g - g / 2;
+		int right = (Math.max(x, targetX) + 1) * g + g / 2;
+		int bottom = (Math.max(y, targetY) + 1) * g + g / 2;
+		return new Rectangle(left, top, right - left, bottom - top);
+	}
+
+	/**
+	 * Called by the GUI only.
+	 * 
+	 * @return whether draw() paints something different as the current turn
+	 *         goes on
+	 */
+	public boolean isAnimating() {
+		return currentAction != 0 || fuel != targetFuel;
+	}
+
 	public boolean isDead() {
 		return dead;
 	}
@@ -502,6 +651,84 @@ public class Robot {
 		return 0;
 	}
 
+	/**
+	 * Sets the target position and direction for the current action.
+	 */
+	private void aim() {
+		switch (currentAction) {
+		case ACTION_MOVE:
+			if (dir == DIRECTION.NORTH)
+				targetY -= 1;
+			else if (dir == DIRECTION.WEST)
+				targetX -= 1;
+			else if (dir == DIRECTION.SOUTH)
+				targetY += 1;
+			else
+				targetX += 1;
+			targetX = Math.max(0, targetX);
+			targetY = Math.max(0, targetY);
+			targetX = Math.min(11, targetX);
+			targetY = Math.min(11, targetY);
+			Robot other = world.getOtherRobot(this);
+			if (other != null) {
+				if (other.targetX == targetX && other.targetY == targetY) {
+					// not allowed to move
+					targetX = x;
+					targetY = y;
+				}
+			}
+			break;
+		case ACTION_TURN_LEFT:
+			switch (dir) {
+			case NORTH:
+				targetDir = DIRECTION.WEST;
+				break;
+			case WEST:
+				targetDir = DIRECTION.SOUTH;
+				break;
+			case SOUTH:
+				targetDir = DIRECTION.EAST;
+				break;
+			case EAST:
+				targetDir = DIRECTION.NORTH;
+				break;
+			}
+			break;
+		case ACTION_TURN_RIGHT:
+			switch (dir) {
+			case NORTH:
+				targetDir = DIRECTION.EAST;
+				break;
+			case WEST:
+				targetDir = DIRECTION.NORTH;
+				break;
+			case SOUTH:
+				targetDir = DIRECTION.WEST;
+				break;
+			case EAST:
+				targetDir = DIRECTION.SOUTH;
+				break;
+			}
+			break;
+		case ACTION_TURN_AROUND:
+			switch (dir) {
+			case NORTH:
+				targetDir = DIRECTION.SOUTH;
+				break;
+			case WEST:
+				targetDir = DIRECTION.EAST;
+				break;
+			case SOUTH:
+				targetDir = DIRECTION.NORTH;
+				break;
+			case EAST:
+				targetDir = DIRECTION.WEST;
+				break;
+			}
+			break;
+		}
+	}
+
 	private void processFuel() {
 		// use fuel
 		targetFuel = fuel;
@@ -547,52 +774,259 @@ public class Robot {
 			targetFuel -= FUEL_SHIELD;
 	}
 
+	/**
+	 * Only called from the synchronized actions, so the world can't update
+	 * this robot half way through choosing an action.
+	 */
 	private void processFuelAndBlock() {
 		if (cancelled)
 			throw new RobotInterruptedException();
+		spent = 0;
+		if (Metrics.ENABLED) {
+			Metrics.THINK.since(choosing);
+			Metrics.action(place);
+		}
+		FlightEvents.RobotAction event = new FlightEvents.RobotAction();
+		event.begin();
+		int action = currentAction;
 		// use fuel
 		processFuel();
+		int fuelDelta = targetFuel - fuel;
 		if (this.noWait) {
 			updatePending();
 		} else {
+			long blocked = Metrics.ENABLED ? Metrics.start() : 0;
+			// wake up a world waiting for this action, then wait for the
+			// world's updatePending() to clear it
+			notifyAll();
 			while (currentAction != 0) {
 				try {
-					Thread.sleep(10);
+					wait();
 				} catch (InterruptedException e) {
 				}
 			}
+			if (Metrics.ENABLED)
+				Metrics.BLOCKED.since(blocked);
 		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.robot = place;
+			event.action = FlightEvents.actionName(action);
+			event.fuelDelta = fuelDelta;
+			event.commit();
+		}
+		if (Metrics.ENABLED)
+			choosing = Metrics.start();
+	}
+
+	/**
+	 * Called by the "World" only. Waits at most the given time for this robot
+	 * to choose its next action.
+	 * 
+	 * @return false if it timed out, true if an action is pending or the
+	 *         robot will not choose any more actions
+	 */
+	public synchronized boolean awaitAction(long millis) {
+		long end = System.currentTimeMillis() + millis;
+		while (currentAction == 0 && !finished && !cancelled) {
+			long left = end - System.currentTimeMillis();
+			if (left <= 0)
+				return false;
+			try {
+				wait(left);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
 	 * Called by the "World" only.
 	 */
-	public void updatePending() {
+	public synchronized void updatePending() {
+		long start = Metrics.ENABLED ? Metrics.start() : 0;
 		// reset turn
 		x = targetX;
 		y = targetY;
 		dir = targetDir;
 		fuel = targetFuel;
+		if (fuel <= 0)
+			dead = true;
 		if (finished) {
 			currentAction = ACTION_WAIT;
 			processFuel();
 		}
-		otherRobotPos = getOtherRobotPosition();
-		barrels = new ArrayList<Point>(world.getAvailableFuel());
-		for (int i = 0; i < barrels.size(); i++) {
-			Point p = toRelative(barrels.get(i));
-			barrels.set(i, p);
+		updateSensors();
+		lastAction = currentAction;
+		currentAction = 0;
+		notifyAll();
+		if (Metrics.ENABLED)
+			Metrics.UPDATE_PENDING.since(start);
+	}
+
+	// Raw state, for recording and replaying matches
+	// -------------------------------------------------
+
+	int getX() {
+		return x;
+	}
+
+	int getY() {
+		return y;
+	}
+
+	/** @return 0 to 3 for north, west, south and east */
+	int getDirection() {
+		return dir.ordinal();
+	}
+
+	int getFuelLevel() {
+		return fuel;
+	}
+
+	boolean getShield() {
+		return shield;
+	}
+
+	/** @return the action applied by the last update, or 0 */
+	int getLastAction() {
+		return lastAction;
+	}
+
+	/**
+	 * Shows this robot part way through a recorded turn: at the first
+	 * position and about to do action, ending at the target position.
+	 */
+	synchronized void setReplayState(int x, int y, int dir, int fuel, boolean shield, int action, int targetX,
+			int targetY, int targetDir, int targetFuel) {
+		this.x = x;
+		this.y = y;
+		this.dir = DIRECTION.values()[dir];
+		this.fuel = fuel;
+		this.shield = shield;
+		this.currentAction = action;
+		this.targetX = targetX;
+		this.targetY = targetY;
+		this.targetDir = DIRECTION.values()[targetDir];
+		this.targetFuel = targetFuel;
+	}
+
+	/**
+	 * The state of a robot between updates. Programs are never changed once
+	 * parsed, so a snapshot shares its robot's program rather than copying it.
+	 */
+	static final class Snapshot {
+		final int x, y, dir, targetX, targetY, targetDir, fuel, targetFuel, currentAction, lastAction;
+		final boolean shield, dead, finished;
+		// how far the program is into its budget, so it runs out when it would have
+		final int spent, budget;
+		final boolean timedOut, stepped;
+		final RobotProgramNode program;
+		// only for robots being stepped, where the program's position is known
+		final Interpreter interpreter;
+
+		private Snapshot(Robot r) {
+			x = r.x;
+			y = r.y;
+			dir = r.dir.ordinal();
+			targetX = r.targetX;
+			targetY = r.targetY;
+			targetDir = r.targetDir.ordinal();
+			fuel = r.fuel;
+			targetFuel = r.targetFuel;
+			currentAction = r.currentAction;
+			lastAction = r.lastAction;
+			shield = r.shield;
+			dead = r.dead;
+			finished = r.finished;
+			spent = r.spent;
+			budget = r.budget;
+			timedOut = r.timedOut;
+			stepped = r.stepped;
+			program = r.program;
+			interpreter = (r.interpreter != null) ? r.interpreter.copy() : null;
 		}
-		Collections.sort(barrels, new Comparator<Point>() {
+	}
+
+	/**
+	 * @return the state of this robot, including any action it has chosen
+	 *         but the world hasn't applied yet
+	 */
+	synchronized Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Puts this robot back into a state from snapshot(). The robot must not
+	 * be running its program, and its sensors aren't updated.
+	 */
+	synchronized void restore(Snapshot s) {
+		x = s.x;
+		y = s.y;
+		dir = DIRECTION.values()[s.dir];
+		targetX = s.targetX;
+		targetY = s.targetY;
+		targetDir = DIRECTION.values()[s.targetDir];
+		fuel = s.fuel;
+		targetFuel = s.targetFuel;
+		currentAction = s.currentAction;
+		lastAction = s.lastAction;
+		shield = s.shield;
+		dead = s.dead;
+		finished = s.finished;
+		spent = s.spent;
+		budget = s.budget;
+		timedOut = s.timedOut;
+		stepped = s.stepped;
+		program = s.program;
+		interpreter = (s.interpreter != null) ? s.interpreter.copy() : null;
+	}
 
-			@Override
-			public int compare(Point p1, Point p2) {
-				int d1 = Math.abs(p1.x) + Math.abs(p1.y);
-				int d2 = Math.abs(p2.x) + Math.abs(p2.y);
-				return d1 - d2;
+	/**
+	 * Works out what the sensors see from the robot's current position. The
+	 * world calls this itself after restoring both robots.
+	 */
+	synchronized void updateSensors() {
+		Point other = getOtherRobotPosition();
+		Point[] barrels = world.getAvailableFuel().toArray(new Point[0]);
+		int n = barrels.length;
+		int[] lr = NO_BARRELS, fb = NO_BARRELS;
+		if (n > 0) {
+			lr = new int[n];
+			fb = new int[n];
+			// closest first, by distance along the grid, and in the order the
+			// world lists them when just as close; the index in the low bits
+			// keeps that order
+			long[] order = new long[n];
+			for (int i = 0; i < n; i++) {
+				Point p = toRelative(barrels[i]);
+				barrels[i] = p;
+				order[i] = ((long) (Math.abs(p.x) + Math.abs(p.y)) << 32) | i;
 			}
-		});
-		currentAction = 0;
+			Arrays.sort(order);
+			for (int i = 0; i < n; i++) {
+				Point p = barrels[(int) order[i]];
+				lr[i] = p.x;
+				fb[i] = p.y;
+			}
+		}
+		sensors = new SensorSnapshot(++sensorEpoch, fuel, distanceToWall(), (other != null) ? other.x : INFINITY,
+				(other != null) ? other.y : INFINITY, lr, fb);
+	}
+
+	private int distanceToWall() {
+		switch (dir) {
+		case NORTH:
+			return y;
+		case SOUTH:
+			return 11 - y;
+		case WEST:
+			return x;
+		case EAST:
+			return 11 - x;
+		}
+		return 0;
 	}
 
 	public String toString() {
@@ -604,11 +1038,35 @@ public class Robot {
 	 * turned on.
 	 */
 	private void debug(String action) {
-		if (RoboGame.debugDisplay && program != null) {
+		if (debugging()) {
 			System.out.println(colour + " robot: " + action);
 		}
 	}
 
+	/** @return whether debug() prints, so its message needn't be made if not */
+	private boolean debugging() {
+		return RoboGame.debugDisplay && program != null;
+	}
+
+	/**
+	 * The default program below, in the robot language, for robots that are
+	 * stepped rather than run.
+	 */
+	private static final String DEFAULT_PROGRAM = "while(gt(fuelLeft, 0)) {"
+			+ "  if(eq(numBarrels, 0)) { wait; }"
+			+ "  else { if(and(eq(barrelLR, 0), eq(barrelFB, 0))) { takeFuel; }"
+			+ "    else { if(eq(barrelFB, 0)) { if(lt(barrelLR, 0)) { turnL; } else { turnR; } }"
+			+ "      else { if(gt(barrelFB, 0)) { move; } else { turnAround; } } } } }";
+
+	private static RobotProgramNode defaultProgramNode;
+
+	static synchronized RobotProgramNode getDefaultProgram() {
+		if (defaultProgramNode == null) {
+			defaultProgramNode = Parser.parseString(DEFAULT_PROGRAM);
+		}
+		return defaultProgramNode;
+	}
+
 	/**
 	 * What the robot will do if it has no valid controller
 	 */
@@ -1,3 +1,10 @@
 @SuppressWarnings("serial")
 public class RobotInterruptedException extends RuntimeException {
+
+	public RobotInterruptedException() {
+	}
+
+	public RobotInterruptedException(String message) {
+		super(message);
+	}
 }
@@ -0,0 +1,74 @@
+/**
+ * What a robot's sensors read for one turn. The robot takes a new snapshot
+ * each time the world updates it (see Robot.updatePending), and nothing a
+ * program can sense changes in between, so sensor nodes read the fields
+ * here instead of asking the robot each time.
+ * <p>
+ * Each snapshot a robot takes has an epoch one more than the last, so
+ * anything that has kept sensor values can tell whether they are still
+ * current by comparing epochs.
+ */
+final class SensorSnapshot {
+
+	final long epoch;
+	final int fuel, wallDist, oppLR, oppFB;
+
+	// the barrels, closest first
+	private final int[] barrelLR, barrelFB;
+
+	/**
+	 * The arrays are kept, not copied.
+	 */
+	SensorSnapshot(long epoch, int fuel, int wallDist, int oppLR, int oppFB, int[] barrelLR, int[] barrelFB) {
+		this.epoch = epoch;
+		this.fuel = fuel;
+		this.wallDist = wallDist;
+		this.oppLR = oppLR;
+		this.oppFB = oppFB;
+		this.barrelLR = barrelLR;
+		this.barrelFB = barrelFB;
+	}
+
+	int numBarrels() {
+		return barrelLR.length;
+	}
+
+	/**
+	 * @return the left-right location of the nth closest barrel, or
+	 *         Robot.INFINITY if there aren't that many
+	 */
+	int barrelLR(int n) {
+		return (n < barrelLR.length) ? barrelLR[n] : Robot.INFINITY;
+	}
+
+	/**
+	 * @return the front-back location of the nth closest barrel, or
+	 *         Robot.INFINITY if there aren't that many
+	 */
+	int barrelFB(int n) {
+		return (n < barrelFB.length) ? barrelFB[n] : Robot.INFINITY;
+	}
+
+	/**
+	 * @return the value of one of the CompiledProgram sensors
+	 */
+	int sense(int sensor) {
+		switch (sensor) {
+		case CompiledProgram.FUEL_LEFT:
+			return fuel;
+		case CompiledProgram.OPP_LR:
+			return oppLR;
+		case CompiledProgram.OPP_FB:
+			return oppFB;
+		case CompiledProgram.NUM_BARRELS:
+			return barrelLR.length;
+		case CompiledProgram.BARREL_LR:
+			return barrelLR(0);
+		case CompiledProgram.BARREL_FB:
+			return barrelFB(0);
+		case CompiledProgram.WALL_DIST:
+			return wallDist;
+		}
+		throw new IllegalStateException("Bad sensor " + sensor);
+	}
+}
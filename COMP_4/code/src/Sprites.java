@@ -0,0 +1,54 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Process-wide cache of the images in the assets folder. An image is only
+ * decoded the first time something asks for it, and is then shared by every
+ * robot and world, so worlds that are never drawn never read from disk.
+ */
+public class Sprites {
+
+	private static final ConcurrentHashMap<String, BufferedImage> images = new ConcurrentHashMap<String, BufferedImage>();
+
+	/**
+	 * Returns the image with the given file name from the assets folder. If
+	 * it can't be read, the error is printed once and a blank image is used
+	 * from then on.
+	 */
+	public static BufferedImage get(String name) {
+		BufferedImage img = images.get(name);
+		if (img == null) {
+			img = images.computeIfAbsent(name, Sprites::load);
+		}
+		return img;
+	}
+
+	public static BufferedImage robot(String colour, int frame) {
+		return get("robot_" + colour + "_" + frame + ".png");
+	}
+
+	public static BufferedImage shield() {
+		return get("shield.png");
+	}
+
+	public static BufferedImage fuel() {
+		return get("fuel.png");
+	}
+
+	private static BufferedImage load(String name) {
+		try {
+			BufferedImage img = ImageIO.read(new File("assets/" + name));
+			if (img != null) {
+				return img;
+			}
+			System.out.println("Unreadable image: assets/" + name);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+	}
+}
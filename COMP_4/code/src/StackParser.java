@@ -0,0 +1,467 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A parser for the same grammar as Parser, building the same nodes, that
+ * keeps track of what it is in the middle of on a stack of its own instead
+ * of the Java call stack. How deeply blocks, conditions and expressions can
+ * nest is only limited by the heap.
+ * <p>
+ * Each frame on the stack is a rule that has been started, with a state
+ * saying how far through it the parser is. A rule that has finished leaves
+ * its node in value and is popped, and the frame under it picks up from
+ * its state with that node.
+ * <p>
+ * Given a list for errors, the parser carries on past syntax errors: each
+ * is added to the list, the statement it was in is dropped, and parsing
+ * picks up again after the next ; or at the next } (skipping any braces in
+ * between), and blocks left open at the end of the file are closed. What
+ * parsed is still returned, so one pass finds every error that isn't
+ * caused by an earlier one.
+ */
+class StackParser {
+
+	// the rules that have frames
+	private static final int PROGRAM = 0, BLOCK = 1, ACTION = 2, IF = 3, WHILE = 4, RELOP = 5, AND_OR = 6,
+			NOT = 7, OP = 8;
+
+	private static final class Frame {
+		int rule, state, token;
+		Object node, first;
+	}
+
+	/** Thrown by fail in place of a ParserFailureException when recovering. */
+	@SuppressWarnings("serial")
+	private static final class Recover extends RuntimeException {
+		Recover() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static final Recover RECOVER = new Recover();
+
+	private final Lexer lex;
+	private final List<ParseError> errors;
+	// where the last error was recovered from, to make sure the next one
+	// gets further
+	private int recoveredAt = -1;
+	private boolean closedAtEnd;
+	private Frame[] stack = new Frame[32];
+	private int depth = 0;
+
+	/** The node made by the last rule to finish. */
+	private Object value;
+
+	StackParser(Lexer lex) {
+		this(lex, null);
+	}
+
+	/**
+	 * @param errors
+	 *            where to add syntax errors and carry on, or null to throw a
+	 *            ParserFailureException at the first
+	 */
+	StackParser(Lexer lex, List<ParseError> errors) {
+		this.lex = lex;
+		this.errors = errors;
+	}
+
+	/**
+	 * Parses a whole program.
+	 *
+	 * @throws ParserFailureException
+	 *             if it isn't one, unless recovering
+	 */
+	RobotProgramNode parseProgram() {
+		ProgNode program = new ProgNode(new ArrayList<RobotProgramNode>());
+		if (lex.kind() == Token.EOF) {
+			error("Empty expr");
+			return program;
+		}
+		push(PROGRAM, program);
+		while (true) {
+			try {
+				if (step())
+					return program;
+			} catch (Recover r) {
+				recover();
+			}
+		}
+	}
+
+	/**
+	 * Takes the rule on top of the stack one step further.
+	 *
+	 * @return whether the program is finished
+	 */
+	private boolean step() {
+		Frame f = stack[depth - 1];
+		switch (f.rule) {
+		case PROGRAM:
+			if (value != null)
+				((ProgNode) f.node).addChild(take());
+			if (lex.kind() == Token.EOF)
+				return true;
+			statement();
+			break;
+
+		case BLOCK:
+			if (f.state == 0) {
+				require(Token.OPEN_BRACE, "No open brace.");
+				f.state = 1;
+			} else if (value != null) {
+				((BlockNode) f.node).addNode(take());
+			}
+			if (lex.kind() == Token.CLOSE_BRACE) {
+				lex.next();
+				finish(f.node);
+			} else if (lex.kind() == Token.EOF) {
+				// when recovering, the block is closed here, and the error
+				// is only reported for the innermost block
+				if (!closedAtEnd)
+					error("No close brack.");
+				closedAtEnd = true;
+				finish(f.node);
+			} else {
+				statement();
+			}
+			break;
+
+		case ACTION:
+			// move(exp) or wait(exp), with the exp in value
+			require(Token.CLOSE_PAREN, "No closing parenthesis.");
+			require(Token.SEMICOLON, " Error: no semicolon.");
+			RobotSensorNode num = (RobotSensorNode) take();
+			finish((f.token == Token.MOVE) ? new MoveNode(num) : new WaitNode(num));
+			break;
+
+		case IF:
+			ifNode i = (ifNode) f.node;
+			if (f.state == 0) {
+				i.setCondNode((RobotConditionNode) take());
+				require(Token.CLOSE_PAREN, "No close parenthesis.");
+				f.state = 1;
+				push(BLOCK, new BlockNode());
+			} else if (f.state == 1) {
+				i.setBlockNode((RobotProgramNode) take());
+				if (lex.kind() == Token.ELSE) {
+					lex.next();
+					i.setElse(true);
+					f.state = 2;
+					push(BLOCK, new BlockNode());
+				} else {
+					finish(i);
+				}
+			} else {
+				i.setElseBlockNode((RobotProgramNode) take());
+				finish(i);
+			}
+			break;
+
+		case WHILE:
+			whileNode w = (whileNode) f.node;
+			if (f.state == 0) {
+				w.setCondNode((RobotConditionNode) take());
+				require(Token.CLOSE_PAREN, "No close parenthesis.");
+				f.state = 1;
+				push(BLOCK, new BlockNode());
+			} else {
+				w.setBlockNode((RobotProgramNode) take());
+				finish(w);
+			}
+			break;
+
+		case RELOP:
+			condNode c = (condNode) f.node;
+			if (f.state == 0) {
+				c.setExpOne((RobotSensorNode) take());
+				require(Token.COMMA, "No comma COND.");
+				f.state = 1;
+				expression();
+			} else {
+				c.setExpTwo((RobotSensorNode) take());
+				require(Token.CLOSE_PAREN, "No close parenthesis.");
+				finish(c);
+			}
+			break;
+
+		case AND_OR:
+			if (f.state == 0) {
+				f.first = take();
+				require(Token.COMMA, "No comma");
+				f.state = 1;
+				condition();
+			} else {
+				RobotConditionNode one = (RobotConditionNode) f.first, two = (RobotConditionNode) take();
+				require(Token.CLOSE_PAREN, "No closing parenthesis");
+				finish((f.token == Token.AND) ? new andNode(one, two) : new orNode(one, two));
+			}
+			break;
+
+		case NOT:
+			RobotConditionNode cond = (RobotConditionNode) take();
+			require(Token.CLOSE_PAREN, "No closing parenthesis");
+			finish(new notNode(cond));
+			break;
+
+		case OP:
+			if (f.state == 0) {
+				f.first = take();
+				require(Token.COMMA, "No comma");
+				f.state = 1;
+				expression();
+			} else {
+				RobotSensorNode one = (RobotSensorNode) f.first, two = (RobotSensorNode) take();
+				require(Token.CLOSE_PAREN, "No close parenthesis.");
+				finish(op(f.token, one, two));
+			}
+			break;
+		}
+		return false;
+	}
+
+	// Starting rules
+	// --------------
+
+	/**
+	 * Starts a statement. Statements that can't hold other rules are made
+	 * there and then and left in value.
+	 */
+	private void statement() {
+		int k = lex.kind();
+		if (Token.isAction(k)) {
+			lex.next();
+			if ((k == Token.MOVE || k == Token.WAIT) && lex.kind() == Token.OPEN_PAREN) {
+				lex.next();
+				push(ACTION, null).token = k;
+				expression();
+				return;
+			}
+			require(Token.SEMICOLON, " Error: no semicolon.");
+			value = action(k);
+		} else if (k == Token.LOOP) {
+			// a loop is just its block
+			lex.next();
+			push(BLOCK, new BlockNode());
+		} else if (k == Token.IF || k == Token.WHILE) {
+			lex.next();
+			require(Token.OPEN_PAREN, "No open parenthesis.");
+			push((k == Token.IF) ? IF : WHILE, (k == Token.IF) ? new ifNode() : new whileNode());
+			condition();
+		} else {
+			fail("Unknown statement");
+		}
+	}
+
+	private void condition() {
+		int k = lex.kind();
+		if (Token.isRelop(k)) {
+			lex.next();
+			require(Token.OPEN_PAREN, "No open parenthesis.");
+			condNode c = new condNode();
+			c.setRelop((k == Token.LT) ? new ltNode() : (k == Token.GT) ? new gtNode() : new eqNode());
+			push(RELOP, c);
+			expression();
+		} else if (k == Token.AND || k == Token.OR || k == Token.NOT) {
+			lex.next();
+			require(Token.OPEN_PAREN, "No open parenthesis");
+			push((k == Token.NOT) ? NOT : AND_OR, null).token = k;
+			condition();
+		} else {
+			fail("Not a condition");
+		}
+	}
+
+	private void expression() {
+		int k = lex.kind();
+		if (k == Token.NUMBER) {
+			value = new numNode(lex.value());
+			lex.next();
+		} else if (Token.isSensor(k)) {
+			value = sensor(k);
+			lex.next();
+		} else if (Token.isOp(k)) {
+			lex.next();
+			require(Token.OPEN_PAREN, "No open parenthesis.");
+			push(OP, null).token = k;
+			expression();
+		} else {
+			fail("Not an expression");
+		}
+	}
+
+	// Nodes
+	// -----
+
+	private static RobotProgramNode action(int k) {
+		switch (k) {
+		case Token.MOVE:
+			return new MoveNode();
+		case Token.TURN_L:
+			return new TurnLNode();
+		case Token.TURN_R:
+			return new TurnRNode();
+		case Token.TURN_AROUND:
+			return new turnAroundNode();
+		case Token.TAKE_FUEL:
+			return new TakeFuelNode();
+		case Token.WAIT:
+			return new WaitNode();
+		case Token.SHIELD_ON:
+			return new shieldOnNode();
+		default:
+			return new shieldOffNode();
+		}
+	}
+
+	private static RobotSensorNode sensor(int k) {
+		switch (k) {
+		case Token.FUEL_LEFT:
+			return new fuelLeftNode();
+		case Token.OPP_LR:
+			return new oppLRNode();
+		case Token.OPP_FB:
+			return new oppFBNode();
+		case Token.NUM_BARRELS:
+			return new numBarrelsNode();
+		case Token.BARREL_LR:
+			return new barrelLRNode();
+		case Token.BARREL_FB:
+			return new barrelFBNode();
+		default:
+			return new wallDistNode();
+		}
+	}
+
+	private static RobotSensorNode op(int k, RobotSensorNode one, RobotSensorNode two) {
+		switch (k) {
+		case Token.ADD:
+			return new addNode(one, two);
+		case Token.SUB:
+			return new subNode(one, two);
+		case Token.MUL:
+			return new mulNode(one, two);
+		default:
+			return new divNode(one, two);
+		}
+	}
+
+	// The stack
+	// ---------
+
+	private Frame push(int rule, Object node) {
+		if (depth == stack.length)
+			stack = Arrays.copyOf(stack, depth * 2);
+		Frame f = stack[depth];
+		if (f == null)
+			f = stack[depth] = new Frame();
+		depth++;
+		f.rule = rule;
+		f.state = 0;
+		f.token = 0;
+		f.node = node;
+		f.first = null;
+		return f;
+	}
+
+	private void finish(Object node) {
+		Frame f = stack[--depth];
+		f.node = f.first = null;
+		value = node;
+	}
+
+	/** @return value, which is then cleared */
+	private <T> T take() {
+		@SuppressWarnings("unchecked")
+		T v = (T) value;
+		value = null;
+		return v;
+	}
+
+	// Recovering
+	// ----------
+
+	/**
+	 * Skips the rest of the statement the error was in and drops the frames
+	 * for it, back to the innermost block that has been opened (or the
+	 * program). Stops after a ; or at a } that isn't inside braces that were
+	 * opened since, or at the end of the file.
+	 */
+	private void recover() {
+		value = null;
+		while (depth > 1 && !(stack[depth - 1].rule == BLOCK && stack[depth - 1].state > 0)) {
+			finish(null);
+		}
+		value = null;
+		if (lex.offset() == recoveredAt)
+			lex.next(); // stuck on the same token as last time
+		int braces = 0;
+		while (true) {
+			int k = lex.kind();
+			if (k == Token.EOF)
+				break;
+			if (k == Token.SEMICOLON && braces == 0) {
+				lex.next();
+				break;
+			}
+			if (k == Token.OPEN_BRACE) {
+				braces++;
+			} else if (k == Token.CLOSE_BRACE) {
+				if (braces == 0 && depth > 1)
+					break; // closes the block
+				if (braces == 0 || --braces == 0) {
+					// the end of the braces, or a stray } in the program
+					lex.next();
+					break;
+				}
+			}
+			lex.next();
+		}
+		recoveredAt = lex.offset();
+	}
+
+	/**
+	 * Reports an error that the parser can carry on from where it is: throws
+	 * the ParserFailureException, or adds the error to the list if
+	 * recovering.
+	 */
+	private void error(String message) {
+		if (errors == null)
+			fail(message);
+		errors.add(new ParseError(message, lex.line(), lex.column(), lex.offset()));
+	}
+
+	// Tokens
+	// ------
+
+	private void require(int kind, String message) {
+		if (lex.kind() != kind)
+			fail(message);
+		lex.next();
+	}
+
+	/**
+	 * Throws a ParserFailureException saying where the parser got to and
+	 * showing the next few tokens, like Parser.fail. When recovering, adds
+	 * the error to the list instead, saying what was found, and throws
+	 * Recover to parseProgram.
+	 */
+	private void fail(String message) {
+		if (errors != null) {
+			String m = message.trim();
+			if (m.endsWith("."))
+				m = m.substring(0, m.length() - 1);
+			errors.add(new ParseError(m + ", found " + Token.describe(lex.kind()), lex.line(), lex.column(),
+					lex.offset()));
+			throw RECOVER;
+		}
+		int offset = lex.offset();
+		String msg = message + "\n   @ line " + lex.line() + ", column " + lex.column() + ": ...";
+		for (int i = 0; i < 5 && lex.kind() != Token.EOF; i++) {
+			msg += " " + lex.text();
+			lex.next();
+		}
+		throw new ParserFailureException(msg + "...", offset);
+	}
+}
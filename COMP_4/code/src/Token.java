@@ -0,0 +1,141 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The kinds of token the lexers produce, and the table of keywords. A token
+ * is whatever the Parser's DELIMITER would split out: a run of characters
+ * up to whitespace or one of (){},; or one of those characters on its own.
+ */
+final class Token {
+
+	static final int EOF = 0, ERROR = 1, NUMBER = 2, OPEN_PAREN = 3, CLOSE_PAREN = 4, OPEN_BRACE = 5,
+			CLOSE_BRACE = 6, COMMA = 7, SEMICOLON = 8;
+
+	// keywords, in the same order as KEYWORDS
+	static final int MOVE = 9, TURN_L = 10, TURN_R = 11, TURN_AROUND = 12, TAKE_FUEL = 13, WAIT = 14,
+			SHIELD_ON = 15, SHIELD_OFF = 16, LOOP = 17, IF = 18, ELSE = 19, WHILE = 20, LT = 21, GT = 22, EQ = 23,
+			AND = 24, OR = 25, NOT = 26, ADD = 27, SUB = 28, MUL = 29, DIV = 30, FUEL_LEFT = 31, OPP_LR = 32,
+			OPP_FB = 33, NUM_BARRELS = 34, BARREL_LR = 35, BARREL_FB = 36, WALL_DIST = 37;
+
+	static final int FIRST_KEYWORD = MOVE;
+
+	static final String[] KEYWORDS = { "move", "turnL", "turnR", "turnAround", "takeFuel", "wait", "shieldOn",
+			"shieldOff", "loop", "if", "else", "while", "lt", "gt", "eq", "and", "or", "not", "add", "sub", "mul",
+			"div", "fuelLeft", "oppLR", "oppFB", "numBarrels", "barrelLR", "barrelFB", "wallDist" };
+
+	// the keywords that start with each letter, so a word is only compared
+	// against a few of them
+	private static final int[][] BY_FIRST = new int[128][];
+
+	static {
+		for (int c = 0; c < 128; c++) {
+			int n = 0;
+			for (String k : KEYWORDS) {
+				if (k.charAt(0) == c)
+					n++;
+			}
+			BY_FIRST[c] = new int[n];
+			n = 0;
+			for (int i = 0; i < KEYWORDS.length; i++) {
+				if (KEYWORDS[i].charAt(0) == c)
+					BY_FIRST[c][n++] = FIRST_KEYWORD + i;
+			}
+		}
+	}
+
+	private Token() {
+	}
+
+	static boolean isAction(int kind) {
+		return kind >= MOVE && kind <= SHIELD_OFF;
+	}
+
+	static boolean isRelop(int kind) {
+		return kind >= LT && kind <= EQ;
+	}
+
+	static boolean isOp(int kind) {
+		return kind >= ADD && kind <= DIV;
+	}
+
+	static boolean isSensor(int kind) {
+		return kind >= FUEL_LEFT && kind <= WALL_DIST;
+	}
+
+	/**
+	 * @return the character's token kind if it is one of (){},; or -1
+	 */
+	static int punctuation(int c) {
+		switch (c) {
+		case '(':
+			return OPEN_PAREN;
+		case ')':
+			return CLOSE_PAREN;
+		case '{':
+			return OPEN_BRACE;
+		case '}':
+			return CLOSE_BRACE;
+		case ',':
+			return COMMA;
+		case ';':
+			return SEMICOLON;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the keyword the characters from start to end spell, or ERROR
+	 */
+	static int keyword(CharSequence s, int start, int end) {
+		int first = s.charAt(start);
+		if (first >= 128)
+			return ERROR;
+		for (int kind : BY_FIRST[first]) {
+			String k = KEYWORDS[kind - FIRST_KEYWORD];
+			if (k.length() != end - start)
+				continue;
+			int i = 1;
+			while (i < k.length() && k.charAt(i) == s.charAt(start + i))
+				i++;
+			if (i == k.length())
+				return kind;
+		}
+		return ERROR;
+	}
+
+	/**
+	 * @return the keyword the ASCII bytes from start to end spell, or ERROR
+	 */
+	static int keyword(ByteBuffer b, int start, int end) {
+		int first = b.get(start);
+		if (first < 0)
+			return ERROR;
+		for (int kind : BY_FIRST[first]) {
+			String k = KEYWORDS[kind - FIRST_KEYWORD];
+			if (k.length() != end - start)
+				continue;
+			int i = 1;
+			while (i < k.length() && k.charAt(i) == b.get(start + i))
+				i++;
+			if (i == k.length())
+				return kind;
+		}
+		return ERROR;
+	}
+
+	/**
+	 * @return a description of the token kind for error messages
+	 */
+	static String describe(int kind) {
+		switch (kind) {
+		case EOF:
+			return "end of file";
+		case ERROR:
+			return "unknown token";
+		case NUMBER:
+			return "number";
+		}
+		if (kind < FIRST_KEYWORD)
+			return "'" + "(){},;".charAt(kind - OPEN_PAREN) + "'";
+		return "'" + KEYWORDS[kind - FIRST_KEYWORD] + "'";
+	}
+}
@@ -0,0 +1,39 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length integers for the binary file formats: 7 bits per byte,
+ * low bits first, with the top bit set on every byte but the last. Signed
+ * values are zig-zag encoded first so small negative numbers stay short.
+ */
+public class VarInt {
+
+	public static void write(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	public static void writeSigned(OutputStream out, int value) throws IOException {
+		write(out, (value << 1) ^ (value >> 31));
+	}
+
+	public static int read(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	public static int readSigned(ByteBuffer in) {
+		int v = read(in);
+		return (v >>> 1) ^ -(v & 1);
+	}
+}
@@ -5,9 +5,9 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -15,18 +15,43 @@ public class World {
 
 	public static final int SIZE = 12;
 
+	/** Whether loadRobotProgram prints each program it loads. */
+	private static volatile boolean printPrograms = true;
+
+	/** Whether loadRobotProgram optimizes and fuses each program. */
+	private static volatile boolean optimizePrograms = false;
+
+	/** Whether the ProgramFuser also reorders the ands and ors in conditions. */
+	private static volatile boolean reorderConditions = false;
+
 	protected Set<Point> availableFuel = Collections.newSetFromMap(new ConcurrentHashMap<Point, Boolean>());
-	private Random rand = new Random();
+	private WorldRandom rand = new WorldRandom();
 	protected Robot[] robots;
+	private ReplayRecorder recorder;
+	// the flight recorder's event for the match being played, until it ends
+	private FlightEvents.MatchEnd matchEvent;
+	private final boolean noWait;
+	private int tick = 0;
 
 	public World() {
-		robots = new Robot[] { null, new Robot(this, 0, 0, "red", false), new Robot(this, SIZE - 1, SIZE - 1, "blue", false) };
+		this(false);
+	}
+
+	/**
+	 * @param noWait
+	 *            whether the robots run straight through their programs
+	 *            instead of waiting for the timer
+	 */
+	protected World(boolean noWait) {
+		this.noWait = noWait;
+		robots = new Robot[] { null, new Robot(this, 0, 0, "red", noWait), new Robot(this, SIZE - 1, SIZE - 1, "blue", noWait) };
 	}
 
 	/**
 	 * This world can no longer be used after this call.
 	 */
 	public void reset() {
+		endMatch();
 		availableFuel.clear();
 		for (int i = 1; i <= 2; i++) {
 			robots[i].updatePending();
@@ -39,27 +64,180 @@ public class World {
 	}
 
 	public void updateWorld() {
+		long start = Metrics.ENABLED ? Metrics.start() : 0;
+		FlightEvents.Tick event = new FlightEvents.Tick();
+		event.begin();
+		tick++;
 		addFuel(false);
 		for (int i = 1; i <= 2; i++) {
 			robots[i].updatePending();
 		}
+		if (recorder != null)
+			recorder.record(this);
+		event.end();
+		if (event.shouldCommit()) {
+			event.tick = tick;
+			event.barrels = availableFuel.size();
+			event.commit();
+		}
+		if (Metrics.ENABLED)
+			Metrics.tick(start);
+		if (robots[1].isDead() || robots[2].isDead())
+			endMatch();
+	}
+
+	/**
+	 * Records every update of this world, from the start, to the given
+	 * recorder. Closing the recorder is up to the caller.
+	 */
+	public void setRecorder(ReplayRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Makes the barrels appear in the same places every time for the same
+	 * seed.
+	 */
+	public void setSeed(long seed) {
+		rand.setSeed(seed);
+	}
+
+	/**
+	 * @return the number of updates so far
+	 */
+	public int getTick() {
+		return tick;
+	}
+
+	/**
+	 * Takes an immutable copy of this world's state. It should be taken
+	 * between updates. The position in each robot's program is only part of
+	 * it for worlds being stepped: robots running on their own threads
+	 * start their programs from the beginning in a restored world.
+	 */
+	public WorldSnapshot snapshot() {
+		Robot.Snapshot[] rs = new Robot.Snapshot[] { null, robots[1].snapshot(), robots[2].snapshot() };
+		int[] cells = new int[availableFuel.size()];
+		int n = 0;
+		for (Point p : availableFuel) {
+			if (n == cells.length)
+				cells = Arrays.copyOf(cells, n * 2 + 1);
+			cells[n++] = p.y * SIZE + p.x;
+		}
+		cells = Arrays.copyOf(cells, n);
+		Arrays.sort(cells);
+		return new WorldSnapshot(tick, rand.getState(), noWait, cells, rs);
+	}
+
+	/**
+	 * Puts this world into the state of the snapshot. The robots must not be
+	 * running their programs.
+	 */
+	public void restore(WorldSnapshot snap) {
+		tick = snap.tick;
+		rand.setState(snap.randomState);
+		availableFuel.clear();
+		for (int i = 0; i < snap.getBarrelCount(); i++) {
+			availableFuel.add(snap.getBarrel(i));
+		}
+		// both robots first, then their sensors, which look at each other
+		for (int i = 1; i <= 2; i++) {
+			robots[i].restore(snap.robots[i]);
+		}
+		for (int i = 1; i <= 2; i++) {
+			robots[i].updateSensors();
+		}
 	}
 
 	public void loadRobotProgram(int id, File code) {
-		RobotProgramNode prog = Parser.parseFile(code);
+		// a program saved by AstCodec.writeProgram is loaded without parsing
+		RobotProgramNode prog = AstCodec.isProgramFile(code) ? AstCodec.loadProgram(code) : Parser.parseFile(code);
 		if (prog != null) {
-			System.out.println("Robot " + id + " now has program: ");
-			System.out.println(prog);
+			if (printPrograms) {
+				System.out.println("Robot " + id + " now has program: ");
+				ProgramPrinter.print(prog, System.out);
+			}
+			// a world that waits can be started on threads, where loops
+			// without actions can end
+			if (optimizePrograms)
+				prog = ProgramFuser.fuse(ProgramOptimizer.optimize(prog, noWait), reorderConditions);
 			robots[id].setProgram(prog);
 		}
 	}
 
-	public void start() {
+	public static void setPrintPrograms(boolean print) {
+		printPrograms = print;
+	}
+
+	/**
+	 * Sets whether programs are run through the ProgramOptimizer and the
+	 * ProgramFuser as they are loaded. This is off unless turned on. Unless
+	 * the robots don't wait for the world, programs are optimized for robots
+	 * run on threads, which is also right for stepped ones.
+	 */
+	public static void setOptimizePrograms(boolean optimize) {
+		optimizePrograms = optimize;
+	}
+
+	/**
+	 * Sets whether the ProgramFuser reorders the ands and ors in the
+	 * conditions of programs it fuses, to try the cheapest and most telling
+	 * parts first. This is off unless turned on, and does nothing if programs
+	 * aren't optimized.
+	 */
+	public static void setReorderConditions(boolean reorder) {
+		reorderConditions = reorder;
+	}
+
+	/**
+	 * Adds the initial fuel, and records the starting state if recording.
+	 */
+	private void prepare() {
 		// add some initial fuel
 		if (availableFuel.isEmpty()) {
 			addFuel(true);
 			addFuel(true);
 		}
+		if (recorder != null)
+			recorder.record(this);
+	}
+
+	/**
+	 * Starts the flight recorder's events for a match.
+	 */
+	private void startMatch(boolean stepped) {
+		FlightEvents.MatchStart event = new FlightEvents.MatchStart();
+		if (event.shouldCommit()) {
+			event.stepped = stepped;
+			event.commit();
+		}
+		matchEvent = new FlightEvents.MatchEnd();
+		matchEvent.begin();
+	}
+
+	/**
+	 * Ends the flight recorder's event for the match being played, if there
+	 * is one that hasn't ended.
+	 */
+	private void endMatch() {
+		FlightEvents.MatchEnd event = matchEvent;
+		if (event == null)
+			return;
+		matchEvent = null;
+		event.end();
+		if (event.shouldCommit()) {
+			MatchResult r = MatchResult.of(this);
+			event.winner = r.getWinner();
+			event.ticks = r.getTicks();
+			event.fuel1 = r.getFuel(1);
+			event.fuel2 = r.getFuel(2);
+			event.commit();
+		}
+	}
+
+	public void start() {
+		prepare();
+		startMatch(false);
 		new Thread(new Runnable() {
 			@Override
 			public void run() {
@@ -82,6 +260,38 @@ public class World {
 		}).start();
 	}
 
+	/**
+	 * Plays a whole match on the calling thread instead of starting a thread
+	 * for each robot: every update steps both programs to their next action
+	 * and then updates the world. Stops when a robot runs out of fuel or
+	 * after maxTicks updates, which ends the match as far as the flight
+	 * recorder is concerned if any were played.
+	 */
+	public MatchResult runMatch(int maxTicks) {
+		if (tick == 0) {
+			prepare();
+			startMatch(true);
+		}
+		int from = tick;
+		while (tick < maxTicks && !robots[1].isDead() && !robots[2].isDead()) {
+			step();
+		}
+		// a robot running out of fuel has already ended it
+		if (tick > from)
+			endMatch();
+		return MatchResult.of(this);
+	}
+
+	/**
+	 * One update of a match being stepped rather than run on threads.
+	 */
+	public void step() {
+		for (int i = 1; i <= 2; i++) {
+			robots[i].step();
+		}
+		updateWorld();
+	}
+
 	public Robot getRobot(int id) {
 		if (id <= 0 || id > robots.length) {
 			return null;
@@ -109,10 +319,9 @@ public class World {
 	
 	public static class RoboGamePrinter extends World {
 		public RoboGamePrinter() {
-			super();
-			// we remake the robots to have noWait set to true, this makes the program run without the timer.
+			// the robots have noWait set to true, this makes the program run without the timer.
 			// the blue robot is never used, but the red robot does call some methods on it so we can't make it null.
-			this.robots = new Robot[] { null, new Robot(this, 0, 0, "red", true), new Robot(this, SIZE - 1, SIZE - 1, "blue", true) };
+			super(true);
 		}
 
 		public static void main(String[] args) throws IOException {
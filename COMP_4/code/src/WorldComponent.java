@@ -1,21 +1,27 @@
-import java.awt.BasicStroke;
-import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
-import java.awt.geom.Line2D;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import javax.imageio.ImageIO;
 import javax.swing.JComponent;
 import javax.swing.JOptionPane;
+import javax.swing.Timer;
 
 @SuppressWarnings("serial")
 public class WorldComponent extends JComponent {
@@ -24,59 +30,190 @@ public class WorldComponent extends JComponent {
 	private static final int ANIMATION_DELAY = 20;
 	private static final int WORLD_UPDATE_DELAY = 33;
 
-	private BufferedImage fuelImage;
+	/** Milliseconds between world updates at normal speed. */
+	private static final int TICK_DELAY = ANIMATION_DELAY * WORLD_UPDATE_DELAY;
+
+	/** Speed at which the world updates as soon as both robots have acted. */
+	public static final double FASTEST = 0;
+
 	private World world;
-	private Timer timer;
 
-	private int frame = 0;
+	// the world is updated on its own thread, the animation on the swing one
+	private ScheduledExecutorService ticker;
+	private ScheduledFuture<?> ticks;
+	private Timer animator;
+	private volatile int generation = 0;
+	private volatile double speed = 1;
+	private volatile long tickNanos = TICK_DELAY * 1000000L;
+	private volatile long lastTick;
+
+	// a recording being made, or a replay being played instead of the world
+	private File recordFile;
+	private ReplayRecorder recorder;
+	private ReplayPlayer replay;
+	private volatile int replayTick;
+
+	// how far through the current tick the animation is
+	private double time = 0;
+
+	// what was last painted, so only what changed gets painted again
+	private Rectangle[] drawnBounds = new Rectangle[3];
+	private Set<Point> drawnFuel = new HashSet<Point>();
 
 	public WorldComponent() {
 		super();
 		world = new World();
 		setPreferredSize(new Dimension(600, 600));
-
-		try {
-			fuelImage = ImageIO.read(new File("assets/fuel.png"));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
 	}
 
 	public void start() {
-		timer = new Timer();
-		timer.schedule(new AnimationTask(), 0, ANIMATION_DELAY);
-		world.start();
+		ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "world ticks");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduleTicks();
+		animator = new Timer(ANIMATION_DELAY, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				animate();
+			}
+		});
+		animator.start();
+		if (replay == null) {
+			if (recordFile != null) {
+				try {
+					recorder = new ReplayRecorder(recordFile);
+					world.setRecorder(recorder);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				// only the next match is recorded
+				recordFile = null;
+			}
+			world.start();
+		}
 	}
 
 	public void reset() {
-		if (timer != null)
-			timer.cancel();
+		stop();
 		world.reset();
 		world = new World();
+		if (replay != null) {
+			try {
+				replay.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			replay = null;
+		}
+		drawnBounds = new Rectangle[3];
+		drawnFuel = new HashSet<Point>();
+		time = 0;
 	}
 
 	public void loadRobotProgram(int rob, File code) {
 		world.loadRobotProgram(rob, code);
 	}
 
+	/**
+	 * Sets the file the next match started is recorded to, or null to not
+	 * record it. Later matches aren't recorded unless this is called again.
+	 */
+	public void setRecordFile(File file) {
+		recordFile = file;
+	}
+
+	/**
+	 * Resets the world and plays the recorded match from the given file
+	 * instead of running any programs.
+	 */
+	public void playReplay(File file) throws IOException {
+		reset();
+		replay = new ReplayPlayer(file);
+		replayTick = 0;
+		if (replay.getTickCount() > 0) {
+			replay.show(world, 0);
+		}
+		repaint();
+		start();
+	}
+
+	/**
+	 * Sets how many times faster than normal the world updates. FASTEST
+	 * updates it as soon as both robots have chosen their actions, and only
+	 * draws the latest state at the normal frame rate.
+	 */
+	public void setSpeed(double speed) {
+		this.speed = speed;
+		if (ticker != null)
+			scheduleTicks();
+	}
+
+	public double getSpeed() {
+		return speed;
+	}
+
+	private void scheduleTicks() {
+		int gen = ++generation;
+		if (ticks != null)
+			ticks.cancel(false);
+		ticks = null;
+		lastTick = System.nanoTime();
+		if (speed <= FASTEST) {
+			ticker.execute(new LogicTask(gen, world, replay));
+		} else {
+			tickNanos = (long) (TICK_DELAY * 1000000L / speed);
+			ticks = ticker.scheduleAtFixedRate(new LogicTask(gen, world, replay), tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void stop() {
+		generation++;
+		if (ticker != null)
+			ticker.shutdownNow();
+		ticker = null;
+		ticks = null;
+		if (animator != null)
+			animator.stop();
+		animator = null;
+		if (recorder != null) {
+			try {
+				recorder.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			world.setRecorder(null);
+			recorder = null;
+		}
+	}
+
 	@Override
 	protected void paintComponent(Graphics g) {
 		Graphics2D g2d = (Graphics2D) g;
+		paintWorld(g2d, world, time, g2d.getClipBounds());
+	}
+
+	/**
+	 * Paints the world as it is the given fraction of the way through the
+	 * current tick. Anything outside clip (if not null) may be skipped. This
+	 * doesn't need a component, so it can also paint off-screen images.
+	 */
+	public static void paintWorld(Graphics2D g2d, World world, double time, Rectangle clip) {
 		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 		g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
 
-		g2d.setColor(Color.BLACK);
-		g2d.setStroke(new BasicStroke(2));
-
-		for (int i = 0; i <= World.SIZE; i++) {
-			Line2D hline = new Line2D.Double(0, i * GRID_SIZE, 600, i * GRID_SIZE);
-			Line2D vline = new Line2D.Double(i * GRID_SIZE, 0, i * GRID_SIZE, 600);
-			g2d.draw(hline);
-			g2d.draw(vline);
-		}
+		// the grid is pre-rendered with a pixel spare around it
+		g2d.drawImage(RenderCache.grid(), -1, -1, null);
 
+		BufferedImage fuelImage = Sprites.fuel();
 		for (Point fuel : world.getAvailableFuel()) {
+			if (clip != null && !clip.intersects(cellBounds(fuel)))
+				continue;
 			int x = fuel.x * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getWidth() / 2;
 			int y = fuel.y * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getHeight() / 2;
 			g2d.drawImage(fuelImage, x, y, null);
@@ -84,40 +221,123 @@ public class WorldComponent extends JComponent {
 
 		for (int i = 1; i <= 2; i++) {
 			Robot rob;
-			if ((rob = world.getRobot(i)) != null)
-				rob.draw(g2d, getTimeRatio());
+			if ((rob = world.getRobot(i)) != null && (clip == null || clip.intersects(rob.getDrawBounds())))
+				rob.draw(g2d, time);
 		}
 	}
 
 	private double getTimeRatio() {
-		int base = frame / WORLD_UPDATE_DELAY;
-		return (double) frame / WORLD_UPDATE_DELAY - base;
+		if (speed <= FASTEST)
+			return 0;
+		double t = (double) (System.nanoTime() - lastTick) / tickNanos;
+		return Math.max(0, Math.min(1, t));
 	}
 
-	private class AnimationTask extends TimerTask {
+	private static Rectangle cellBounds(Point p) {
+		return new Rectangle(p.x * GRID_SIZE, p.y * GRID_SIZE, GRID_SIZE, GRID_SIZE);
+	}
 
-		public AnimationTask() {
-			frame = 0;
+	/**
+	 * Called on the swing thread every frame. Paints only the cells whose
+	 * robots or barrels changed since the last frame.
+	 */
+	private void animate() {
+		// test for any deaths
+		boolean r1dead = world.getRobot(1).isDead();
+		boolean r2dead = world.getRobot(2).isDead();
+		if (r1dead || r2dead) {
+			stop();
+			repaint();
+			String msg = (r1dead && r2dead) ? "Both robots" : r1dead ? "Robot 1 (red)" : "Robot 2 (blue)";
+			JOptionPane.showMessageDialog(null, msg + " ran out of fuel!");
+			return;
+		}
+
+		time = getTimeRatio();
+		List<Rectangle> dirty = new ArrayList<Rectangle>();
+		for (int i = 1; i <= 2; i++) {
+			Robot rob = world.getRobot(i);
+			Rectangle bounds = rob.getDrawBounds();
+			if (rob.isAnimating() || !bounds.equals(drawnBounds[i])) {
+				addDirty(dirty, bounds);
+				if (drawnBounds[i] != null && !bounds.equals(drawnBounds[i]))
+					addDirty(dirty, drawnBounds[i]);
+			}
+			drawnBounds[i] = bounds;
+		}
+
+		Set<Point> fuel = world.getAvailableFuel();
+		boolean fuelChanged = false;
+		for (Point p : fuel) {
+			if (!drawnFuel.contains(p)) {
+				addDirty(dirty, cellBounds(p));
+				fuelChanged = true;
+			}
+		}
+		for (Point p : drawnFuel) {
+			if (!fuel.contains(p)) {
+				addDirty(dirty, cellBounds(p));
+				fuelChanged = true;
+			}
+		}
+		if (fuelChanged)
+			drawnFuel = new HashSet<Point>(fuel);
+
+		for (Rectangle r : dirty)
+			paintImmediately(r);
+	}
+
+	/** Adds r to the dirty regions, merging it with any it overlaps. */
+	private static void addDirty(List<Rectangle> dirty, Rectangle r) {
+		r = new Rectangle(r);
+		for (int i = 0; i < dirty.size(); i++) {
+			if (dirty.get(i).intersects(r)) {
+				r.add(dirty.remove(i));
+				i = -1;
+			}
+		}
+		dirty.add(r);
+	}
+
+	/**
+	 * One world update. At FASTEST speed it first waits for both robots to
+	 * act, and then queues the next update straight away. The world and
+	 * replay are the ones there were when it was scheduled, as reset
+	 * replaces them on the swing thread.
+	 */
+	private class LogicTask implements Runnable {
+
+		private final int gen;
+		private final World world;
+		private final ReplayPlayer replay;
+
+		public LogicTask(int gen, World world, ReplayPlayer replay) {
+			this.gen = gen;
+			this.world = world;
+			this.replay = replay;
 		}
 
 		@Override
 		public void run() {
-			// test for any deaths
-			boolean r1dead = world.getRobot(1).isDead();
-			boolean r2dead = world.getRobot(2).isDead();
-			if (r1dead || r2dead) {
-				timer.cancel();
-				timer = null;
-				String msg = (r1dead && r2dead) ? "Both robots" : r1dead ? "Robot 1 (red)" : "Robot 2 (blue)";
-				JOptionPane.showMessageDialog(null, msg + " ran out of fuel!");
+			if (gen != generation || world.getRobot(1).isDead() || world.getRobot(2).isDead())
 				return;
-			}
-
-			// logic tick
-			frame++;
-			if (frame % WORLD_UPDATE_DELAY == 0)
+			boolean fastest = speed <= FASTEST;
+			if (replay != null) {
+				if (replayTick + 1 >= replay.getTickCount())
+					return;
+				replay.show(world, ++replayTick);
+			} else if (fastest) {
+				// a robot that takes longer than a normal tick misses this one
+				world.getRobot(1).awaitAction(TICK_DELAY);
+				world.getRobot(2).awaitAction(TICK_DELAY);
 				world.updateWorld();
-			repaint();
+			} else {
+				world.updateWorld();
+			}
+			lastTick = System.nanoTime();
+			ScheduledExecutorService t = ticker;
+			if (fastest && gen == generation && t != null && !t.isShutdown())
+				t.execute(this);
 		}
 	}
 }
@@ -0,0 +1,44 @@
+import java.util.Random;
+
+/**
+ * A Random that gives exactly the same numbers as java.util.Random for the
+ * same seed, but whose internal state can be read and set, so a world's
+ * random numbers can be saved and restored with the rest of the world.
+ */
+@SuppressWarnings("serial")
+public class WorldRandom extends Random {
+
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+
+	private long state;
+
+	public WorldRandom() {
+		super();
+	}
+
+	public WorldRandom(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		// called by Random's constructor, before this class's fields are set
+		state = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	@Override
+	protected synchronized int next(int bits) {
+		state = (state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (state >>> (48 - bits));
+	}
+
+	public synchronized long getState() {
+		return state;
+	}
+
+	public synchronized void setState(long state) {
+		this.state = state & MASK;
+	}
+}
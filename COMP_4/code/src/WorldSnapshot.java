@@ -0,0 +1,49 @@
+import java.awt.Point;
+
+/**
+ * An immutable copy of a world's state between two updates: the update
+ * count, the barrels, the state of the random numbers and both robots. A
+ * snapshot can be restored into a world, or forked into any number of new
+ * worlds that carry on independently from the same state.
+ */
+public final class WorldSnapshot {
+
+	final int tick;
+	final long randomState;
+	final boolean noWait;
+	// barrel cells as y * SIZE + x
+	private final int[] barrels;
+	final Robot.Snapshot[] robots;
+
+	WorldSnapshot(int tick, long randomState, boolean noWait, int[] barrels, Robot.Snapshot[] robots) {
+		this.tick = tick;
+		this.randomState = randomState;
+		this.noWait = noWait;
+		this.barrels = barrels;
+		this.robots = robots.clone();
+	}
+
+	/**
+	 * @return the number of updates the world had had
+	 */
+	public int getTick() {
+		return tick;
+	}
+
+	public int getBarrelCount() {
+		return barrels.length;
+	}
+
+	public Point getBarrel(int i) {
+		return new Point(barrels[i] % World.SIZE, barrels[i] / World.SIZE);
+	}
+
+	/**
+	 * @return a new world in this state
+	 */
+	public World fork() {
+		World world = new World(noWait);
+		world.restore(this);
+		return world;
+	}
+}